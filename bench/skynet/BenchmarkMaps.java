@@ -0,0 +1,67 @@
+package skynet;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The maps used by the benchmarks: square grids with a single gateway on the
+ * border and the agent in the center. The maps are generated once in text
+ * and in binary format and are written to the class path root of the
+ * benchmarks, so they can be loaded with
+ * {@link SkynetSubnet#createSubnet(String)}. The benchmarks must therefore be
+ * run from a class directory and not from a jar.
+ *
+ * @author hto
+ *
+ */
+final class BenchmarkMaps {
+
+	private BenchmarkMaps() {
+	}
+
+	/**
+	 * Generates the grid with about numberOfNodes nodes if it does not exist
+	 * yet.
+	 *
+	 * @param numberOfNodes
+	 *            the wanted number of nodes, the grid has the next square
+	 *            number of nodes
+	 * @return the name of the map on the class path without extension, e.g.
+	 *         /benchmarkGrid100
+	 */
+	static String grid(int numberOfNodes) {
+		String name = "/benchmarkGrid" + numberOfNodes;
+		Path text = file(name + ".txt");
+		Path binary = file(name + ".skn");
+		try {
+			if (!Files.exists(binary)) {
+				int side = Math.max(3, (int) Math.round(Math.sqrt(numberOfNodes)));
+				SubnetCorpusGenerator.writeGrid(text, side, side, 1, 42L);
+				SubnetMapConverter.convert(text, binary);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Benchmark map " + name + " cannot be written.", e);
+		}
+		return name;
+	}
+
+	/**
+	 * @param name
+	 *            name of a file on the class path, e.g. /benchmarkGrid100.skn
+	 * @return the file in the file system
+	 */
+	static Path file(String name) {
+		try {
+			Path root = Paths.get(BenchmarkMaps.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			if (!Files.isDirectory(root)) {
+				throw new RuntimeException("The benchmarks must be run from a class directory, not from " + root + ".");
+			}
+			return root.resolve(name.substring(1));
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("The class path root of the benchmarks cannot be found.", e);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package skynet;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Recalculating the steps of all nodes to the nearest gateway from scratch,
+ * without any turn around it.
+ *
+ * @author hto
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DistanceBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	int nodes;
+
+	@Param({ "NODES", "CSR", "OFF_HEAP" })
+	SkynetSubnet.Core core;
+
+	private SubnetGraph graph;
+	private GatewayDistances distances;
+	private int agentNode;
+
+	@Setup
+	public void setUp() throws IOException {
+		SubnetMap map = SubnetMap.mapBinary(BenchmarkMaps.file(BenchmarkMaps.grid(this.nodes) + ".skn"));
+		boolean offHeap = this.core == SkynetSubnet.Core.OFF_HEAP;
+		if (this.core == SkynetSubnet.Core.CSR) {
+			this.graph = new CsrSubnetGraph(map);
+		} else if (offHeap) {
+			this.graph = new OffHeapSubnetGraph(map);
+		} else {
+			this.graph = new NodeSubnetGraph(map);
+		}
+		int[] gateways = new int[map.gateways.length];
+		for (int i = 0; i < gateways.length; i++) {
+			gateways[i] = this.graph.indexOf(map.gateways[i]);
+			this.graph.setGateway(gateways[i]);
+		}
+		this.agentNode = this.graph.indexOf(map.agentPosition);
+		this.distances = new GatewayDistances(this.graph, gateways, offHeap);
+	}
+
+	@Benchmark
+	public int recompute() {
+		this.distances.reset();
+		this.distances.searchUpTo(Integer.MAX_VALUE - 1);
+		return this.graph.getSteps(this.agentNode);
+	}
+}
@@ -0,0 +1,51 @@
+package skynet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Forking a game, alone and followed by a turn on the fork.
+ *
+ * @author hto
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ForkBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	int nodes;
+
+	@Param({ "NODES", "CSR", "OFF_HEAP" })
+	SkynetSubnet.Core core;
+
+	private SubnetBackdoor subnet;
+	private int[] link;
+
+	@Setup
+	public void setUp() {
+		this.subnet = SkynetSubnet.createSubnet(BenchmarkMaps.grid(this.nodes) + ".skn", this.core);
+		this.link = this.subnet.getNodeLinks()[0];
+	}
+
+	@Benchmark
+	public SubnetBackdoor fork() {
+		return this.subnet.fork();
+	}
+
+	@Benchmark
+	public int forkAndTurn() {
+		SubnetBackdoor fork = this.subnet.fork();
+		fork.disconnectNodesBeforeAgentMovesOn(this.link[0], this.link[1]);
+		return fork.getAgentPosition();
+	}
+}
@@ -0,0 +1,52 @@
+package skynet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The different ways to get the links of a subnet.
+ *
+ * @author hto
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LinksBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	int nodes;
+
+	private SubnetBackdoor subnet;
+	private int[] buffer;
+
+	@Setup
+	public void setUp() {
+		this.subnet = SkynetSubnet.createSubnet(BenchmarkMaps.grid(this.nodes) + ".skn", SkynetSubnet.Core.CSR);
+		this.buffer = new int[2 * this.subnet.getNodeLinksBuffer().remaining()];
+	}
+
+	@Benchmark
+	public int[][] getNodeLinks() {
+		return this.subnet.getNodeLinks();
+	}
+
+	@Benchmark
+	public int copyLinksInto() {
+		return this.subnet.copyLinksInto(this.buffer);
+	}
+
+	@Benchmark
+	public void forEachLink(Blackhole blackhole) {
+		this.subnet.forEachLink((a, b) -> blackhole.consume(a + b));
+	}
+}
@@ -0,0 +1,56 @@
+package skynet;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Loading a map from the class path in text and in binary format and mapping
+ * a binary map from the file system.
+ *
+ * @author hto
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	int nodes;
+
+	@Param({ "NODES", "CSR", "OFF_HEAP" })
+	SkynetSubnet.Core core;
+
+	private String map;
+	private Path binaryFile;
+
+	@Setup
+	public void setUp() {
+		this.map = BenchmarkMaps.grid(this.nodes);
+		this.binaryFile = BenchmarkMaps.file(this.map + ".skn");
+	}
+
+	@Benchmark
+	public SubnetBackdoor text() {
+		return SkynetSubnet.createSubnet(this.map + ".txt", this.core);
+	}
+
+	@Benchmark
+	public SubnetBackdoor binary() {
+		return SkynetSubnet.createSubnet(this.map + ".skn", this.core);
+	}
+
+	@Benchmark
+	public SubnetBackdoor mapped() {
+		return SkynetSubnet.createSubnetFromBinaryFile(this.binaryFile, this.core);
+	}
+}
@@ -0,0 +1,36 @@
+package skynet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Creating random subnets with the seeded generator. The old generator
+ * {@link SkynetSubnet#createRandomSubnet(int)} creates O(n^2) links and is
+ * not measured.
+ *
+ * @author hto
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RandomSubnetBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	int nodes;
+
+	@Param({ "NODES", "CSR" })
+	SkynetSubnet.Core core;
+
+	@Benchmark
+	public SubnetBackdoor createRandomSubnet() {
+		return SkynetSubnet.createRandomSubnet(this.nodes, 4.0, 42L, this.core);
+	}
+}
@@ -0,0 +1,65 @@
+package skynet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of the bench source folder with the allocation
+ * profiler. The folder needs jmh-core and jmh-generator-annprocess (1.37) in
+ * the lib folder; the annotation processor generates the benchmark classes
+ * while compiling. In Eclipse it is enabled by the .factorypath of the
+ * project. Outside Eclipse javac finds the processor on the class path:
+ *
+ * <pre>
+ * <code>
+ *	javac -cp "lib/*" -d bin $(find src bench -name "*.java")
+ * </code>
+ * </pre>
+ *
+ * Options on the command line are passed on to JMH, e.g. to run only the
+ * turns on a million nodes:
+ *
+ * <pre>
+ * <code>
+ *	java -cp bin:lib/* skynet.SkynetBenchmarks TurnBenchmark -p nodes=1000000
+ * </code>
+ * </pre>
+ *
+ * @author hto
+ *
+ */
+public class SkynetBenchmarks {
+
+	/**
+	 * @param args
+	 *            JMH command line options
+	 * @throws RunnerException
+	 *             if a benchmark fails
+	 * @throws CommandLineOptionException
+	 *             if the options are not valid
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (commandLine.getIncludes().isEmpty()) {
+			builder.include("skynet\\..*Benchmark");
+		}
+		if (!commandLine.getForkCount().hasValue()) {
+			builder.forks(1);
+		}
+		if (!commandLine.getWarmupIterations().hasValue()) {
+			builder.warmupIterations(3);
+		}
+		if (!commandLine.getMeasurementIterations().hasValue()) {
+			builder.measurementIterations(5);
+		}
+		Options options = builder.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
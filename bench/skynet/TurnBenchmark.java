@@ -0,0 +1,95 @@
+package skynet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full turn: severing a link and letting the agent move on. The turns sever
+ * random links of the map, the same sequence in every game, until the game is
+ * over. Games are short, so every iteration plays a batch of {@link #TURNS}
+ * turns on fresh forks of an unplayed game, which are made before the batch
+ * and are not measured. Like every game created from a cached map, a fork
+ * copies the pages it changes. No journal is kept, so the turns are the ones
+ * of a real game. The score is the time of a batch in milliseconds, which is
+ * the time of a turn in microseconds.
+ *
+ * @author hto
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(batchSize = TurnBenchmark.TURNS)
+@Measurement(batchSize = TurnBenchmark.TURNS)
+public class TurnBenchmark {
+
+	/**
+	 * The number of turns of an iteration.
+	 */
+	static final int TURNS = 1000;
+
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	int nodes;
+
+	@Param({ "NODES", "CSR", "OFF_HEAP" })
+	SkynetSubnet.Core core;
+
+	private SubnetBackdoor template;
+	// the links severed in a game, in this order
+	private int[][] severs;
+	private SubnetBackdoor[] games;
+	private int game;
+	private int turn;
+
+	@Setup
+	public void setUp() {
+		this.template = SkynetSubnet.createSubnet(BenchmarkMaps.grid(this.nodes) + ".skn", this.core);
+		int[][] links = this.template.getNodeLinks();
+		RandomGenerator random = new Well19937c(42L);
+		SubnetBackdoor subnet = this.template.fork();
+		List<int[]> severs = new ArrayList<>();
+		while (subnet.isAgentStillMoving()) {
+			int[] link = links[random.nextInt(links.length)];
+			subnet.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+			severs.add(link);
+		}
+		this.severs = severs.toArray(new int[severs.size()][]);
+		this.games = new SubnetBackdoor[(TURNS + this.severs.length - 1) / this.severs.length];
+	}
+
+	@Setup(Level.Iteration)
+	public void newGames() {
+		for (int i = 0; i < this.games.length; i++) {
+			this.games[i] = this.template.fork();
+		}
+		this.game = 0;
+		this.turn = 0;
+	}
+
+	@Benchmark
+	public int turn() {
+		SubnetBackdoor subnet = this.games[this.game];
+		int[] link = this.severs[this.turn];
+		subnet.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+		if (++this.turn == this.severs.length) {
+			this.turn = 0;
+			this.game++;
+		}
+		return subnet.getAgentPosition();
+	}
+}
@@ -0,0 +1,211 @@
+package skynet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * An int array of fixed length which can be forked in time proportional to
+ * length/4096 instead of length. The array is split into pages of 4096
+ * elements. A fork shares all pages with its parent, and a page is only
+ * copied when the parent or the fork writes to it for the first time.
+ * Initially all pages share a single page filled with the initial value, so
+ * memory is only allocated for the pages which are written to.
+ * <p>
+ * The array can also be used as a bit set with 32 bits per element.
+ * <p>
+ * An array created by {@link #offHeap(int, int)} keeps its pages in direct
+ * buffers, so only the table of pages is on the heap.
+ *
+ * @author hto
+ *
+ */
+final class CopyOnWriteIntArray {
+
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private final int length;
+	// either the pages on the heap or the pages in direct buffers
+	private final int[][] pages;
+	private final IntBuffer[] directPages;
+	// a page may only be written by the array which owns it, shared pages
+	// have an owner which no array has anymore
+	private final Object[] owners;
+	private Object owner = new Object();
+
+	/**
+	 * Creates an array.
+	 *
+	 * @param length
+	 *            the number of elements
+	 * @param value
+	 *            the initial value of all elements
+	 */
+	CopyOnWriteIntArray(int length, int value) {
+		this(length, value, false);
+	}
+
+	private CopyOnWriteIntArray(int length, int value, boolean offHeap) {
+		this.length = length;
+		int pageCount = (length + PAGE_MASK) >>> PAGE_BITS;
+		this.owners = new Object[pageCount];
+		if (offHeap) {
+			this.pages = null;
+			this.directPages = new IntBuffer[pageCount];
+			if (pageCount > 0) {
+				IntBuffer page = allocateDirect(PAGE_SIZE);
+				for (int i = 0; i < PAGE_SIZE; i++) {
+					page.put(i, value);
+				}
+				Arrays.fill(this.directPages, page);
+			}
+		} else {
+			this.pages = new int[pageCount][];
+			this.directPages = null;
+			if (pageCount > 0) {
+				int[] page = new int[PAGE_SIZE];
+				Arrays.fill(page, value);
+				Arrays.fill(this.pages, page);
+			}
+		}
+	}
+
+	/**
+	 * Creates a fork which shares all pages with its parent.
+	 */
+	private CopyOnWriteIntArray(CopyOnWriteIntArray parent) {
+		this.length = parent.length;
+		this.pages = parent.pages == null ? null : parent.pages.clone();
+		this.directPages = parent.directPages == null ? null : parent.directPages.clone();
+		this.owners = parent.owners.clone();
+	}
+
+	/**
+	 * Creates an array whose pages are kept off the heap.
+	 *
+	 * @param length
+	 *            the number of elements
+	 * @param value
+	 *            the initial value of all elements
+	 * @return the array
+	 */
+	static CopyOnWriteIntArray offHeap(int length, int value) {
+		return new CopyOnWriteIntArray(length, value, true);
+	}
+
+	/**
+	 * @param length
+	 *            a number of bits
+	 * @return an array with enough elements for a bit set of this length, all
+	 *         bits cleared
+	 */
+	static CopyOnWriteIntArray bits(int length) {
+		return new CopyOnWriteIntArray((int) ((length + 31L) >>> 5), 0);
+	}
+
+	/**
+	 * @param length
+	 *            a number of bits
+	 * @return a bit set like {@link #bits(int)} whose pages are kept off the
+	 *         heap
+	 */
+	static CopyOnWriteIntArray offHeapBits(int length) {
+		return offHeap((int) ((length + 31L) >>> 5), 0);
+	}
+
+	/**
+	 * @param length
+	 *            a number of ints
+	 * @return a direct buffer for them in native byte order, all ints 0
+	 */
+	static IntBuffer allocateDirect(int length) {
+		return ByteBuffer.allocateDirect(4 * length).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	/**
+	 * @return the number of elements
+	 */
+	int length() {
+		return this.length;
+	}
+
+	/**
+	 * @param index
+	 *            index of an element
+	 * @return the element
+	 */
+	int get(int index) {
+		int[][] pages = this.pages;
+		if (pages != null) {
+			return pages[index >>> PAGE_BITS][index & PAGE_MASK];
+		}
+		return this.directPages[index >>> PAGE_BITS].get(index & PAGE_MASK);
+	}
+
+	/**
+	 * @param index
+	 *            index of an element
+	 * @param value
+	 *            the new value of the element
+	 */
+	void set(int index, int value) {
+		int page = index >>> PAGE_BITS;
+		if (this.pages == null) {
+			if (this.owners[page] != this.owner) {
+				IntBuffer copy = allocateDirect(PAGE_SIZE);
+				IntBuffer source = this.directPages[page].duplicate();
+				source.clear();
+				copy.put(source);
+				copy.clear();
+				this.directPages[page] = copy;
+				this.owners[page] = this.owner;
+			}
+			this.directPages[page].put(index & PAGE_MASK, value);
+			return;
+		}
+		if (this.owners[page] != this.owner) {
+			this.pages[page] = this.pages[page].clone();
+			this.owners[page] = this.owner;
+		}
+		this.pages[page][index & PAGE_MASK] = value;
+	}
+
+	/**
+	 * @param bit
+	 *            index of a bit
+	 * @return true if the bit is set
+	 */
+	boolean getBit(int bit) {
+		return (this.get(bit >>> 5) & (1 << bit)) != 0;
+	}
+
+	/**
+	 * @param bit
+	 *            index of a bit
+	 * @param value
+	 *            the new value of the bit
+	 */
+	void setBit(int bit, boolean value) {
+		int word = this.get(bit >>> 5);
+		int newWord = value ? word | (1 << bit) : word & ~(1 << bit);
+		if (newWord != word) {
+			this.set(bit >>> 5, newWord);
+		}
+	}
+
+	/**
+	 * Creates an independent copy of the array. Afterwards the array and the
+	 * copy share all pages until they are written to.
+	 *
+	 * @return the copy
+	 */
+	CopyOnWriteIntArray fork() {
+		CopyOnWriteIntArray fork = new CopyOnWriteIntArray(this);
+		// the pages written so far are shared now
+		this.owner = new Object();
+		return fork;
+	}
+}
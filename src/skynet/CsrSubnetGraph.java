@@ -0,0 +1,366 @@
+package skynet;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact graph core for large subnets. The node ids of the map are
+ * remapped to dense indexes when the subnet is loaded and the links are
+ * stored in compressed sparse row format: the neighbours of node i are
+ * targets[offsets[i]] to targets[offsets[i+1]-1] and the weights of their
+ * links are kept at the same positions in weights. The rows list the
+ * neighbours in the order of {@link NodeSubnetGraph}, see
+ * {@link NeighbourOrder}. Severed links are not removed from the rows but
+ * marked in a bit set over the positions in targets. Gateway flags and the
+ * steps to the next gateway are kept in parallel primitive arrays, so there
+ * is no object per node at all.
+ * <p>
+ * The ids, the rows and the gateway flags never change once the subnet is
+ * loaded, so a {@link #fork()} shares them. The severed bits and the steps
+ * are copy on write arrays.
+ *
+ * @author hto
+ *
+ */
+class CsrSubnetGraph implements SubnetGraph {
+
+	// sorted node ids, ids[i] is the id of the node with index i
+	private final int[] ids;
+	// true if ids[i] == i for all nodes, the usual case for the maps
+	private final boolean identity;
+
+	private final int[] offsets;
+	private final int[] targets;
+	// the binary logarithm of the capacity of the HashMap whose order every
+	// row has, see NeighbourOrder, 0 if a row has to be searched one by one
+	private final byte[] shifts;
+	// null if every link has weight 1
+	private final int[] weights;
+	private final int maxDegree;
+	private final int maxWeight;
+
+	private final boolean[] gateways;
+
+	// one bit for every position in targets
+	private final CopyOnWriteIntArray severed;
+	private final CopyOnWriteIntArray steps;
+
+	/**
+	 * Creates the compact graph of a subnet.
+	 *
+	 * @param map
+	 *            the map of the subnet
+	 */
+	CsrSubnetGraph(SubnetMap map) {
+		IntBuffer links = map.links;
+		IntBuffer linkWeights = map.weights;
+		int linkCount = map.linkCount;
+		this.ids = collectIds(map);
+		int n = this.ids.length;
+		this.identity = n == 0 || (this.ids[0] == 0 && this.ids[n - 1] == n - 1);
+
+		// count the degree of every node, self links are dropped
+		int[] rowStart = new int[n + 1];
+		int[] ends = new int[2 * linkCount];
+		for (int i = 0; i < linkCount; i++) {
+			int a = this.indexOf(links.get(2 * i));
+			int b = this.indexOf(links.get(2 * i + 1));
+			ends[2 * i] = a;
+			ends[2 * i + 1] = b;
+			if (a != b) {
+				rowStart[a + 1]++;
+				rowStart[b + 1]++;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			rowStart[i + 1] += rowStart[i];
+		}
+
+		// fill the rows in both directions in the order of the links
+		int[] rows = new int[rowStart[n]];
+		int[] weights = linkWeights == null ? null : new int[rowStart[n]];
+		int[] fill = Arrays.copyOf(rowStart, n);
+		for (int i = 0; i < linkCount; i++) {
+			int a = ends[2 * i];
+			int b = ends[2 * i + 1];
+			if (a == b) {
+				continue;
+			}
+			if (weights != null) {
+				weights[fill[a]] = linkWeights.get(i);
+				weights[fill[b]] = linkWeights.get(i);
+			}
+			rows[fill[a]++] = b;
+			rows[fill[b]++] = a;
+		}
+		ends = null;
+		fill = null;
+
+		// drop links that occur more than once, keeping the least weight, and
+		// put every row into the order of NodeSubnetGraph
+		NeighbourOrder order = new NeighbourOrder();
+		this.offsets = new int[n + 1];
+		this.shifts = new byte[n];
+		int size = 0;
+		int maxDegree = 0;
+		int maxWeight = 1;
+		for (int i = 0; i < n; i++) {
+			int from = rowStart[i];
+			int count = order.sort(rows, weights, from, rowStart[i + 1], this::idOf);
+			System.arraycopy(rows, from, rows, size, count);
+			if (weights != null) {
+				System.arraycopy(weights, from, weights, size, count);
+				for (int k = size; k < size + count; k++) {
+					maxWeight = Math.max(maxWeight, weights[k]);
+				}
+			}
+			this.shifts[i] = (byte) order.shift();
+			size += count;
+			this.offsets[i + 1] = size;
+			maxDegree = Math.max(maxDegree, count);
+		}
+		this.targets = size == rows.length ? rows : Arrays.copyOf(rows, size);
+		this.weights = maxWeight == 1 ? null : size == weights.length ? weights : Arrays.copyOf(weights, size);
+		this.maxDegree = maxDegree;
+		this.maxWeight = maxWeight;
+
+		this.gateways = new boolean[n];
+		this.severed = CopyOnWriteIntArray.bits(size);
+		this.steps = new CopyOnWriteIntArray(n, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a fork of a graph.
+	 *
+	 * @param parent
+	 *            the graph to fork
+	 */
+	private CsrSubnetGraph(CsrSubnetGraph parent) {
+		this.ids = parent.ids;
+		this.identity = parent.identity;
+		this.offsets = parent.offsets;
+		this.targets = parent.targets;
+		this.shifts = parent.shifts;
+		this.weights = parent.weights;
+		this.maxDegree = parent.maxDegree;
+		this.maxWeight = parent.maxWeight;
+		this.gateways = parent.gateways;
+		this.severed = parent.severed.fork();
+		this.steps = parent.steps.fork();
+	}
+
+	/**
+	 * Collects the distinct ids of all nodes mentioned in a map.
+	 *
+	 * @return all node ids in ascending order
+	 */
+	private static int[] collectIds(SubnetMap map) {
+		IntBuffer links = map.links;
+		int linkCount = map.linkCount;
+		int[] gatewayIds = map.gateways;
+		int[] agentIds = map.agentPositions;
+		int count = 2 * linkCount + gatewayIds.length + agentIds.length;
+		int min = map.agentPosition;
+		int max = map.agentPosition;
+		for (int i = 0; i < 2 * linkCount; i++) {
+			min = Math.min(min, links.get(i));
+			max = Math.max(max, links.get(i));
+		}
+		for (int id : gatewayIds) {
+			min = Math.min(min, id);
+			max = Math.max(max, id);
+		}
+		for (int id : agentIds) {
+			min = Math.min(min, id);
+			max = Math.max(max, id);
+		}
+
+		if (min >= 0 && max < 2L * count) {
+			// small non negative ids: mark them in a table instead of sorting
+			boolean[] present = new boolean[max + 1];
+			for (int i = 0; i < 2 * linkCount; i++) {
+				present[links.get(i)] = true;
+			}
+			for (int id : gatewayIds) {
+				present[id] = true;
+			}
+			for (int id : agentIds) {
+				present[id] = true;
+			}
+			int n = 0;
+			for (boolean p : present) {
+				if (p) {
+					n++;
+				}
+			}
+			int[] ids = new int[n];
+			n = 0;
+			for (int id = 0; id <= max; id++) {
+				if (present[id]) {
+					ids[n++] = id;
+				}
+			}
+			return ids;
+		}
+
+		int[] all = new int[count];
+		links.duplicate().get(all, 0, 2 * linkCount);
+		System.arraycopy(gatewayIds, 0, all, 2 * linkCount, gatewayIds.length);
+		System.arraycopy(agentIds, 0, all, 2 * linkCount + gatewayIds.length, agentIds.length);
+		Arrays.sort(all);
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || all[i] != all[i - 1]) {
+				all[n++] = all[i];
+			}
+		}
+		return Arrays.copyOf(all, n);
+	}
+
+	@Override
+	public int size() {
+		return this.ids.length;
+	}
+
+	@Override
+	public int indexOf(int id) {
+		if (this.identity) {
+			return id >= 0 && id < this.ids.length ? id : -1;
+		}
+		int index = Arrays.binarySearch(this.ids, id);
+		return index < 0 ? -1 : index;
+	}
+
+	@Override
+	public int idOf(int index) {
+		return this.ids[index];
+	}
+
+	@Override
+	public int maxDegree() {
+		return this.maxDegree;
+	}
+
+	@Override
+	public int neighbours(int index, int[] dst) {
+		int count = 0;
+		for (int k = this.offsets[index]; k < this.offsets[index + 1]; k++) {
+			if (!this.isSevered(k)) {
+				dst[count++] = this.targets[k];
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int neighbours(int index, int[] dst, int[] weights) {
+		if (this.weights == null) {
+			return SubnetGraph.super.neighbours(index, dst, weights);
+		}
+		int count = 0;
+		for (int k = this.offsets[index]; k < this.offsets[index + 1]; k++) {
+			if (!this.isSevered(k)) {
+				weights[count] = this.weights[k];
+				dst[count++] = this.targets[k];
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int maxWeight() {
+		return this.maxWeight;
+	}
+
+	@Override
+	public int weight(int a, int b) {
+		return this.weights == null ? 1 : this.weights[this.slotOf(a, b)];
+	}
+
+	@Override
+	public boolean removeLink(int a, int b) {
+		int ab = this.slotOf(a, b);
+		if (ab < 0 || this.isSevered(ab)) {
+			return false;
+		}
+		this.severed.setBit(ab, true);
+		this.severed.setBit(this.slotOf(b, a), true);
+		return true;
+	}
+
+	@Override
+	public void restoreLink(int a, int b) {
+		int ab = this.slotOf(a, b);
+		if (ab >= 0) {
+			this.severed.setBit(ab, false);
+			this.severed.setBit(this.slotOf(b, a), false);
+		}
+	}
+
+	@Override
+	public boolean isGateway(int index) {
+		return this.gateways[index];
+	}
+
+	@Override
+	public void setGateway(int index) {
+		this.gateways[index] = true;
+	}
+
+	@Override
+	public int getSteps(int index) {
+		return this.steps.get(index);
+	}
+
+	@Override
+	public void setSteps(int index, int steps) {
+		this.steps.set(index, steps);
+	}
+
+	@Override
+	public SubnetGraph fork() {
+		return new CsrSubnetGraph(this);
+	}
+
+	/**
+	 * Finds the position of node b in the row of node a.
+	 *
+	 * @return the position in targets or a negative value if a and b were
+	 *         never linked
+	 */
+	private int slotOf(int a, int b) {
+		int from = this.offsets[a];
+		int to = this.offsets[a + 1];
+		int shift = this.shifts[a];
+		if (shift == 0) {
+			for (int k = from; k < to; k++) {
+				if (this.targets[k] == b) {
+					return k;
+				}
+			}
+			return -1;
+		}
+		// the first position whose bucket is not less than the one of b
+		int bucket = NeighbourOrder.bucket(this.ids[b], shift);
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (NeighbourOrder.bucket(this.ids[this.targets[middle]], shift) < bucket) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		for (int k = low; k < to && NeighbourOrder.bucket(this.ids[this.targets[k]], shift) == bucket; k++) {
+			if (this.targets[k] == b) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isSevered(int k) {
+		return this.severed.getBit(k);
+	}
+}
@@ -0,0 +1,932 @@
+package skynet;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps the number of steps from the nodes of a subnet to the nearest
+ * gateway up to date. The steps themselves are stored in the
+ * {@link SubnetGraph}.
+ * <p>
+ * The steps are only calculated as far as they are needed: all nodes which
+ * are at most {@link #getHorizon()} steps away from a gateway know their
+ * exact steps, all other nodes have Integer.MAX_VALUE. The horizon is moved
+ * on by a breadth first search from the gateways. When a link is severed only
+ * the nodes whose shortest ways to a gateway all led over this link are
+ * repaired, so a turn usually costs as much as the region it affects.
+ * <p>
+ * Every node with known steps also knows its next hop: the last of its
+ * neighbours (in the order of {@link SubnetGraph#neighbours(int, int[])}) which
+ * is one step closer to a gateway. That is the neighbour the agent moves to,
+ * so the way of the agent can be followed in O(1) per step. The next hops are
+ * set by the same scans which set the steps and repaired together with them.
+ * <p>
+ * The list of nodes with known steps and the next hops are copy on write
+ * arrays, so a {@link #fork(SubnetGraph)} costs about as much as forking the
+ * graph. The queue of the searches grows with the number of nodes they
+ * reach and the marks of the repairs are a copy on write array too, so the
+ * memory of the distances follows the part of the subnet which is searched.
+ * Off heap distances keep these arrays and the queue in direct memory, only
+ * the buffers of a repair grow on the heap with the number of nodes it
+ * affects.
+ * <p>
+ * After the first {@link #mark()} every change is recorded in a journal with
+ * its old value, so the distances can be rolled back to any mark in time
+ * proportional to the changes since then.
+ * <p>
+ * If the links have weights the steps are the sum of the weights on a
+ * shortest way and the next hop is the last neighbour whose steps plus the
+ * weight of the link to it are the steps of the node. The searches and the
+ * repairs then run Dijkstra's algorithm on a {@link RadixHeap} instead of the
+ * breadth first search, which is still used as long as every weight is 1.
+ *
+ * @author hto
+ *
+ */
+final class GatewayDistances {
+
+	private final SubnetGraph graph;
+	private final int[] gateways;
+	private final int[] neighbours;
+	private final boolean offHeap;
+	// true if the links have weights other than 1
+	private final boolean weighted;
+	// the weights of the links to the neighbours, only used if weighted
+	private final int[] weights;
+
+	private static final int INITIAL_QUEUE_SIZE = 1 << 12;
+
+	// queue of the breadth first searches and of the repairs, grows with the
+	// number of nodes they reach
+	private IntBuffer queue;
+	// queue of the searches and repairs with weights, created when needed
+	private RadixHeap heap;
+
+	// all nodes whose steps may be less than Integer.MAX_VALUE
+	private final CopyOnWriteIntArray touched;
+	private final CopyOnWriteIntArray listed;
+	private int touchedCount = 0;
+
+	// the next hop of every node with known steps > 0
+	private final CopyOnWriteIntArray nextHops;
+
+	// all nodes up to this many steps away from a gateway know their steps
+	private int horizon = -1;
+
+	// the number of times the steps of a node were written
+	private long touchedNodes = 0;
+
+	// marks the nodes visited by the current repair
+	private CopyOnWriteIntArray repairMarks;
+	private int repairEpoch = 0;
+	private int[] affected = new int[16];
+	private long[] seeds = new long[16];
+
+	// what was changed in the journal entries
+	private static final int STEPS = 0;
+	private static final int TOUCHED = 1;
+	private static final int LISTED = 2;
+	private static final int NEXT_HOP = 3;
+	private static final int MARK = 4;
+
+	// three ints per change: what was changed, where and the old value. A
+	// mark keeps the horizon and the number of touched nodes instead.
+	private int[] journal = null;
+	private int journalSize = 0;
+
+	/**
+	 * Creates the distances of a subnet. Initially no steps are known.
+	 *
+	 * @param graph
+	 *            the graph which stores the steps
+	 * @param gateways
+	 *            dense indexes of the gateway nodes
+	 */
+	GatewayDistances(SubnetGraph graph, int[] gateways) {
+		this(graph, gateways, false);
+	}
+
+	/**
+	 * Creates the distances of a subnet. Initially no steps are known.
+	 *
+	 * @param graph
+	 *            the graph which stores the steps
+	 * @param gateways
+	 *            dense indexes of the gateway nodes
+	 * @param offHeap
+	 *            true to keep the list of nodes, the next hops and the
+	 *            buffers of the searches off the heap
+	 */
+	GatewayDistances(SubnetGraph graph, int[] gateways, boolean offHeap) {
+		this.graph = graph;
+		this.gateways = gateways;
+		this.neighbours = new int[graph.maxDegree()];
+		this.offHeap = offHeap;
+		this.weighted = graph.maxWeight() > 1;
+		this.weights = new int[this.weighted ? graph.maxDegree() : 0];
+		if (offHeap) {
+			this.touched = CopyOnWriteIntArray.offHeap(graph.size(), 0);
+			this.listed = CopyOnWriteIntArray.offHeapBits(graph.size());
+			this.nextHops = CopyOnWriteIntArray.offHeap(graph.size(), -1);
+		} else {
+			this.touched = new CopyOnWriteIntArray(graph.size(), 0);
+			this.listed = CopyOnWriteIntArray.bits(graph.size());
+			this.nextHops = new CopyOnWriteIntArray(graph.size(), -1);
+		}
+	}
+
+	/**
+	 * Creates a fork of the distances for a fork of their graph.
+	 *
+	 * @param parent
+	 *            the distances to fork
+	 * @param graph
+	 *            the fork of the graph of the parent
+	 */
+	private GatewayDistances(GatewayDistances parent, SubnetGraph graph) {
+		this.graph = graph;
+		this.gateways = parent.gateways;
+		this.neighbours = new int[graph.maxDegree()];
+		this.offHeap = parent.offHeap;
+		this.weighted = parent.weighted;
+		this.weights = new int[parent.weights.length];
+		this.touched = parent.touched.fork();
+		this.listed = parent.listed.fork();
+		this.nextHops = parent.nextHops.fork();
+		this.touchedCount = parent.touchedCount;
+		this.horizon = parent.horizon;
+	}
+
+	/**
+	 * @param graph
+	 *            a fork of the graph of these distances
+	 * @return independent distances which store their steps in the fork
+	 */
+	GatewayDistances fork(SubnetGraph graph) {
+		return new GatewayDistances(this, graph);
+	}
+
+	/**
+	 * @return the number of steps up to which all nodes know their steps to
+	 *         the nearest gateway. Integer.MAX_VALUE if all nodes which can
+	 *         reach a gateway know their steps.
+	 */
+	int getHorizon() {
+		return this.horizon;
+	}
+
+	/**
+	 * @return the number of times the steps of a node were calculated,
+	 *         repaired or forgotten so far
+	 */
+	long getTouchedNodes() {
+		return this.touchedNodes;
+	}
+
+	/**
+	 * Returns the neighbour which the agent moves to from a node if the link
+	 * to it is not severed. Only reads the next hops, so it may be called by
+	 * several threads at once.
+	 *
+	 * @param node
+	 *            dense index of the node
+	 * @return the next hop, node itself if it is a gateway or -1 if the steps
+	 *         of the node are not known
+	 */
+	int getNextHop(int node) {
+		int steps = this.graph.getSteps(node);
+		if (steps == Integer.MAX_VALUE) {
+			return -1;
+		}
+		return steps == 0 ? node : this.nextHops.get(node);
+	}
+
+	/**
+	 * Forgets all steps.
+	 */
+	void reset() {
+		for (int i = 0; i < this.touchedCount; i++) {
+			int node = this.touched.get(i);
+			this.writeSteps(node, Integer.MAX_VALUE);
+			this.writeListed(node, false);
+		}
+		this.touchedCount = 0;
+		this.horizon = -1;
+	}
+
+	/**
+	 * Moves the horizon on until the steps of a node are known or it is
+	 * clear that the node cannot reach any gateway.
+	 *
+	 * @param node
+	 *            dense index of the node
+	 */
+	void searchUntilReached(int node) {
+		this.search(node, 0);
+	}
+
+	/**
+	 * Moves the horizon on until all nodes which are at most level steps
+	 * away from a gateway know their steps.
+	 *
+	 * @param level
+	 *            the new minimal horizon
+	 */
+	void searchUpTo(int level) {
+		this.search(-1, level);
+	}
+
+	/**
+	 * Breadth first search from the nodes on the horizon. The search always
+	 * completes a level, so afterwards the horizon is a valid one again.
+	 *
+	 * @param target
+	 *            node whose steps must be known afterwards or -1
+	 * @param level
+	 *            minimal horizon afterwards
+	 */
+	private void search(int target, int level) {
+		if (this.horizon == Integer.MAX_VALUE) {
+			return;
+		}
+		if (this.horizon >= level && (target < 0 || this.graph.getSteps(target) != Integer.MAX_VALUE)) {
+			return;
+		}
+		if (this.weighted) {
+			this.searchWeighted(target, level);
+			return;
+		}
+
+		IntBuffer queue = this.queue();
+		int head = 0;
+		int tail = 0;
+		if (this.horizon < 0) {
+			for (int gateway : this.gateways) {
+				if (this.graph.getSteps(gateway) != 0) {
+					this.setSteps(gateway, 0);
+					queue = this.enqueue(queue, tail++, gateway);
+				}
+			}
+			this.horizon = 0;
+		} else {
+			for (int i = 0; i < this.touchedCount; i++) {
+				int node = this.touched.get(i);
+				if (this.graph.getSteps(node) == this.horizon) {
+					queue = this.enqueue(queue, tail++, node);
+				}
+			}
+		}
+
+		while (this.horizon < level || (target >= 0 && this.graph.getSteps(target) == Integer.MAX_VALUE)) {
+			if (head == tail) {
+				// no more nodes can be reached
+				this.horizon = Integer.MAX_VALUE;
+				return;
+			}
+			int steps = this.horizon + 1;
+			int levelEnd = tail;
+			while (head < levelEnd) {
+				int node = queue.get(head++);
+				int nextHop = -1;
+				int count = this.graph.neighbours(node, this.neighbours);
+				for (int i = 0; i < count; i++) {
+					int neighbour = this.neighbours[i];
+					int neighbourSteps = this.graph.getSteps(neighbour);
+					if (neighbourSteps == Integer.MAX_VALUE) {
+						this.setSteps(neighbour, steps);
+						queue = this.enqueue(queue, tail++, neighbour);
+					} else if (neighbourSteps == steps - 2) {
+						nextHop = neighbour;
+					}
+				}
+				if (steps > 1) {
+					this.writeNextHop(node, nextHop);
+				}
+			}
+			this.horizon = steps;
+		}
+
+		// the nodes on the horizon are expanded by the next search only
+		while (head < tail) {
+			this.updateNextHop(queue.get(head++));
+		}
+	}
+
+	/**
+	 * Dijkstra's algorithm from the nodes on the horizon. The nodes whose
+	 * steps are known are queued again with the steps of their unknown
+	 * neighbours, so the search can always go on where the last one stopped.
+	 * A node gets its steps when it is taken out of the queue for the first
+	 * time and all nodes with the same steps are taken out together, so
+	 * afterwards the horizon is a valid one again.
+	 *
+	 * @param target
+	 *            node whose steps must be known afterwards or -1
+	 * @param level
+	 *            minimal horizon afterwards
+	 */
+	private void searchWeighted(int target, int level) {
+		RadixHeap heap = this.heap();
+		if (this.horizon < 0) {
+			for (int gateway : this.gateways) {
+				if (this.graph.getSteps(gateway) != 0) {
+					this.setSteps(gateway, 0);
+				}
+			}
+			this.horizon = 0;
+		}
+		// only nodes this close to the horizon can have unknown neighbours
+		// which are not farther away than the longest link
+		long border = (long) this.horizon - this.graph.maxWeight();
+		for (int i = 0; i < this.touchedCount; i++) {
+			int node = this.touched.get(i);
+			int steps = this.graph.getSteps(node);
+			if (steps != Integer.MAX_VALUE && steps > border) {
+				int count = this.graph.neighbours(node, this.neighbours, this.weights);
+				for (int k = 0; k < count; k++) {
+					if (this.graph.getSteps(this.neighbours[k]) == Integer.MAX_VALUE) {
+						heap.push(steps + this.weights[k], this.neighbours[k]);
+					}
+				}
+			}
+		}
+
+		while (this.horizon < level || (target >= 0 && this.graph.getSteps(target) == Integer.MAX_VALUE)) {
+			if (heap.isEmpty()) {
+				// no more nodes can be reached
+				this.horizon = Integer.MAX_VALUE;
+				return;
+			}
+			int steps = heap.minKey();
+			while (!heap.isEmpty() && heap.minKey() == steps) {
+				int node = heap.pop();
+				if (this.graph.getSteps(node) != Integer.MAX_VALUE) {
+					// it was queued again with larger steps
+					continue;
+				}
+				this.setSteps(node, steps);
+				int nextHop = -1;
+				int count = this.graph.neighbours(node, this.neighbours, this.weights);
+				for (int i = 0; i < count; i++) {
+					int neighbour = this.neighbours[i];
+					int neighbourSteps = this.graph.getSteps(neighbour);
+					if (neighbourSteps == Integer.MAX_VALUE) {
+						heap.push(steps + this.weights[i], neighbour);
+					} else if (neighbourSteps == steps - this.weights[i]) {
+						nextHop = neighbour;
+					}
+				}
+				this.writeNextHop(node, nextHop);
+			}
+			// all unknown nodes are farther away than the least queued steps
+			this.horizon = heap.isEmpty() ? Integer.MAX_VALUE : heap.minKey() - 1;
+		}
+	}
+
+	/**
+	 * Repairs the steps after the link between a and b has been severed.
+	 * First the nodes are collected level by level which have lost all of
+	 * their neighbours one step closer to a gateway. Then their new steps are
+	 * calculated from the neighbours which kept their steps.
+	 *
+	 * @param a
+	 *            dense index of one end of the severed link
+	 * @param b
+	 *            dense index of the other end of the severed link
+	 */
+	void repairAfterSever(int a, int b) {
+		if (this.weighted) {
+			this.repairWeightedAfterSever(a, b);
+			return;
+		}
+		int stepsA = this.graph.getSteps(a);
+		int stepsB = this.graph.getSteps(b);
+		if (stepsA == Integer.MAX_VALUE || stepsB == Integer.MAX_VALUE || Math.abs(stepsA - stepsB) != 1) {
+			// the link was not part of a shortest way to a gateway
+			return;
+		}
+		int child = stepsA > stepsB ? a : b;
+		int parent = stepsA > stepsB ? b : a;
+		if (this.isSupported(child, -1)) {
+			if (this.nextHops.get(child) == parent) {
+				this.updateNextHop(child);
+			}
+			return;
+		}
+
+		if (this.repairMarks == null) {
+			this.repairMarks = this.offHeap ? CopyOnWriteIntArray.offHeap(this.graph.size(), 0)
+					: new CopyOnWriteIntArray(this.graph.size(), 0);
+		}
+		int epoch = ++this.repairEpoch;
+		CopyOnWriteIntArray marks = this.repairMarks;
+		IntBuffer queue = this.queue();
+
+		// collect the nodes which lost their way to a gateway
+		int affectedCount = 0;
+		int head = 0;
+		int tail = 0;
+		queue = this.enqueue(queue, tail++, child);
+		marks.set(child, epoch);
+		while (head < tail) {
+			int node = queue.get(head++);
+			int steps = this.graph.getSteps(node);
+			if (node != child && this.isSupported(node, -1)) {
+				// it kept its steps but maybe not its next hop
+				int nextHop = this.nextHops.get(node);
+				if (nextHop < 0 || this.graph.getSteps(nextHop) != steps - 1) {
+					this.updateNextHop(node);
+				}
+				continue;
+			}
+			this.writeSteps(node, Integer.MAX_VALUE);
+			if (affectedCount == this.affected.length) {
+				this.affected = Arrays.copyOf(this.affected, 2 * affectedCount);
+			}
+			this.affected[affectedCount++] = node;
+
+			int count = this.graph.neighbours(node, this.neighbours);
+			for (int i = 0; i < count; i++) {
+				int neighbour = this.neighbours[i];
+				if (this.graph.getSteps(neighbour) == steps + 1 && marks.get(neighbour) != epoch) {
+					marks.set(neighbour, epoch);
+					queue = this.enqueue(queue, tail++, neighbour);
+				}
+			}
+		}
+
+		// the neighbours which kept their steps are the seeds for the new
+		// steps of the affected nodes
+		int seedCount = 0;
+		for (int k = 0; k < affectedCount; k++) {
+			int node = this.affected[k];
+			int best = Integer.MAX_VALUE;
+			int count = this.graph.neighbours(node, this.neighbours);
+			for (int i = 0; i < count; i++) {
+				best = Math.min(best, this.graph.getSteps(this.neighbours[i]));
+			}
+			if (best < this.horizon) {
+				if (seedCount == this.seeds.length) {
+					this.seeds = Arrays.copyOf(this.seeds, 2 * seedCount);
+				}
+				this.seeds[seedCount++] = ((long) (best + 1) << 32) | node;
+			}
+		}
+		Arrays.sort(this.seeds, 0, seedCount);
+
+		// breadth first search through the affected nodes, merged with the
+		// seeds in the order of their steps
+		head = 0;
+		tail = 0;
+		int nextSeed = 0;
+		while (nextSeed < seedCount || head < tail) {
+			int node;
+			if (head < tail && (nextSeed == seedCount
+					|| this.graph.getSteps(queue.get(head)) <= (int) (this.seeds[nextSeed] >>> 32))) {
+				node = queue.get(head++);
+			} else {
+				long seed = this.seeds[nextSeed++];
+				node = (int) seed;
+				int steps = (int) (seed >>> 32);
+				if (this.graph.getSteps(node) <= steps) {
+					continue;
+				}
+				this.writeSteps(node, steps);
+			}
+
+			int steps = this.graph.getSteps(node) + 1;
+			if (steps > this.horizon) {
+				continue;
+			}
+			int count = this.graph.neighbours(node, this.neighbours);
+			for (int i = 0; i < count; i++) {
+				int neighbour = this.neighbours[i];
+				if (marks.get(neighbour) == epoch && this.graph.getSteps(neighbour) == Integer.MAX_VALUE) {
+					this.writeSteps(neighbour, steps);
+					queue = this.enqueue(queue, tail++, neighbour);
+				}
+			}
+		}
+
+		for (int k = 0; k < affectedCount; k++) {
+			if (this.graph.getSteps(this.affected[k]) != Integer.MAX_VALUE) {
+				this.updateNextHop(this.affected[k]);
+			}
+		}
+	}
+
+	/**
+	 * Repairs the steps after the link between a and b has been severed like
+	 * {@link #repairAfterSever(int, int)} does, but for links with weights.
+	 * The nodes which lost their way to a gateway are collected in the order
+	 * of their steps and their new steps are calculated by Dijkstra's
+	 * algorithm up to the horizon.
+	 */
+	private void repairWeightedAfterSever(int a, int b) {
+		int stepsA = this.graph.getSteps(a);
+		int stepsB = this.graph.getSteps(b);
+		if (stepsA == Integer.MAX_VALUE || stepsB == Integer.MAX_VALUE
+				|| Math.abs(stepsA - stepsB) != this.graph.weight(a, b)) {
+			// the link was not part of a shortest way to a gateway
+			return;
+		}
+		int child = stepsA > stepsB ? a : b;
+		int parent = stepsA > stepsB ? b : a;
+		if (this.isSupported(child, -1)) {
+			if (this.nextHops.get(child) == parent) {
+				this.updateNextHop(child);
+			}
+			return;
+		}
+
+		if (this.repairMarks == null) {
+			this.repairMarks = this.offHeap ? CopyOnWriteIntArray.offHeap(this.graph.size(), 0)
+					: new CopyOnWriteIntArray(this.graph.size(), 0);
+		}
+		int epoch = ++this.repairEpoch;
+		CopyOnWriteIntArray marks = this.repairMarks;
+		RadixHeap heap = this.heap();
+
+		// collect the nodes which lost their way to a gateway, a node is only
+		// checked after all nodes it may depend on
+		int affectedCount = 0;
+		heap.push(this.graph.getSteps(child), child);
+		marks.set(child, epoch);
+		while (!heap.isEmpty()) {
+			int node = heap.pop();
+			int steps = this.graph.getSteps(node);
+			if (node != child && this.isSupported(node, -1)) {
+				// it kept its steps but maybe not its next hop
+				int nextHop = this.nextHops.get(node);
+				if (nextHop < 0 || this.graph.getSteps(nextHop) != steps - this.graph.weight(node, nextHop)) {
+					this.updateNextHop(node);
+				}
+				continue;
+			}
+			this.writeSteps(node, Integer.MAX_VALUE);
+			if (affectedCount == this.affected.length) {
+				this.affected = Arrays.copyOf(this.affected, 2 * affectedCount);
+			}
+			this.affected[affectedCount++] = node;
+
+			int count = this.graph.neighbours(node, this.neighbours, this.weights);
+			for (int i = 0; i < count; i++) {
+				int neighbour = this.neighbours[i];
+				if (this.graph.getSteps(neighbour) == steps + this.weights[i] && marks.get(neighbour) != epoch) {
+					marks.set(neighbour, epoch);
+					heap.push(steps + this.weights[i], neighbour);
+				}
+			}
+		}
+
+		// the neighbours which kept their steps are the seeds for the new
+		// steps of the affected nodes
+		heap.clear();
+		for (int k = 0; k < affectedCount; k++) {
+			int node = this.affected[k];
+			long best = Long.MAX_VALUE;
+			int count = this.graph.neighbours(node, this.neighbours, this.weights);
+			for (int i = 0; i < count; i++) {
+				int steps = this.graph.getSteps(this.neighbours[i]);
+				if (steps != Integer.MAX_VALUE) {
+					best = Math.min(best, (long) steps + this.weights[i]);
+				}
+			}
+			if (best <= this.horizon) {
+				heap.push((int) best, node);
+			}
+		}
+
+		// Dijkstra's algorithm through the affected nodes
+		while (!heap.isEmpty()) {
+			int steps = heap.minKey();
+			int node = heap.pop();
+			if (this.graph.getSteps(node) != Integer.MAX_VALUE) {
+				continue;
+			}
+			this.writeSteps(node, steps);
+			int count = this.graph.neighbours(node, this.neighbours, this.weights);
+			for (int i = 0; i < count; i++) {
+				int neighbour = this.neighbours[i];
+				if (marks.get(neighbour) == epoch && this.graph.getSteps(neighbour) == Integer.MAX_VALUE
+						&& (long) steps + this.weights[i] <= this.horizon) {
+					heap.push(steps + this.weights[i], neighbour);
+				}
+			}
+		}
+
+		for (int k = 0; k < affectedCount; k++) {
+			if (this.graph.getSteps(this.affected[k]) != Integer.MAX_VALUE) {
+				this.updateNextHop(this.affected[k]);
+			}
+		}
+	}
+
+	/**
+	 * Checks if a node has a neighbour which is one step closer to a gateway.
+	 *
+	 * @param node
+	 *            dense index of the node
+	 * @param ignored
+	 *            dense index of a neighbour not to be considered or -1
+	 * @return true if the node is a gateway or has such a neighbour
+	 */
+	boolean isSupported(int node, int ignored) {
+		return this.isSupported(node, ignored, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Checks if a node has a neighbour on a shortest way to a gateway which
+	 * is at most maxSteps away from a gateway. Without weights that is the
+	 * neighbour one step closer.
+	 *
+	 * @param node
+	 *            dense index of the node
+	 * @param ignored
+	 *            dense index of a neighbour not to be considered or -1
+	 * @param maxSteps
+	 *            the maximal steps of the neighbour
+	 * @return true if the node is a gateway or has such a neighbour
+	 */
+	boolean isSupported(int node, int ignored, int maxSteps) {
+		int steps = this.graph.getSteps(node);
+		if (steps == 0) {
+			return true;
+		}
+		if (this.weighted) {
+			int count = this.graph.neighbours(node, this.neighbours, this.weights);
+			for (int i = 0; i < count; i++) {
+				int neighbour = this.neighbours[i];
+				int neighbourSteps = this.graph.getSteps(neighbour);
+				if (neighbour != ignored && neighbourSteps == steps - this.weights[i] && neighbourSteps <= maxSteps) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (steps - 1 > maxSteps) {
+			return false;
+		}
+		int count = this.graph.neighbours(node, this.neighbours);
+		for (int i = 0; i < count; i++) {
+			int neighbour = this.neighbours[i];
+			if (neighbour != ignored && this.graph.getSteps(neighbour) == steps - 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Calculates the steps of the ways to a gateway which do not lead through
+	 * a given node, until the steps of all its neighbours are known. The
+	 * horizon is invalid afterwards and the distances must be {@link #reset()}
+	 * before they can be used again.
+	 *
+	 * @param blocked
+	 *            the node which must not be passed
+	 */
+	void searchAround(int blocked) {
+		this.reset();
+		if (this.weighted) {
+			this.searchWeightedAround(blocked);
+			return;
+		}
+		IntBuffer queue = this.queue();
+		int head = 0;
+		int tail = 0;
+		for (int gateway : this.gateways) {
+			if (this.graph.getSteps(gateway) != 0) {
+				this.setSteps(gateway, 0);
+				queue = this.enqueue(queue, tail++, gateway);
+			}
+		}
+
+		int[] around = new int[this.graph.maxDegree()];
+		int aroundCount = this.graph.neighbours(blocked, around);
+		for (int k = 0; k < aroundCount; k++) {
+			while (head < tail && this.graph.getSteps(around[k]) == Integer.MAX_VALUE) {
+				int node = queue.get(head++);
+				if (node == blocked) {
+					continue;
+				}
+				int steps = this.graph.getSteps(node) + 1;
+				int count = this.graph.neighbours(node, this.neighbours);
+				for (int i = 0; i < count; i++) {
+					int neighbour = this.neighbours[i];
+					if (this.graph.getSteps(neighbour) == Integer.MAX_VALUE) {
+						this.setSteps(neighbour, steps);
+						queue = this.enqueue(queue, tail++, neighbour);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Dijkstra's algorithm from the gateways which does not pass a given
+	 * node, see {@link #searchAround(int)}.
+	 */
+	private void searchWeightedAround(int blocked) {
+		RadixHeap heap = this.heap();
+		for (int gateway : this.gateways) {
+			heap.push(0, gateway);
+		}
+
+		int[] around = new int[this.graph.maxDegree()];
+		int aroundCount = this.graph.neighbours(blocked, around);
+		for (int k = 0; k < aroundCount; k++) {
+			while (!heap.isEmpty() && this.graph.getSteps(around[k]) == Integer.MAX_VALUE) {
+				int steps = heap.minKey();
+				int node = heap.pop();
+				if (this.graph.getSteps(node) != Integer.MAX_VALUE) {
+					continue;
+				}
+				this.setSteps(node, steps);
+				if (node == blocked) {
+					continue;
+				}
+				int count = this.graph.neighbours(node, this.neighbours, this.weights);
+				for (int i = 0; i < count; i++) {
+					if (this.graph.getSteps(this.neighbours[i]) == Integer.MAX_VALUE) {
+						heap.push(steps + this.weights[i], this.neighbours[i]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts recording the changes if not yet done and marks the current
+	 * state.
+	 *
+	 * @return the mark to roll back to
+	 */
+	int mark() {
+		if (this.journal == null) {
+			this.journal = new int[48];
+		}
+		int mark = this.journalSize;
+		this.record(MARK, this.horizon, this.touchedCount);
+		return mark;
+	}
+
+	/**
+	 * Undoes all changes since a mark. The mark and all later marks are
+	 * removed from the journal.
+	 *
+	 * @param mark
+	 *            a mark returned by {@link #mark()}
+	 */
+	void rollbackTo(int mark) {
+		if (this.journal == null || mark < 0 || mark > this.journalSize) {
+			throw new RuntimeException("Unknown mark " + mark + ".");
+		}
+		while (this.journalSize > mark) {
+			this.journalSize -= 3;
+			int where = this.journal[this.journalSize + 1];
+			int old = this.journal[this.journalSize + 2];
+			switch (this.journal[this.journalSize]) {
+			case STEPS:
+				this.graph.setSteps(where, old);
+				break;
+			case TOUCHED:
+				this.touched.set(where, old);
+				break;
+			case LISTED:
+				this.listed.setBit(where, old != 0);
+				break;
+			case NEXT_HOP:
+				this.nextHops.set(where, old);
+				break;
+			default:
+				this.horizon = where;
+				this.touchedCount = old;
+			}
+		}
+	}
+
+	/**
+	 * Stops recording the changes and forgets all marks.
+	 */
+	void clearJournal() {
+		this.journal = null;
+		this.journalSize = 0;
+	}
+
+	private void record(int what, int where, int old) {
+		if (this.journalSize == this.journal.length) {
+			this.journal = Arrays.copyOf(this.journal, 2 * this.journalSize);
+		}
+		this.journal[this.journalSize++] = what;
+		this.journal[this.journalSize++] = where;
+		this.journal[this.journalSize++] = old;
+	}
+
+	private void writeSteps(int node, int steps) {
+		if (this.journal != null) {
+			this.record(STEPS, node, this.graph.getSteps(node));
+		}
+		this.graph.setSteps(node, steps);
+		this.touchedNodes++;
+	}
+
+	private void writeTouched(int i, int node) {
+		if (this.journal != null) {
+			this.record(TOUCHED, i, this.touched.get(i));
+		}
+		this.touched.set(i, node);
+	}
+
+	private void writeListed(int node, boolean listed) {
+		if (this.journal != null) {
+			this.record(LISTED, node, this.listed.getBit(node) ? 1 : 0);
+		}
+		this.listed.setBit(node, listed);
+	}
+
+	private void writeNextHop(int node, int nextHop) {
+		int old = this.nextHops.get(node);
+		if (old != nextHop) {
+			if (this.journal != null) {
+				this.record(NEXT_HOP, node, old);
+			}
+			this.nextHops.set(node, nextHop);
+		}
+	}
+
+	/**
+	 * Sets the next hop of a node with known steps &gt; 0 from its neighbours.
+	 */
+	private void updateNextHop(int node) {
+		int steps = this.graph.getSteps(node);
+		if (steps == 0) {
+			return;
+		}
+		int nextHop = -1;
+		if (this.weighted) {
+			int count = this.graph.neighbours(node, this.neighbours, this.weights);
+			for (int i = 0; i < count; i++) {
+				if (this.graph.getSteps(this.neighbours[i]) == steps - this.weights[i]) {
+					nextHop = this.neighbours[i];
+				}
+			}
+		} else {
+			int count = this.graph.neighbours(node, this.neighbours);
+			for (int i = 0; i < count; i++) {
+				if (this.graph.getSteps(this.neighbours[i]) == steps - 1) {
+					nextHop = this.neighbours[i];
+				}
+			}
+		}
+		this.writeNextHop(node, nextHop);
+	}
+
+	private void setSteps(int node, int steps) {
+		this.writeSteps(node, steps);
+		if (!this.listed.getBit(node)) {
+			this.writeListed(node, true);
+			this.writeTouched(this.touchedCount++, node);
+		}
+	}
+
+	private RadixHeap heap() {
+		if (this.heap == null) {
+			this.heap = new RadixHeap();
+		}
+		this.heap.clear();
+		return this.heap;
+	}
+
+	private IntBuffer queue() {
+		if (this.queue == null) {
+			this.queue = this.allocate(Math.min(this.graph.size(), INITIAL_QUEUE_SIZE));
+		}
+		return this.queue;
+	}
+
+	/**
+	 * Puts a node into the queue, which is doubled if it is full. A node is
+	 * never queued twice by a search, so the queue never needs more than one
+	 * element per node.
+	 *
+	 * @return the queue
+	 */
+	private IntBuffer enqueue(IntBuffer queue, int tail, int node) {
+		if (tail == queue.capacity()) {
+			IntBuffer larger = this.allocate((int) Math.min(this.graph.size(), 2L * tail));
+			IntBuffer source = queue.duplicate();
+			source.clear();
+			larger.put(source);
+			larger.clear();
+			this.queue = larger;
+			queue = larger;
+		}
+		queue.put(tail, node);
+		return queue;
+	}
+
+	private IntBuffer allocate(int length) {
+		return this.offHeap ? CopyOnWriteIntArray.allocateDirect(length) : IntBuffer.wrap(new int[length]);
+	}
+}
@@ -0,0 +1,24 @@
+package skynet;
+
+/**
+ * Represents an operation that accepts two int values, like the two nodes of
+ * a link. This is the primitive specialization of
+ * {@link java.util.function.BiConsumer} for int, which is missing in
+ * java.util.function.
+ * 
+ * @author hto
+ *
+ */
+@FunctionalInterface
+public interface IntBiConsumer {
+
+	/**
+	 * Performs this operation on the given arguments.
+	 * 
+	 * @param a
+	 *            the first argument, e.g. the first node of a link
+	 * @param b
+	 *            the second argument, e.g. the second node of a link
+	 */
+	void accept(int a, int b);
+}
@@ -0,0 +1,106 @@
+package skynet;
+
+import java.util.Arrays;
+
+/**
+ * Counts latencies in buckets whose width grows with the latency, so
+ * millions of latencies can be recorded in constant memory and percentiles
+ * are exact to 1/16 of the latency. Every power of two is split into 16
+ * buckets.
+ *
+ * @author hto
+ *
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_COUNT];
+	private long count = 0;
+	private long max = 0;
+
+	/**
+	 * @param latency
+	 *            a latency in nanoseconds
+	 */
+	void record(long latency) {
+		long value = Math.max(0, latency);
+		this.counts[index(value)]++;
+		this.count++;
+		this.max = Math.max(this.max, value);
+	}
+
+	/**
+	 * Adds all latencies of another histogram.
+	 *
+	 * @param other
+	 *            the other histogram
+	 */
+	void add(LatencyHistogram other) {
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] += other.counts[i];
+		}
+		this.count += other.count;
+		this.max = Math.max(this.max, other.max);
+	}
+
+	/**
+	 * Forgets all latencies.
+	 */
+	void clear() {
+		Arrays.fill(this.counts, 0);
+		this.count = 0;
+		this.max = 0;
+	}
+
+	/**
+	 * @return the number of latencies recorded
+	 */
+	long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return the highest latency recorded
+	 */
+	long getMax() {
+		return this.max;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return the latency below which the given percentage of all latencies
+	 *         lie, rounded down to its bucket, or 0 if there are none
+	 */
+	long getPercentile(double percentile) {
+		long rank = (long) Math.ceil(percentile / 100 * this.count);
+		long seen = 0;
+		for (int i = 0; i < this.counts.length; i++) {
+			seen += this.counts[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(lowestValue(i), this.max);
+			}
+		}
+		return 0;
+	}
+
+	private static int index(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	private static long lowestValue(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int exponent = index / SUB_COUNT + SUB_BITS - 1;
+		long sub = index % SUB_COUNT;
+		return (SUB_COUNT + sub) << (exponent - SUB_BITS);
+	}
+}
@@ -0,0 +1,337 @@
+package skynet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * The list of links of a subnet as it is returned by
+ * {@link SubnetBackdoor#getNodeLinks()}. The links keep the order and the
+ * direction in which they appear in the map. A hash table with open
+ * addressing finds every link by its two ends packed into a long, so checking
+ * and severing a link costs O(1).
+ * <p>
+ * The list and the table never change after the map has been loaded. Severed
+ * links are only marked in a copy on write bit set, so a {@link #fork()}
+ * shares the list and the table with its parent. An off heap store keeps the
+ * list, the table and the severed links in direct memory.
+ *
+ * @author hto
+ *
+ */
+final class LinkStore {
+
+	private static final int FREE = -1;
+
+	private final boolean offHeap;
+
+	// ends[2*i] and ends[2*i+1] are the nodes of link i
+	private final IntBuffer ends;
+	private final int linkCount;
+
+	// hash table: the key of a slot and the index of its link or FREE
+	private final LongBuffer keys;
+	private final IntBuffer slots;
+	private final int mask;
+
+	// one bit for every link
+	private final CopyOnWriteIntArray severed;
+	private int severedCount = 0;
+
+	// the links as returned by toArray() and asBuffer() until the next link
+	// is severed
+	private int[][] array = null;
+	private IntBuffer buffer = null;
+
+	/**
+	 * Creates the store. A link which appears more than once in the map is
+	 * only stored the first time.
+	 *
+	 * @param map
+	 *            the map of the subnet
+	 */
+	LinkStore(SubnetMap map) {
+		this(map, false);
+	}
+
+	/**
+	 * Creates the store. A link which appears more than once in the map is
+	 * only stored the first time.
+	 *
+	 * @param map
+	 *            the map of the subnet
+	 * @param offHeap
+	 *            true to keep the links off the heap
+	 */
+	LinkStore(SubnetMap map, boolean offHeap) {
+		IntBuffer links = map.links;
+		this.offHeap = offHeap;
+		IntBuffer ends = this.allocate(2 * map.linkCount);
+		int size = Integer.highestOneBit(Math.max(4, 2 * map.linkCount) - 1) << 1;
+		this.keys = offHeap ? ByteBuffer.allocateDirect(8 * size).order(ByteOrder.nativeOrder()).asLongBuffer()
+				: LongBuffer.allocate(size);
+		this.slots = this.allocate(size);
+		for (int i = 0; i < size; i++) {
+			this.slots.put(i, FREE);
+		}
+		this.mask = size - 1;
+		int linkCount = 0;
+		for (int i = 0; i < map.linkCount; i++) {
+			int a = links.get(2 * i);
+			int b = links.get(2 * i + 1);
+			int slot = this.find(a, b);
+			if (this.slots.get(slot) == FREE) {
+				ends.put(2 * linkCount, a);
+				ends.put(2 * linkCount + 1, b);
+				this.keys.put(slot, key(a, b));
+				this.slots.put(slot, linkCount++);
+			}
+		}
+		// links which occur more than once only leave some space unused
+		ends.limit(2 * linkCount);
+		this.ends = ends.slice();
+		this.linkCount = linkCount;
+		this.severed = offHeap ? CopyOnWriteIntArray.offHeapBits(linkCount) : CopyOnWriteIntArray.bits(linkCount);
+	}
+
+	/**
+	 * Creates a fork of a store.
+	 *
+	 * @param parent
+	 *            the store to fork
+	 */
+	private LinkStore(LinkStore parent) {
+		this.offHeap = parent.offHeap;
+		this.ends = parent.ends;
+		this.linkCount = parent.linkCount;
+		this.keys = parent.keys;
+		this.slots = parent.slots;
+		this.mask = parent.mask;
+		this.severed = parent.severed.fork();
+		this.severedCount = parent.severedCount;
+		this.array = parent.array;
+		this.buffer = parent.buffer;
+	}
+
+	/**
+	 * @return an independent copy of the store which shares everything but
+	 *         the severed links with this store
+	 */
+	LinkStore fork() {
+		return new LinkStore(this);
+	}
+
+	/**
+	 * @return the number of links in the map, severed or not
+	 */
+	int mapSize() {
+		return this.linkCount;
+	}
+
+	/**
+	 * @return the number of links which have not been severed
+	 */
+	int size() {
+		return this.linkCount - this.severedCount;
+	}
+
+	/**
+	 * @param a
+	 *            one end of the link
+	 * @param b
+	 *            other end of the link
+	 * @return true if a and b are linked, no matter in which direction
+	 */
+	boolean contains(int a, int b) {
+		int link = this.slots.get(this.find(a, b));
+		return link != FREE && !this.severed.getBit(link);
+	}
+
+	/**
+	 * Severs a link.
+	 *
+	 * @param a
+	 *            one end of the link
+	 * @param b
+	 *            other end of the link
+	 * @return true if a and b were linked
+	 */
+	boolean remove(int a, int b) {
+		int link = this.slots.get(this.find(a, b));
+		if (link == FREE || this.severed.getBit(link)) {
+			return false;
+		}
+		this.severed.setBit(link, true);
+		this.severedCount++;
+		this.array = null;
+		this.buffer = null;
+		return true;
+	}
+
+	/**
+	 * Links two nodes again after their link has been severed.
+	 *
+	 * @param a
+	 *            one end of the link
+	 * @param b
+	 *            other end of the link
+	 */
+	void restore(int a, int b) {
+		int link = this.slots.get(this.find(a, b));
+		if (link != FREE && this.severed.getBit(link)) {
+			this.severed.setBit(link, false);
+			this.severedCount--;
+			this.array = null;
+			this.buffer = null;
+		}
+	}
+
+	/**
+	 * @return all links which have not been severed as rows of two nodes.
+	 *         The array is kept until the next link is severed, so it must not
+	 *         be changed.
+	 */
+	int[][] toArray() {
+		if (this.array == null) {
+			int[][] array = new int[this.size()][];
+			int count = 0;
+			for (int i = 0; i < this.linkCount; i++) {
+				if (!this.severed.getBit(i)) {
+					array[count++] = new int[] { this.ends.get(2 * i), this.ends.get(2 * i + 1) };
+				}
+			}
+			this.array = array;
+		}
+		return this.array;
+	}
+
+	/**
+	 * @return all links which have not been severed as a read-only view on
+	 *         the list, two nodes per link. The view must not be used anymore
+	 *         after the next link has been severed.
+	 */
+	IntBuffer asBuffer() {
+		if (this.buffer == null) {
+			IntBuffer flat = this.ends;
+			if (this.severedCount > 0) {
+				flat = this.allocate(2 * this.size());
+				int count = 0;
+				for (int i = 0; i < this.linkCount; i++) {
+					if (!this.severed.getBit(i)) {
+						flat.put(count++, this.ends.get(2 * i));
+						flat.put(count++, this.ends.get(2 * i + 1));
+					}
+				}
+			}
+			this.buffer = flat.asReadOnlyBuffer();
+		}
+		return this.buffer.duplicate();
+	}
+
+	/**
+	 * Copies the links which have not been severed into an array, two nodes
+	 * per link.
+	 *
+	 * @param dst
+	 *            the array to copy the links into
+	 * @return the number of links, even if not all of them fit into dst
+	 */
+	int copyInto(int[] dst) {
+		if (this.severedCount == 0) {
+			this.ends.duplicate().get(dst, 0, Math.min(dst.length / 2, this.linkCount) * 2);
+			return this.linkCount;
+		}
+		int max = dst.length / 2;
+		int count = 0;
+		for (int i = 0; i < this.linkCount; i++) {
+			if (!this.severed.getBit(i)) {
+				if (count < max) {
+					dst[2 * count] = this.ends.get(2 * i);
+					dst[2 * count + 1] = this.ends.get(2 * i + 1);
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Calls an action for every link which has not been severed.
+	 *
+	 * @param action
+	 *            is called with both nodes of each link
+	 */
+	void forEach(IntBiConsumer action) {
+		for (int i = 0; i < this.linkCount; i++) {
+			if (!this.severed.getBit(i)) {
+				action.accept(this.ends.get(2 * i), this.ends.get(2 * i + 1));
+			}
+		}
+	}
+
+	/**
+	 * Calls an action for every link of the map, even if it has been
+	 * severed.
+	 *
+	 * @param action
+	 *            is called with both nodes of each link
+	 */
+	void forEachOfMap(IntBiConsumer action) {
+		for (int i = 0; i < this.linkCount; i++) {
+			action.accept(this.ends.get(2 * i), this.ends.get(2 * i + 1));
+		}
+	}
+
+	/**
+	 * Calls an action for every link which has been severed.
+	 *
+	 * @param action
+	 *            is called with both nodes of each link
+	 */
+	void forEachSevered(IntBiConsumer action) {
+		for (int i = 0; i < this.linkCount; i++) {
+			if (this.severed.getBit(i)) {
+				action.accept(this.ends.get(2 * i), this.ends.get(2 * i + 1));
+			}
+		}
+	}
+
+	/**
+	 * Linear probing for the link between a and b.
+	 *
+	 * @return the slot of the link or, if a and b were never linked, the free
+	 *         slot where the link would be inserted
+	 */
+	private int find(int a, int b) {
+		long key = key(a, b);
+		int slot = hash(key) & this.mask;
+		while (this.slots.get(slot) != FREE) {
+			if (this.keys.get(slot) == key) {
+				return slot;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return both ends of a link packed into a long, the smaller node first
+	 */
+	static long key(int a, int b) {
+		int min = Math.min(a, b);
+		int max = Math.max(a, b);
+		return ((long) min << 32) | (max & 0xFFFFFFFFL);
+	}
+
+	private IntBuffer allocate(int length) {
+		return this.offHeap ? CopyOnWriteIntArray.allocateDirect(length) : IntBuffer.allocate(length);
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -0,0 +1,445 @@
+package skynet;
+
+import java.util.Arrays;
+
+/**
+ * Finds the fewest links which separate the agents from all gateways, that is
+ * a minimum edge cut between a super source linked to every agent node and a
+ * super sink linked to every gateway. The cut is found as a maximum flow with
+ * Dinic's algorithm. Every link has capacity 1 in both directions, the links
+ * to the super source and the super sink are unlimited and only implied.
+ * <p>
+ * The levels of Dinic's algorithm are the distances to the super sink in the
+ * residual graph, so the search of the last phase, which proves that the flow
+ * is maximal, only visits the gateway side of the cut. The cut returned is the
+ * one closest to the gateways.
+ * <p>
+ * The flow is kept between two queries. A severed link which carries no flow
+ * costs nothing, otherwise its unit of flow is sent around it on a short way
+ * or, if there is none, cancelled. If an agent has moved on to a neighbour,
+ * the flow from the node it has left is sent over the link from the new node
+ * or around it in the same way. The next query then only has to find the missing augmenting
+ * paths.
+ * <p>
+ * The residual graph is a copy of the links of the graph in primitive arrays.
+ * Severed links are kept with capacity 0, so they can be restored when a turn
+ * is undone.
+ *
+ * @author hto
+ *
+ */
+final class MinimumCut {
+
+	// the number of nodes a search for a way around a link may visit
+	private static final int REROUTE_LIMIT = 1 << 10;
+
+	private final SubnetGraph graph;
+	private final int[] gateways;
+
+	// arcs of node v are start[v] to start[v+1]-1, sorted by head, rev is the
+	// opposite arc. A severed link has capacity 0 in both directions.
+	private final int[] start;
+	private final int[] head;
+	private final int[] rev;
+	private final byte[] capacity;
+	// flow[e] == -flow[rev[e]], 1 if a unit flows along the arc
+	private final byte[] flow;
+
+	// the flow from the super source into a node or -1 if it is no source
+	private final int[] sourceFlow;
+	private int[] sources = new int[0];
+	private int value = 0;
+
+	// distances to the super sink of the current phase
+	private final int[] level;
+	private final int[] levelEpoch;
+	private int epoch = 0;
+	private final int[] queue;
+	// the number of nodes in the queue of the last search
+	private int levelled = 0;
+	private final int[] nextArc;
+	private int[] path = new int[16];
+
+	/**
+	 * Copies the links of a graph.
+	 *
+	 * @param graph
+	 *            the graph
+	 * @param gateways
+	 *            dense indexes of the gateway nodes
+	 */
+	MinimumCut(SubnetGraph graph, int[] gateways) {
+		this.graph = graph;
+		this.gateways = gateways;
+		int n = graph.size();
+		int[] neighbours = new int[graph.maxDegree()];
+		this.start = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			this.start[v + 1] = this.start[v] + graph.neighbours(v, neighbours);
+		}
+		int arcs = this.start[n];
+		this.head = new int[arcs];
+		for (int v = 0; v < n; v++) {
+			int count = graph.neighbours(v, neighbours);
+			Arrays.sort(neighbours, 0, count);
+			System.arraycopy(neighbours, 0, this.head, this.start[v], count);
+		}
+		// the rows are sorted, so the k-th arc into a node u comes from its
+		// k-th neighbour, which is the head of its k-th arc
+		this.rev = new int[arcs];
+		this.nextArc = Arrays.copyOf(this.start, n);
+		for (int v = 0; v < n; v++) {
+			for (int e = this.start[v]; e < this.start[v + 1]; e++) {
+				this.rev[e] = this.nextArc[this.head[e]]++;
+			}
+		}
+		this.capacity = new byte[arcs];
+		Arrays.fill(this.capacity, (byte) 1);
+		this.flow = new byte[arcs];
+
+		this.sourceFlow = new int[n];
+		Arrays.fill(this.sourceFlow, -1);
+		this.level = new int[n];
+		this.levelEpoch = new int[n];
+		this.queue = new int[n];
+	}
+
+	/**
+	 * Severs a link, the flow along it is cancelled.
+	 *
+	 * @param a
+	 *            dense index of one end of the link
+	 * @param b
+	 *            dense index of the other end of the link
+	 */
+	void removeLink(int a, int b) {
+		int e = this.arcOf(a, b);
+		if (e < 0 || this.capacity[e] == 0) {
+			return;
+		}
+		this.capacity[e] = 0;
+		this.capacity[this.rev[e]] = 0;
+		if (this.flow[e] != 0) {
+			int arc = this.flow[e] > 0 ? e : this.rev[e];
+			int from = this.head[this.rev[arc]];
+			int to = this.head[arc];
+			this.setFlow(arc, 0);
+			int end = this.reroute(from, to);
+			if (end < 0) {
+				this.cancelBackward(from);
+				this.cancelForward(to);
+				this.value--;
+			} else if (end != to) {
+				this.cancelForward(to);
+			}
+		}
+	}
+
+	/**
+	 * Links two nodes again after their link has been severed.
+	 *
+	 * @param a
+	 *            dense index of one end of the link
+	 * @param b
+	 *            dense index of the other end of the link
+	 * @return false if the nodes were not linked when the cut was created
+	 */
+	boolean restoreLink(int a, int b) {
+		int e = this.arcOf(a, b);
+		if (e < 0) {
+			return false;
+		}
+		this.capacity[e] = 1;
+		this.capacity[this.rev[e]] = 1;
+		return true;
+	}
+
+	/**
+	 * Calculates the minimum cut.
+	 *
+	 * @param agentNodes
+	 *            dense indexes of the nodes of the agents
+	 * @return the arcs of the cut from the agent side to the gateway side or
+	 *         null if an agent is on a gateway
+	 */
+	int[] calculate(int[] agentNodes) {
+		for (int agentNode : agentNodes) {
+			if (this.graph.isGateway(agentNode)) {
+				return null;
+			}
+		}
+		this.moveSources(agentNodes);
+		int sourceLevel;
+		while ((sourceLevel = this.buildLevels()) != Integer.MAX_VALUE) {
+			for (int source : this.sources) {
+				if (this.isLevelled(source) && this.level[source] == sourceLevel) {
+					while (this.augment(source)) {
+						this.sourceFlow[source]++;
+						this.value++;
+					}
+				}
+			}
+		}
+
+		// the last search has visited the gateway side of the cut
+		int[] cut = new int[this.value];
+		int count = 0;
+		for (int i = 0; i < this.levelled; i++) {
+			int v = this.queue[i];
+			for (int e = this.start[v]; e < this.start[v + 1]; e++) {
+				if (this.capacity[e] != 0 && !this.isLevelled(this.head[e])) {
+					cut[count++] = this.rev[e];
+				}
+			}
+		}
+		return cut;
+	}
+
+	/**
+	 * @param arc
+	 *            an arc of the cut
+	 * @return dense index of the node on the agent side
+	 */
+	int tail(int arc) {
+		return this.head[this.rev[arc]];
+	}
+
+	/**
+	 * @param arc
+	 *            an arc of the cut
+	 * @return dense index of the node on the gateway side
+	 */
+	int head(int arc) {
+		return this.head[arc];
+	}
+
+	/**
+	 * Replaces the sources by the nodes of the agents. The flow from the
+	 * nodes which are no sources anymore is handed on to neighbouring new
+	 * sources or cancelled.
+	 */
+	private void moveSources(int[] agentNodes) {
+		// the flow f of the old sources is stored as -f-2 until it is known
+		// which of them are still sources
+		for (int source : this.sources) {
+			this.sourceFlow[source] = -this.sourceFlow[source] - 2;
+		}
+		int count = 0;
+		int[] sources = new int[agentNodes.length];
+		for (int agentNode : agentNodes) {
+			int flow = this.sourceFlow[agentNode];
+			if (flow < -1) {
+				// was a source already
+				this.sourceFlow[agentNode] = -flow - 2;
+				sources[count++] = agentNode;
+			} else if (flow == -1) {
+				this.sourceFlow[agentNode] = 0;
+				sources[count++] = agentNode;
+			}
+		}
+		for (int source : this.sources) {
+			int flow = this.sourceFlow[source];
+			if (flow < -1) {
+				this.sourceFlow[source] = -1;
+				int units = -flow - 2;
+				// an agent which moved on to a neighbour takes as much of the
+				// flow with it as the link between the two nodes can carry
+				for (int i = 0; i < count && units > 0; i++) {
+					int e = this.arcOf(sources[i], source);
+					if (e >= 0) {
+						int moved = Math.min(units, this.capacity[e] - this.flow[e]);
+						if (moved > 0) {
+							this.setFlow(e, this.flow[e] + moved);
+							this.sourceFlow[sources[i]] += moved;
+							units -= moved;
+						}
+					}
+				}
+				// the rest is sent around the link if there is a short way
+				for (int i = 0; i < count && units > 0; i++) {
+					int end;
+					while (units > 0 && (end = this.reroute(sources[i], source)) >= 0) {
+						this.sourceFlow[sources[i]]++;
+						if (end != source) {
+							this.cancelForward(source);
+						}
+						units--;
+					}
+				}
+				for (int unit = units; unit > 0; unit--) {
+					this.cancelForward(source);
+					this.value--;
+				}
+			}
+		}
+		this.sources = Arrays.copyOf(sources, count);
+	}
+
+	/**
+	 * Breadth first search from the super sink against the direction of the
+	 * arcs with residual capacity, until the nearest source is reached.
+	 *
+	 * @return the level of the nearest source or Integer.MAX_VALUE if no
+	 *         source can reach the super sink anymore
+	 */
+	private int buildLevels() {
+		int epoch = ++this.epoch;
+		int head = 0;
+		int tail = 0;
+		for (int gateway : this.gateways) {
+			if (this.levelEpoch[gateway] != epoch) {
+				this.levelEpoch[gateway] = epoch;
+				this.level[gateway] = 1;
+				this.nextArc[gateway] = this.start[gateway];
+				this.queue[tail++] = gateway;
+			}
+		}
+		int sourceLevel = Integer.MAX_VALUE;
+		while (head < tail) {
+			int v = this.queue[head++];
+			if (this.level[v] >= sourceLevel) {
+				break;
+			}
+			if (this.sourceFlow[v] >= 0) {
+				sourceLevel = this.level[v];
+				continue;
+			}
+			for (int e = this.start[v]; e < this.start[v + 1]; e++) {
+				int u = this.head[e];
+				int back = this.rev[e];
+				if (this.levelEpoch[u] != epoch && this.capacity[back] - this.flow[back] > 0) {
+					this.levelEpoch[u] = epoch;
+					this.level[u] = this.level[v] + 1;
+					this.nextArc[u] = this.start[u];
+					this.queue[tail++] = u;
+				}
+			}
+		}
+		this.levelled = tail;
+		return sourceLevel;
+	}
+
+	/**
+	 * Finds a way from a source to a gateway in the levels and lets a unit
+	 * flow along it. Dead ends are removed from the levels on the way.
+	 *
+	 * @return true if a way was found
+	 */
+	private boolean augment(int source) {
+		int depth = 0;
+		int v = source;
+		while (!this.graph.isGateway(v)) {
+			int e = this.nextArc[v];
+			int end = this.start[v + 1];
+			while (e < end) {
+				int w = this.head[e];
+				if (this.capacity[e] - this.flow[e] > 0 && this.isLevelled(w) && this.level[w] == this.level[v] - 1) {
+					break;
+				}
+				e++;
+			}
+			this.nextArc[v] = e;
+			if (e < end) {
+				if (depth == this.path.length) {
+					this.path = Arrays.copyOf(this.path, 2 * depth);
+				}
+				this.path[depth++] = e;
+				v = this.head[e];
+			} else {
+				// dead end
+				this.level[v] = -1;
+				if (depth == 0) {
+					return false;
+				}
+				v = this.head[this.rev[this.path[--depth]]];
+				this.nextArc[v]++;
+			}
+		}
+		for (int i = 0; i < depth; i++) {
+			this.setFlow(this.path[i], this.flow[this.path[i]] + 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Looks for a short way with residual capacity from one node to another
+	 * node or to a gateway and lets a unit flow along it. The search gives up
+	 * after REROUTE_LIMIT nodes, so it is cheap compared to a phase.
+	 *
+	 * @return the node where the way ends or -1 if none was found
+	 */
+	private int reroute(int from, int to) {
+		int epoch = ++this.epoch;
+		this.levelEpoch[from] = epoch;
+		this.level[from] = 0;
+		this.queue[0] = from;
+		int head = 0;
+		int tail = 1;
+		while (head < tail && tail < REROUTE_LIMIT) {
+			int v = this.queue[head++];
+			for (int e = this.start[v]; e < this.start[v + 1]; e++) {
+				int u = this.head[e];
+				if (this.levelEpoch[u] != epoch && this.capacity[e] - this.flow[e] > 0) {
+					this.levelEpoch[u] = epoch;
+					this.level[u] = 0;
+					this.nextArc[u] = e;
+					if (u == to || this.graph.isGateway(u)) {
+						for (int w = u; w != from; w = this.head[this.rev[this.nextArc[w]]]) {
+							this.setFlow(this.nextArc[w], this.flow[this.nextArc[w]] + 1);
+						}
+						return u;
+					}
+					this.queue[tail++] = u;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Cancels a unit of flow from a node to the super sink.
+	 */
+	private void cancelForward(int v) {
+		while (!this.graph.isGateway(v)) {
+			int e = this.start[v];
+			while (this.flow[e] <= 0) {
+				e++;
+			}
+			this.setFlow(e, 0);
+			v = this.head[e];
+		}
+	}
+
+	/**
+	 * Cancels a unit of flow from the super source to a node.
+	 */
+	private void cancelBackward(int v) {
+		while (this.sourceFlow[v] <= 0) {
+			int e = this.start[v];
+			while (this.flow[e] >= 0) {
+				e++;
+			}
+			this.setFlow(e, 0);
+			v = this.head[e];
+		}
+		this.sourceFlow[v]--;
+	}
+
+	private void setFlow(int e, int flow) {
+		this.flow[e] = (byte) flow;
+		this.flow[this.rev[e]] = (byte) -flow;
+	}
+
+	private boolean isLevelled(int v) {
+		return this.levelEpoch[v] == this.epoch && this.level[v] > 0;
+	}
+
+	/**
+	 * @return the arc from a to b or -1 if they were not linked when the cut
+	 *         was created
+	 */
+	private int arcOf(int a, int b) {
+		int k = Arrays.binarySearch(this.head, this.start[a], this.start[a + 1], b);
+		return k < 0 ? -1 : k;
+	}
+}
@@ -0,0 +1,183 @@
+package skynet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Puts the rows of the array cores into the order in which
+ * {@link NodeSubnetGraph} lists the neighbours of a node. Its neighbours are
+ * kept in a HashMap by their ids, so they are iterated by the buckets of
+ * their ids and within a bucket in the order they were added, which is the
+ * order of the links in the map. The agent takes the last of several
+ * neighbours which are equally close to a gateway, so all cores have to list
+ * them in this order to play the same games.
+ * <p>
+ * The capacity of the HashMap is replayed while the neighbours are added, it
+ * doubles whenever the map gets more than 3/4 full and, while it is less than
+ * 64, when a bucket gets its 9th id. A row is then sorted by the buckets at
+ * the final capacity, so a neighbour can be found by a binary search over
+ * the buckets, see {@link #bucket(int, int)}. Only if a bucket gets its 9th
+ * id at a capacity of 64 or more the HashMap turns the bucket into a tree.
+ * Then the order of the row is taken from a real HashMap and the row has to
+ * be searched one by one. The order of a tree also changes when links of the
+ * node are severed and restored, which the array cores do not follow, see
+ * {@link SkynetSubnet.Core}.
+ *
+ * @author hto
+ *
+ */
+final class NeighbourOrder {
+
+	private long[] keys = new long[16];
+	private int[] rowIds = new int[16];
+	private int[] rowTargets = new int[16];
+	private int[] rowWeights = new int[16];
+	private int[] buckets = new int[16];
+	private int shift = 0;
+
+	/**
+	 * The bucket of an id in a HashMap with 2^shift buckets.
+	 *
+	 * @param id
+	 *            the id
+	 * @param shift
+	 *            the binary logarithm of the capacity
+	 * @return the bucket
+	 */
+	static int bucket(int id, int shift) {
+		return (id ^ (id >>> 16)) & ((1 << shift) - 1);
+	}
+
+	/**
+	 * Drops the repeated neighbours of a row, keeping the least weight of
+	 * their links, and puts the others into the order of
+	 * {@link NodeSubnetGraph}.
+	 *
+	 * @param targets
+	 *            the row from from to to, the dense indexes of the neighbours
+	 *            in the order of the links in the map. The remaining
+	 *            neighbours are written back from from on.
+	 * @param weights
+	 *            the weights of the links at the same positions or null
+	 * @param from
+	 *            the first position of the row
+	 * @param to
+	 *            the position behind the row
+	 * @param idOf
+	 *            gives the id of a node by its dense index
+	 * @return the number of neighbours written back
+	 */
+	int sort(int[] targets, int[] weights, int from, int to, IntUnaryOperator idOf) {
+		int length = to - from;
+		if (this.keys.length < length) {
+			int capacity = Math.max(length, 2 * this.keys.length);
+			this.keys = new long[capacity];
+			this.rowIds = new int[capacity];
+			this.rowTargets = new int[capacity];
+			this.rowWeights = new int[capacity];
+		}
+
+		// the first link to every neighbour, with the least weight
+		for (int k = 0; k < length; k++) {
+			this.keys[k] = (long) targets[from + k] << 32 | k;
+		}
+		Arrays.sort(this.keys, 0, length);
+		int count = 0;
+		int previous = -1;
+		for (int k = 0; k < length; k++) {
+			int target = (int) (this.keys[k] >>> 32);
+			int position = (int) this.keys[k];
+			if (target == previous) {
+				if (weights != null) {
+					int first = (int) this.keys[count - 1];
+					weights[from + first] = Math.min(weights[from + first], weights[from + position]);
+				}
+			} else {
+				this.keys[count++] = position;
+				previous = target;
+			}
+		}
+		Arrays.sort(this.keys, 0, count);
+		for (int k = 0; k < count; k++) {
+			int position = from + (int) this.keys[k];
+			this.rowTargets[k] = targets[position];
+			this.rowWeights[k] = weights == null ? 1 : weights[position];
+			this.rowIds[k] = idOf.applyAsInt(targets[position]);
+		}
+
+		this.shift = this.capacityShift(count);
+		if (this.shift > 0) {
+			for (int k = 0; k < count; k++) {
+				this.keys[k] = (long) bucket(this.rowIds[k], this.shift) << 32 | k;
+			}
+			Arrays.sort(this.keys, 0, count);
+		} else {
+			HashMap<Integer, Integer> neighbours = new HashMap<>();
+			for (int k = 0; k < count; k++) {
+				neighbours.put(this.rowIds[k], k);
+			}
+			int k = 0;
+			for (int added : neighbours.values()) {
+				this.keys[k++] = added;
+			}
+		}
+		for (int k = 0; k < count; k++) {
+			int added = (int) this.keys[k];
+			targets[from + k] = this.rowTargets[added];
+			if (weights != null) {
+				weights[from + k] = this.rowWeights[added];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the binary logarithm of the capacity of the HashMap of the row
+	 *         sorted last or 0 if the row has to be searched one by one
+	 */
+	int shift() {
+		return this.shift;
+	}
+
+	/**
+	 * Replays the growth of a HashMap while the ids of a row are added.
+	 *
+	 * @return the binary logarithm of the final capacity or 0 if a bucket is
+	 *         turned into a tree
+	 */
+	private int capacityShift(int count) {
+		int shift = 4;
+		this.countBuckets(0, shift);
+		for (int k = 0; k < count; k++) {
+			int bucket = bucket(this.rowIds[k], shift);
+			if (this.buckets[bucket] >= 8) {
+				if (shift >= 6) {
+					return 0;
+				}
+				shift++;
+				this.countBuckets(k, shift);
+				bucket = bucket(this.rowIds[k], shift);
+			}
+			this.buckets[bucket]++;
+			if (k + 1 > 3 << (shift - 2)) {
+				shift++;
+				this.countBuckets(k + 1, shift);
+			}
+		}
+		return shift;
+	}
+
+	/**
+	 * Counts the first ids of the row by their buckets.
+	 */
+	private void countBuckets(int count, int shift) {
+		if (this.buckets.length < 1 << shift) {
+			this.buckets = new int[1 << shift];
+		}
+		Arrays.fill(this.buckets, 0, 1 << shift, 0);
+		for (int k = 0; k < count; k++) {
+			this.buckets[bucket(this.rowIds[k], shift)]++;
+		}
+	}
+}
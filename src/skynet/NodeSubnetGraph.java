@@ -0,0 +1,364 @@
+package skynet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The classic graph core of a Skynet subnet: every node is an object which
+ * knows its neighbours and the weights of its links by their ids.
+ * <p>
+ * The nodes cannot be shared between forks, so a {@link #fork()} builds the
+ * graph from the map again and severs the same links in the same order,
+ * which costs O(V+E). Use {@link CsrSubnetGraph} for cheap forks. The graph
+ * keeps a copy of a map read from a mapped file, so forks still work after
+ * the file has been changed.
+ *
+ * @author hto
+ *
+ */
+class NodeSubnetGraph implements SubnetGraph {
+
+	private Map<Integer, Node> nodes = new HashMap<>();
+	private List<Node> nodesByIndex = new ArrayList<>();
+	private int maxDegree = 0;
+	private int maxWeight = 1;
+
+	// on the heap, the forks are built from it
+	private final SubnetMap map;
+	// dense indexes of the ends of all severed links in the order of severing
+	private int[] removedLinks = new int[16];
+	private int removedCount = 0;
+
+	/**
+	 * Creates the nodes and links of a subnet.
+	 *
+	 * @param map
+	 *            the map of the subnet
+	 */
+	NodeSubnetGraph(SubnetMap map) {
+		map = map.onHeap();
+		this.map = map;
+		for (int i = 0; i < map.linkCount; i++) {
+			this.addLink(map.links.get(2 * i), map.links.get(2 * i + 1), map.weights == null ? 1 : map.weights.get(i));
+		}
+		for (int id : map.gateways) {
+			this.createOrGetNode(id);
+		}
+		for (int id : map.agentPositions) {
+			this.createOrGetNode(id);
+		}
+		for (Node node : this.nodesByIndex) {
+			this.maxDegree = Math.max(this.maxDegree, node.getNeighbours().size());
+			if (node.weights != null) {
+				for (int weight : node.weights.values()) {
+					this.maxWeight = Math.max(this.maxWeight, weight);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return this.nodesByIndex.size();
+	}
+
+	@Override
+	public int indexOf(int id) {
+		Node node = this.nodes.get(Integer.valueOf(id));
+		return node == null ? -1 : node.index;
+	}
+
+	@Override
+	public int idOf(int index) {
+		return this.nodesByIndex.get(index).getId();
+	}
+
+	@Override
+	public int maxDegree() {
+		return this.maxDegree;
+	}
+
+	@Override
+	public int neighbours(int index, int[] dst) {
+		int count = 0;
+		for (Node neighbour : this.nodesByIndex.get(index).getNeighbours().values()) {
+			dst[count++] = neighbour.index;
+		}
+		return count;
+	}
+
+	@Override
+	public int neighbours(int index, int[] dst, int[] weights) {
+		Node node = this.nodesByIndex.get(index);
+		int count = 0;
+		for (Node neighbour : node.getNeighbours().values()) {
+			weights[count] = node.getWeight(neighbour);
+			dst[count++] = neighbour.index;
+		}
+		return count;
+	}
+
+	@Override
+	public int maxWeight() {
+		return this.maxWeight;
+	}
+
+	@Override
+	public int weight(int a, int b) {
+		return this.nodesByIndex.get(a).getWeight(this.nodesByIndex.get(b));
+	}
+
+	@Override
+	public boolean removeLink(int a, int b) {
+		Node nodeA = this.nodesByIndex.get(a);
+		Node nodeB = this.nodesByIndex.get(b);
+		nodeB.removeNeighbour(nodeA);
+		if (nodeA.removeNeighbour(nodeB) == null) {
+			return false;
+		}
+		if (2 * this.removedCount == this.removedLinks.length) {
+			this.removedLinks = Arrays.copyOf(this.removedLinks, 2 * this.removedLinks.length);
+		}
+		this.removedLinks[2 * this.removedCount] = a;
+		this.removedLinks[2 * this.removedCount + 1] = b;
+		this.removedCount++;
+		return true;
+	}
+
+	@Override
+	public void restoreLink(int a, int b) {
+		Node nodeA = this.nodesByIndex.get(a);
+		Node nodeB = this.nodesByIndex.get(b);
+		nodeA.restoreNeighbour(nodeB);
+		nodeB.restoreNeighbour(nodeA);
+		for (int i = this.removedCount - 1; i >= 0; i--) {
+			int x = this.removedLinks[2 * i];
+			int y = this.removedLinks[2 * i + 1];
+			if ((x == a && y == b) || (x == b && y == a)) {
+				System.arraycopy(this.removedLinks, 2 * i + 2, this.removedLinks, 2 * i,
+						2 * (this.removedCount - i - 1));
+				this.removedCount--;
+				break;
+			}
+		}
+	}
+
+	@Override
+	public boolean isGateway(int index) {
+		return this.nodesByIndex.get(index).isGateway();
+	}
+
+	@Override
+	public void setGateway(int index) {
+		this.nodesByIndex.get(index).setGateway(true);
+	}
+
+	@Override
+	public int getSteps(int index) {
+		return this.nodesByIndex.get(index).getStepsToNextGateway();
+	}
+
+	@Override
+	public void setSteps(int index, int steps) {
+		this.nodesByIndex.get(index).stepsToNextGateway = steps;
+	}
+
+	@Override
+	public SubnetGraph fork() {
+		// the nodes get the same indexes and their neighbours the same order
+		// as in this graph
+		NodeSubnetGraph fork = new NodeSubnetGraph(this.map);
+		for (int i = 0; i < this.removedCount; i++) {
+			fork.removeLink(this.removedLinks[2 * i], this.removedLinks[2 * i + 1]);
+		}
+		for (int i = 0; i < this.nodesByIndex.size(); i++) {
+			Node node = this.nodesByIndex.get(i);
+			fork.nodesByIndex.get(i).gateway = node.gateway;
+			fork.nodesByIndex.get(i).stepsToNextGateway = node.stepsToNextGateway;
+		}
+		return fork;
+	}
+
+	/**
+	 * Adds a link from one node to another to the network.
+	 *
+	 * @param nodeIDa
+	 *            one end of the link
+	 * @param nodeIDb
+	 *            other end of the link
+	 * @param weight
+	 *            weight of the link
+	 */
+	private void addLink(int nodeIDa, int nodeIDb, int weight) {
+		Node a = this.createOrGetNode(nodeIDa);
+		Node b = this.createOrGetNode(nodeIDb);
+		a.addNeighbour(b, weight);
+		b.addNeighbour(a, weight);
+	}
+
+	/**
+	 * Find the node with id id. if no such node exists, create a new node and
+	 * return this
+	 *
+	 * @param id
+	 *            id of the node requested
+	 * @return the unique node with the id id.
+	 */
+	private Node createOrGetNode(int id) {
+		Node node = this.nodes.get(Integer.valueOf(id));
+		if (node == null) {
+			Node newNode = new Node(id, this.nodesByIndex.size());
+			this.nodes.put(Integer.valueOf(id), newNode);
+			this.nodesByIndex.add(newNode);
+			return newNode;
+		}
+		return node;
+	}
+
+	/**
+	 * The class node represents a node in the network.
+	 *
+	 * @author hto
+	 *
+	 */
+	private static class Node {
+		private Integer id;
+		private int index;
+		private HashMap<Integer, Node> neighbours;
+		// all neighbours ever added in the order of adding
+		private List<Node> addedNeighbours;
+		// the weights other than 1 of the links to all neighbours ever added,
+		// null if there are none
+		private HashMap<Integer, Integer> weights;
+		private boolean gateway;
+
+		private int stepsToNextGateway;
+
+		/**
+		 * Creates a new node with the id id.
+		 *
+		 * @param id
+		 *            id of the new node
+		 * @param index
+		 *            dense index of the new node
+		 */
+		private Node(int id, int index) {
+			this.id = Integer.valueOf(id);
+			this.index = index;
+			this.neighbours = new HashMap<Integer, Node>();
+			this.addedNeighbours = new ArrayList<Node>();
+			this.gateway = false;
+			this.stepsToNextGateway = Integer.MAX_VALUE;
+		}
+
+		/**
+		 * Removes a neighbour node from the list of neighbours. This method
+		 * must be called on both nodes of a link that shall be severed.
+		 *
+		 * @param neighbour
+		 *            the node to be disconnected
+		 * @return the neighbour disconnected.
+		 */
+		private Node removeNeighbour(Node neighbour) {
+			return this.neighbours.remove(neighbour.id);
+		}
+
+		/**
+		 * Adds a removed neighbour again. The neighbours are added in their
+		 * original order and the other removed neighbours are removed again,
+		 * so they are iterated in the same order as before the neighbour was
+		 * removed. This method must be called on both nodes of a link that
+		 * shall be restored.
+		 * 
+		 * @param neighbour
+		 *            the node to be connected again
+		 */
+		private void restoreNeighbour(Node neighbour) {
+			HashMap<Integer, Node> neighbours = new HashMap<Integer, Node>();
+			for (Node added : this.addedNeighbours) {
+				neighbours.put(added.id, added);
+			}
+			for (Node added : this.addedNeighbours) {
+				if (added != neighbour && !this.neighbours.containsKey(added.id)) {
+					neighbours.remove(added.id);
+				}
+			}
+			this.neighbours = neighbours;
+		}
+
+		private int getId() {
+			return this.id;
+		}
+
+		private Map<Integer, Node> getNeighbours() {
+			return neighbours;
+		}
+
+		/**
+		 * @param neighbour
+		 *            a node which is or was linked to this node
+		 * @return the weight of the link to the neighbour
+		 */
+		private int getWeight(Node neighbour) {
+			Integer weight = this.weights == null ? null : this.weights.get(neighbour.id);
+			return weight == null ? 1 : weight.intValue();
+		}
+
+		/**
+		 * Add a neighbour to the list of neighbours. Conciders that a node
+		 * cannot be his own neighbour and one node can only be once the
+		 * neighbour of another node, with the least weight of its links.
+		 *
+		 * @param newNeighbour
+		 *            node to be added to my neighbours
+		 * @param weight
+		 *            weight of the link to the neighbour
+		 * @return true if the neighbour was successfully added
+		 */
+		private boolean addNeighbour(Node newNeighbour, int weight) {
+			if (this.id.equals(newNeighbour.id)) {
+				// I'm not my own neighbour
+				return false;
+			}
+			if (this.neighbours.containsKey(newNeighbour.id)) {
+				// one neighbour cannot be twice my neighbour
+				if (weight < this.getWeight(newNeighbour)) {
+					this.setWeight(newNeighbour, weight);
+				}
+				return false;
+			}
+			this.neighbours.put(newNeighbour.id, newNeighbour);
+			this.addedNeighbours.add(newNeighbour);
+			this.setWeight(newNeighbour, weight);
+			return true;
+		}
+
+		private void setWeight(Node neighbour, int weight) {
+			if (weight == 1) {
+				if (this.weights != null) {
+					this.weights.remove(neighbour.id);
+				}
+			} else {
+				if (this.weights == null) {
+					this.weights = new HashMap<Integer, Integer>();
+				}
+				this.weights.put(neighbour.id, Integer.valueOf(weight));
+			}
+		}
+
+		private int getStepsToNextGateway() {
+			return this.stepsToNextGateway;
+		}
+
+		private boolean isGateway() {
+			return gateway;
+		}
+
+		private void setGateway(boolean gateway) {
+			this.gateway = gateway;
+		}
+	}
+}
@@ -0,0 +1,488 @@
+package skynet;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * The graph core for subnets with ten million nodes and more. It has the
+ * same layout as {@link CsrSubnetGraph}, but the ids, the rows, the weights,
+ * the gateway flags, the severed bits and the steps are all kept in direct
+ * buffers. So
+ * the heap only holds a few objects per 4096 nodes, no matter how large the
+ * subnet is, and the garbage collector never has to look at the subnet.
+ * <p>
+ * Reading a direct buffer costs a bit more than reading an array, so for
+ * subnets which fit into the heap {@link CsrSubnetGraph} is faster. While a
+ * subnet is loaded only a row at a time is sorted on the heap. The ids of maps
+ * whose node ids are not roughly 0 to n-1 are sorted by a radix sort in direct
+ * buffers.
+ *
+ * @author hto
+ *
+ */
+class OffHeapSubnetGraph implements SubnetGraph {
+
+	private final int size;
+	// sorted node ids, null if the id of every node is its index
+	private final IntBuffer ids;
+
+	private final IntBuffer offsets;
+	private final IntBuffer targets;
+	// see CsrSubnetGraph
+	private final ByteBuffer shifts;
+	// null if every link has weight 1
+	private final IntBuffer weights;
+	private final int maxDegree;
+	private final int maxWeight;
+
+	// one bit for every node
+	private final IntBuffer gateways;
+
+	// one bit for every position in targets
+	private final CopyOnWriteIntArray severed;
+	private final CopyOnWriteIntArray steps;
+
+	/**
+	 * Creates the off-heap graph of a subnet.
+	 *
+	 * @param map
+	 *            the map of the subnet
+	 */
+	OffHeapSubnetGraph(SubnetMap map) {
+		IntBuffer links = map.links;
+		IntBuffer linkWeights = map.weights;
+		int linkCount = map.linkCount;
+		this.ids = collectIds(map);
+		this.size = this.ids != null ? this.ids.capacity() : identitySize(map);
+		int n = this.size;
+
+		// count the degree of every node, self links are dropped
+		IntBuffer offsets = CopyOnWriteIntArray.allocateDirect(n + 1);
+		for (int i = 0; i < linkCount; i++) {
+			int a = this.indexOf(links.get(2 * i));
+			int b = this.indexOf(links.get(2 * i + 1));
+			if (a != b) {
+				offsets.put(a + 1, offsets.get(a + 1) + 1);
+				offsets.put(b + 1, offsets.get(b + 1) + 1);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			offsets.put(i + 1, offsets.get(i + 1) + offsets.get(i));
+		}
+
+		// fill the rows in both directions
+		IntBuffer rows = CopyOnWriteIntArray.allocateDirect(offsets.get(n));
+		IntBuffer weights = linkWeights == null ? null : CopyOnWriteIntArray.allocateDirect(offsets.get(n));
+		IntBuffer fill = CopyOnWriteIntArray.allocateDirect(n);
+		for (int i = 0; i < n; i++) {
+			fill.put(i, offsets.get(i));
+		}
+		for (int i = 0; i < linkCount; i++) {
+			int a = this.indexOf(links.get(2 * i));
+			int b = this.indexOf(links.get(2 * i + 1));
+			if (a != b) {
+				int fa = fill.get(a);
+				int fb = fill.get(b);
+				rows.put(fa, b);
+				rows.put(fb, a);
+				if (weights != null) {
+					weights.put(fa, linkWeights.get(i));
+					weights.put(fb, linkWeights.get(i));
+				}
+				fill.put(a, fa + 1);
+				fill.put(b, fb + 1);
+			}
+		}
+		fill = null;
+
+		// drop links that occur more than once, keeping the least weight, and
+		// put every row into the order of NodeSubnetGraph on the heap. The
+		// offsets are moved to the compacted rows on the way.
+		NeighbourOrder order = new NeighbourOrder();
+		ByteBuffer shifts = ByteBuffer.allocateDirect(n);
+		int[] row = new int[16];
+		int[] rowWeights = weights == null ? null : new int[16];
+		int size = 0;
+		int maxDegree = 0;
+		int maxWeight = 1;
+		int from = 0;
+		for (int i = 0; i < n; i++) {
+			int to = offsets.get(i + 1);
+			int length = to - from;
+			if (row.length < length) {
+				row = new int[Math.max(length, 2 * row.length)];
+				rowWeights = weights == null ? null : new int[row.length];
+			}
+			for (int k = 0; k < length; k++) {
+				row[k] = rows.get(from + k);
+				if (weights != null) {
+					rowWeights[k] = weights.get(from + k);
+				}
+			}
+			int count = order.sort(row, rowWeights, 0, length, this::idOf);
+			for (int k = 0; k < count; k++) {
+				rows.put(size + k, row[k]);
+				if (weights != null) {
+					weights.put(size + k, rowWeights[k]);
+					maxWeight = Math.max(maxWeight, rowWeights[k]);
+				}
+			}
+			shifts.put(i, (byte) order.shift());
+			size += count;
+			offsets.put(i + 1, size);
+			maxDegree = Math.max(maxDegree, count);
+			from = to;
+		}
+		if (size < rows.capacity()) {
+			IntBuffer targets = CopyOnWriteIntArray.allocateDirect(size);
+			for (int k = 0; k < size; k++) {
+				targets.put(k, rows.get(k));
+			}
+			rows = targets;
+		}
+		if (maxWeight == 1) {
+			weights = null;
+		} else if (size < weights.capacity()) {
+			IntBuffer compacted = CopyOnWriteIntArray.allocateDirect(size);
+			for (int k = 0; k < size; k++) {
+				compacted.put(k, weights.get(k));
+			}
+			weights = compacted;
+		}
+		this.offsets = offsets;
+		this.targets = rows;
+		this.shifts = shifts;
+		this.weights = weights;
+		this.maxDegree = maxDegree;
+		this.maxWeight = maxWeight;
+
+		this.gateways = CopyOnWriteIntArray.allocateDirect((int) ((n + 31L) >>> 5));
+		this.severed = CopyOnWriteIntArray.offHeapBits(size);
+		this.steps = CopyOnWriteIntArray.offHeap(n, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a fork of a graph.
+	 *
+	 * @param parent
+	 *            the graph to fork
+	 */
+	private OffHeapSubnetGraph(OffHeapSubnetGraph parent) {
+		this.size = parent.size;
+		this.ids = parent.ids;
+		this.offsets = parent.offsets;
+		this.targets = parent.targets;
+		this.shifts = parent.shifts;
+		this.weights = parent.weights;
+		this.maxDegree = parent.maxDegree;
+		this.maxWeight = parent.maxWeight;
+		this.gateways = parent.gateways;
+		this.severed = parent.severed.fork();
+		this.steps = parent.steps.fork();
+	}
+
+	/**
+	 * Collects the distinct ids of all nodes mentioned in a map, like
+	 * {@link CsrSubnetGraph} does, but into a direct buffer.
+	 *
+	 * @return all node ids in ascending order or null if they are 0 to n-1
+	 */
+	private static IntBuffer collectIds(SubnetMap map) {
+		IntBuffer links = map.links;
+		int linkCount = map.linkCount;
+		int[] gatewayIds = map.gateways;
+		int[] agentIds = map.agentPositions;
+		long count = 2L * linkCount + gatewayIds.length + agentIds.length;
+		int min = map.agentPosition;
+		int max = map.agentPosition;
+		for (int i = 0; i < 2 * linkCount; i++) {
+			min = Math.min(min, links.get(i));
+			max = Math.max(max, links.get(i));
+		}
+		for (int id : gatewayIds) {
+			min = Math.min(min, id);
+			max = Math.max(max, id);
+		}
+		for (int id : agentIds) {
+			min = Math.min(min, id);
+			max = Math.max(max, id);
+		}
+
+		if (min >= 0 && max < 2L * count) {
+			// small non negative ids: mark them in a bit set instead of sorting
+			IntBuffer present = CopyOnWriteIntArray.allocateDirect((int) ((max + 32L) >>> 5));
+			for (int i = 0; i < 2 * linkCount; i++) {
+				mark(present, links.get(i));
+			}
+			for (int id : gatewayIds) {
+				mark(present, id);
+			}
+			for (int id : agentIds) {
+				mark(present, id);
+			}
+			int n = 0;
+			for (int w = 0; w < present.capacity(); w++) {
+				n += Integer.bitCount(present.get(w));
+			}
+			if (n == max + 1) {
+				return null;
+			}
+			IntBuffer ids = CopyOnWriteIntArray.allocateDirect(n);
+			n = 0;
+			for (int id = 0; id <= max; id++) {
+				if ((present.get(id >>> 5) & (1 << id)) != 0) {
+					ids.put(n++, id);
+				}
+			}
+			return ids;
+		}
+
+		IntBuffer all = CopyOnWriteIntArray.allocateDirect((int) count);
+		for (int i = 0; i < 2 * linkCount; i++) {
+			all.put(i, links.get(i));
+		}
+		for (int i = 0; i < gatewayIds.length; i++) {
+			all.put(2 * linkCount + i, gatewayIds[i]);
+		}
+		for (int i = 0; i < agentIds.length; i++) {
+			all.put(2 * linkCount + gatewayIds.length + i, agentIds[i]);
+		}
+		sort(all, CopyOnWriteIntArray.allocateDirect((int) count));
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || all.get(i) != all.get(n - 1)) {
+				all.put(n++, all.get(i));
+			}
+		}
+		IntBuffer ids = CopyOnWriteIntArray.allocateDirect(n);
+		for (int i = 0; i < n; i++) {
+			ids.put(i, all.get(i));
+		}
+		return ids;
+	}
+
+	/**
+	 * Sorts a direct buffer by a radix sort over the four bytes of the ints,
+	 * so nothing but the counts of the byte values is kept on the heap.
+	 *
+	 * @param values
+	 *            the ints to sort
+	 * @param scratch
+	 *            a buffer with the same capacity, its contents are lost
+	 */
+	private static void sort(IntBuffer values, IntBuffer scratch) {
+		int length = values.capacity();
+		int[] counts = new int[257];
+		IntBuffer from = values;
+		IntBuffer to = scratch;
+		for (int shift = 0; shift < 32; shift += 8) {
+			// the sign bit is flipped, so negative ints come first
+			int flip = shift == 24 ? 0x80 : 0;
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < length; i++) {
+				counts[(((from.get(i) >>> shift) & 0xFF) ^ flip) + 1]++;
+			}
+			for (int b = 0; b < 256; b++) {
+				counts[b + 1] += counts[b];
+			}
+			for (int i = 0; i < length; i++) {
+				int value = from.get(i);
+				to.put(counts[((value >>> shift) & 0xFF) ^ flip]++, value);
+			}
+			IntBuffer swap = from;
+			from = to;
+			to = swap;
+		}
+		// after an even number of passes the ints are back in values
+	}
+
+	private static void mark(IntBuffer bits, int bit) {
+		bits.put(bit >>> 5, bits.get(bit >>> 5) | (1 << bit));
+	}
+
+	/**
+	 * @return the number of nodes of a map whose ids are 0 to n-1
+	 */
+	private static int identitySize(SubnetMap map) {
+		int max = map.agentPosition;
+		for (int i = 0; i < 2 * map.linkCount; i++) {
+			max = Math.max(max, map.links.get(i));
+		}
+		for (int id : map.gateways) {
+			max = Math.max(max, id);
+		}
+		for (int id : map.agentPositions) {
+			max = Math.max(max, id);
+		}
+		return max + 1;
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public int indexOf(int id) {
+		if (this.ids == null) {
+			return id >= 0 && id < this.size ? id : -1;
+		}
+		int low = 0;
+		int high = this.size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleId = this.ids.get(middle);
+			if (middleId < id) {
+				low = middle + 1;
+			} else if (middleId > id) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int idOf(int index) {
+		return this.ids == null ? index : this.ids.get(index);
+	}
+
+	@Override
+	public int maxDegree() {
+		return this.maxDegree;
+	}
+
+	@Override
+	public int neighbours(int index, int[] dst) {
+		int count = 0;
+		int to = this.offsets.get(index + 1);
+		for (int k = this.offsets.get(index); k < to; k++) {
+			if (!this.severed.getBit(k)) {
+				dst[count++] = this.targets.get(k);
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int neighbours(int index, int[] dst, int[] weights) {
+		if (this.weights == null) {
+			return SubnetGraph.super.neighbours(index, dst, weights);
+		}
+		int count = 0;
+		int to = this.offsets.get(index + 1);
+		for (int k = this.offsets.get(index); k < to; k++) {
+			if (!this.severed.getBit(k)) {
+				weights[count] = this.weights.get(k);
+				dst[count++] = this.targets.get(k);
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int maxWeight() {
+		return this.maxWeight;
+	}
+
+	@Override
+	public int weight(int a, int b) {
+		return this.weights == null ? 1 : this.weights.get(this.slotOf(a, b));
+	}
+
+	@Override
+	public boolean removeLink(int a, int b) {
+		int ab = this.slotOf(a, b);
+		if (ab < 0 || this.severed.getBit(ab)) {
+			return false;
+		}
+		this.severed.setBit(ab, true);
+		this.severed.setBit(this.slotOf(b, a), true);
+		return true;
+	}
+
+	@Override
+	public void restoreLink(int a, int b) {
+		int ab = this.slotOf(a, b);
+		if (ab >= 0) {
+			this.severed.setBit(ab, false);
+			this.severed.setBit(this.slotOf(b, a), false);
+		}
+	}
+
+	@Override
+	public boolean isGateway(int index) {
+		return (this.gateways.get(index >>> 5) & (1 << index)) != 0;
+	}
+
+	@Override
+	public void setGateway(int index) {
+		mark(this.gateways, index);
+	}
+
+	@Override
+	public int getSteps(int index) {
+		return this.steps.get(index);
+	}
+
+	@Override
+	public void setSteps(int index, int steps) {
+		this.steps.set(index, steps);
+	}
+
+	@Override
+	public SubnetGraph fork() {
+		return new OffHeapSubnetGraph(this);
+	}
+
+	/**
+	 * @param index
+	 *            dense index of a node
+	 * @return the binary logarithm of the capacity of the HashMap whose order
+	 *         the row of the node has, see {@link NeighbourOrder}, or 0 if
+	 *         the row has to be searched one by one
+	 */
+	int shiftOf(int index) {
+		return this.shifts.get(index);
+	}
+
+	/**
+	 * Finds the position of node b in the row of node a.
+	 *
+	 * @return the position in targets or a negative value if a and b were
+	 *         never linked
+	 */
+	private int slotOf(int a, int b) {
+		int from = this.offsets.get(a);
+		int to = this.offsets.get(a + 1);
+		int shift = this.shifts.get(a);
+		if (shift == 0) {
+			for (int k = from; k < to; k++) {
+				if (this.targets.get(k) == b) {
+					return k;
+				}
+			}
+			return -1;
+		}
+		// the first position whose bucket is not less than the one of b
+		int bucket = NeighbourOrder.bucket(this.idOf(b), shift);
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (NeighbourOrder.bucket(this.idOf(this.targets.get(middle)), shift) < bucket) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		for (int k = low; k < to && NeighbourOrder.bucket(this.idOf(this.targets.get(k)), shift) == bucket; k++) {
+			if (this.targets.get(k) == b) {
+				return k;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,607 @@
+package skynet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The graph core for subnets which are too large to be loaded completely. The
+ * map is stored in a partitioned file, see {@link #write(SubnetMap, Path)},
+ * in the same layout as {@link CsrSubnetGraph}, but cut into partitions of
+ * 4096 consecutive dense indexes. Only a small table of the partitions is
+ * read when the graph is opened. A partition is read from the file the first
+ * time the links or the id of one of its nodes are needed, which happens
+ * when the breadth first search of {@link GatewayDistances} reaches it.
+ * <p>
+ * The gateway flags, the severed bits and the steps are copy on write arrays,
+ * whose pages are only allocated when they are written. So the memory of the
+ * graph and the time to open it follow the part of the subnet around the
+ * agents and the gateways, not the size of the map.
+ * <p>
+ * The partitions read by a graph are shared with all its forks and are never
+ * dropped again. Partitions may be read by several forks at once.
+ * <p>
+ * The partitioned format consists of little endian integers only:
+ * <ul>
+ * <li>header - the magic number 0x31504B53 ("SKP1") and the format version
+ * 2</li>
+ * <li>n, b, d - the number of nodes, the partitions have 2^b nodes, the
+ * highest degree of a node</li>
+ * <li>i - 1 if the ids of the nodes are 0 to n-1, 0 otherwise</li>
+ * <li>e, k - the number of gateways and agents</li>
+ * <li>gateways, agents - the ids of the e gateway nodes and of the k nodes
+ * where the agents are initially positioned</li>
+ * <li>table - for every partition the position of its block in the file (as
+ * a long), then the number of links from the nodes in front of it and, if
+ * i is 0, the id of its first node. The table ends with the position and
+ * link number behind the last partition.</li>
+ * <li>blocks - for every partition the ids of its nodes if i is 0, the
+ * offsets of the rows of its nodes relative to the start of the block's
+ * rows (one more than nodes), the binary logarithms of the capacities of the
+ * HashMaps whose order the rows have, see {@link NeighbourOrder}, and the
+ * rows, the dense indexes of the neighbours of each node in the order of
+ * {@link NodeSubnetGraph}</li>
+ * </ul>
+ *
+ * @author hto
+ *
+ */
+final class PartitionedSubnetGraph implements SubnetGraph {
+
+	/**
+	 * The first integer of a map in partitioned format.
+	 */
+	static final int MAGIC = 0x31504B53;
+
+	/**
+	 * The version of the partitioned format.
+	 */
+	static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 32;
+	private static final int PARTITION_BITS = 12;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Path file;
+	private final int size;
+	private final int partitionBits;
+	private final int maxDegree;
+	private final int[] gatewayIds;
+	private final int[] agentIds;
+
+	// for every partition and behind the last: the position of its block,
+	// the number of links in front of it and the id of its first node (null
+	// if the id of every node is its index)
+	private final long[] positions;
+	private final int[] firstLinks;
+	private final int[] firstIds;
+
+	// shared with all forks, null until a partition is read
+	private final Partition[] partitions;
+	private final Reads reads;
+
+	private final CopyOnWriteIntArray gateways;
+	// one bit for every link in both directions
+	private final CopyOnWriteIntArray severed;
+	private final CopyOnWriteIntArray steps;
+
+	/**
+	 * The nodes of one partition. Once read it never changes.
+	 */
+	private static final class Partition {
+		// null if the id of every node is its index
+		final int[] ids;
+		final int[] offsets;
+		// see CsrSubnetGraph
+		final byte[] shifts;
+		final int[] targets;
+
+		Partition(int[] ids, int[] offsets, byte[] shifts, int[] targets) {
+			this.ids = ids;
+			this.offsets = offsets;
+			this.shifts = shifts;
+			this.targets = targets;
+		}
+	}
+
+	/**
+	 * Counts the partitions read by a graph and its forks. All partitions are
+	 * read while the count is locked.
+	 */
+	private static final class Reads {
+		private volatile int count = 0;
+	}
+
+	/**
+	 * Opens a map in partitioned format. Only the header and the table of the
+	 * partitions are read.
+	 *
+	 * @param file
+	 *            the partitioned map
+	 * @throws IOException
+	 *             if the map cannot be read
+	 */
+	PartitionedSubnetGraph(Path file) throws IOException {
+		this.file = file;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = read(channel, 0, HEADER_SIZE);
+			if (header.getInt(0) != MAGIC) {
+				throw new RuntimeException("Illegal subnet map: " + file + " is not in partitioned format.");
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new RuntimeException(
+						"Illegal subnet map: unknown partitioned format version " + header.getInt(4) + ".");
+			}
+			this.size = header.getInt(8);
+			this.partitionBits = header.getInt(12);
+			this.maxDegree = header.getInt(16);
+			boolean identity = header.getInt(20) != 0;
+			int e = header.getInt(24);
+			int k = header.getInt(28);
+			if (this.size < 0 || this.partitionBits < 1 || this.partitionBits > 30 || this.maxDegree < 0 || e < 0
+					|| k < 1) {
+				throw new RuntimeException("Illegal subnet map: " + file + " has an illegal header.");
+			}
+
+			int partitionCount = (int) ((this.size + (1L << this.partitionBits) - 1) >>> this.partitionBits);
+			int entrySize = identity ? 12 : 16;
+			ByteBuffer table = read(channel, HEADER_SIZE, 4 * (e + k) + entrySize * (partitionCount + 1));
+			this.gatewayIds = new int[e];
+			for (int i = 0; i < e; i++) {
+				this.gatewayIds[i] = table.getInt();
+			}
+			this.agentIds = new int[k];
+			for (int i = 0; i < k; i++) {
+				this.agentIds[i] = table.getInt();
+			}
+			this.positions = new long[partitionCount + 1];
+			this.firstLinks = new int[partitionCount + 1];
+			this.firstIds = identity ? null : new int[partitionCount + 1];
+			for (int p = 0; p <= partitionCount; p++) {
+				this.positions[p] = table.getLong();
+				this.firstLinks[p] = table.getInt();
+				if (!identity) {
+					this.firstIds[p] = table.getInt();
+				}
+			}
+			if (this.positions[partitionCount] > channel.size()) {
+				throw new RuntimeException("Illegal subnet map: " + file + " is truncated.");
+			}
+		}
+		this.partitions = new Partition[this.positions.length - 1];
+		this.reads = new Reads();
+		this.gateways = CopyOnWriteIntArray.bits(this.size);
+		this.severed = CopyOnWriteIntArray.bits(this.firstLinks[this.partitions.length]);
+		this.steps = new CopyOnWriteIntArray(this.size, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a fork of a graph.
+	 *
+	 * @param parent
+	 *            the graph to fork
+	 */
+	private PartitionedSubnetGraph(PartitionedSubnetGraph parent) {
+		this.file = parent.file;
+		this.size = parent.size;
+		this.partitionBits = parent.partitionBits;
+		this.maxDegree = parent.maxDegree;
+		this.gatewayIds = parent.gatewayIds;
+		this.agentIds = parent.agentIds;
+		this.positions = parent.positions;
+		this.firstLinks = parent.firstLinks;
+		this.firstIds = parent.firstIds;
+		this.partitions = parent.partitions;
+		this.reads = parent.reads;
+		this.gateways = parent.gateways;
+		this.severed = parent.severed.fork();
+		this.steps = parent.steps.fork();
+	}
+
+	/**
+	 * Writes a map in partitioned format. The links are sorted off the heap
+	 * like in {@link OffHeapSubnetGraph}, so also huge maps can be written.
+	 *
+	 * @param map
+	 *            the map
+	 * @param file
+	 *            the file to write the map to. An existing file is
+	 *            overwritten.
+	 * @throws IOException
+	 *             if the file cannot be written
+	 * @throws RuntimeException
+	 *             if the links of the map have weights, the partitioned
+	 *             format has no weights
+	 */
+	static void write(SubnetMap map, Path file) throws IOException {
+		OffHeapSubnetGraph graph = new OffHeapSubnetGraph(map);
+		if (graph.maxWeight() > 1) {
+			throw new RuntimeException("Links with weights cannot be partitioned.");
+		}
+		int n = graph.size();
+		int partitionCount = (n + (1 << PARTITION_BITS) - 1) >>> PARTITION_BITS;
+		boolean identity = true;
+		for (int index = 0; index < n && identity; index++) {
+			identity = graph.idOf(index) == index;
+		}
+		int[] neighbours = new int[graph.maxDegree()];
+
+		try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(PARTITION_BITS).putInt(graph.maxDegree())
+					.putInt(identity ? 1 : 0).putInt(map.gateways.length).putInt(map.agentPositions.length);
+			for (int id : map.gateways) {
+				put(out, buffer, id);
+			}
+			for (int id : map.agentPositions) {
+				put(out, buffer, id);
+			}
+
+			// the table needs the size of every block
+			long position = HEADER_SIZE + 4L * (map.gateways.length + map.agentPositions.length)
+					+ (identity ? 12L : 16L) * (partitionCount + 1);
+			int links = 0;
+			for (int p = 0; p <= partitionCount; p++) {
+				flushIfFull(out, buffer, 16);
+				buffer.putLong(position).putInt(links);
+				if (!identity) {
+					buffer.putInt(p < partitionCount ? graph.idOf(p << PARTITION_BITS) : 0);
+				}
+				if (p < partitionCount) {
+					int from = p << PARTITION_BITS;
+					int to = Math.min(n, from + (1 << PARTITION_BITS));
+					int partitionLinks = 0;
+					for (int index = from; index < to; index++) {
+						partitionLinks += graph.neighbours(index, neighbours);
+					}
+					position += 4L * ((identity ? 0 : to - from) + 2 * (to - from) + 1 + partitionLinks);
+					links += partitionLinks;
+				}
+			}
+
+			for (int p = 0; p < partitionCount; p++) {
+				int from = p << PARTITION_BITS;
+				int to = Math.min(n, from + (1 << PARTITION_BITS));
+				if (!identity) {
+					for (int index = from; index < to; index++) {
+						put(out, buffer, graph.idOf(index));
+					}
+				}
+				int offset = 0;
+				put(out, buffer, offset);
+				for (int index = from; index < to; index++) {
+					offset += graph.neighbours(index, neighbours);
+					put(out, buffer, offset);
+				}
+				for (int index = from; index < to; index++) {
+					put(out, buffer, graph.shiftOf(index));
+				}
+				for (int index = from; index < to; index++) {
+					int count = graph.neighbours(index, neighbours);
+					for (int i = 0; i < count; i++) {
+						put(out, buffer, neighbours[i]);
+					}
+				}
+			}
+			flush(out, buffer);
+		}
+	}
+
+	/**
+	 * @return the ids of the gateway nodes of the map
+	 */
+	int[] getGatewayIds() {
+		return this.gatewayIds.clone();
+	}
+
+	/**
+	 * @return the ids of the nodes where the agents are initially positioned
+	 */
+	int[] getAgentIds() {
+		return this.agentIds.clone();
+	}
+
+	/**
+	 * @return the number of partitions of the map
+	 */
+	int getPartitionCount() {
+		return this.partitions.length;
+	}
+
+	/**
+	 * @return the number of partitions read so far by this graph and all
+	 *         graphs forked from the same graph
+	 */
+	int getReadPartitions() {
+		return this.reads.count;
+	}
+
+	/**
+	 * Reads all partitions and collects the links of the map, each once with
+	 * the smaller dense index first, no matter if they have been severed.
+	 *
+	 * @return the map
+	 */
+	SubnetMap toMap() {
+		IntBuffer links = IntBuffer.allocate(this.firstLinks[this.partitions.length]);
+		for (int p = 0; p < this.partitions.length; p++) {
+			Partition partition = this.partition(p);
+			int from = p << this.partitionBits;
+			for (int local = 0; local < partition.offsets.length - 1; local++) {
+				int a = from + local;
+				for (int k = partition.offsets[local]; k < partition.offsets[local + 1]; k++) {
+					int b = partition.targets[k];
+					if (a < b) {
+						links.put(this.idOf(a)).put(this.idOf(b));
+					}
+				}
+			}
+		}
+		links.flip();
+		return new SubnetMap(links, links.limit() / 2, this.gatewayIds, this.agentIds);
+	}
+
+	/**
+	 * Calls an action for every link which has been severed.
+	 *
+	 * @param action
+	 *            is called with the ids of both ends of each severed link
+	 */
+	void forEachSeveredLink(IntBiConsumer action) {
+		// links can only have been severed in partitions which have been read
+		for (int p = 0; p < this.partitions.length; p++) {
+			Partition partition = this.partitions[p];
+			if (partition == null) {
+				continue;
+			}
+			int from = p << this.partitionBits;
+			for (int local = 0; local < partition.offsets.length - 1; local++) {
+				int a = from + local;
+				for (int k = partition.offsets[local]; k < partition.offsets[local + 1]; k++) {
+					int b = partition.targets[k];
+					if (a < b && this.severed.getBit(this.firstLinks[p] + k)) {
+						action.accept(this.idOf(a), this.idOf(b));
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public int indexOf(int id) {
+		if (this.firstIds == null) {
+			return id >= 0 && id < this.size ? id : -1;
+		}
+		// the last partition whose first id is not greater than id
+		int low = 0;
+		int high = this.partitions.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this.firstIds[middle] <= id) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (this.partitions.length == 0 || this.firstIds[low] > id) {
+			return -1;
+		}
+		int[] ids = this.partition(low).ids;
+		int local = Arrays.binarySearch(ids, id);
+		return local < 0 ? -1 : (low << this.partitionBits) + local;
+	}
+
+	@Override
+	public int idOf(int index) {
+		if (this.firstIds == null) {
+			return index;
+		}
+		return this.partition(index >>> this.partitionBits).ids[index & ((1 << this.partitionBits) - 1)];
+	}
+
+	@Override
+	public int maxDegree() {
+		return this.maxDegree;
+	}
+
+	@Override
+	public int neighbours(int index, int[] dst) {
+		int p = index >>> this.partitionBits;
+		Partition partition = this.partition(p);
+		int local = index & ((1 << this.partitionBits) - 1);
+		int firstLink = this.firstLinks[p];
+		int count = 0;
+		int to = partition.offsets[local + 1];
+		for (int k = partition.offsets[local]; k < to; k++) {
+			if (!this.severed.getBit(firstLink + k)) {
+				dst[count++] = partition.targets[k];
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public boolean removeLink(int a, int b) {
+		int ab = this.linkOf(a, b);
+		if (ab < 0 || this.severed.getBit(ab)) {
+			return false;
+		}
+		this.severed.setBit(ab, true);
+		this.severed.setBit(this.linkOf(b, a), true);
+		return true;
+	}
+
+	@Override
+	public void restoreLink(int a, int b) {
+		int ab = this.linkOf(a, b);
+		if (ab >= 0) {
+			this.severed.setBit(ab, false);
+			this.severed.setBit(this.linkOf(b, a), false);
+		}
+	}
+
+	@Override
+	public boolean isGateway(int index) {
+		return this.gateways.getBit(index);
+	}
+
+	@Override
+	public void setGateway(int index) {
+		this.gateways.setBit(index, true);
+	}
+
+	@Override
+	public int getSteps(int index) {
+		return this.steps.get(index);
+	}
+
+	@Override
+	public void setSteps(int index, int steps) {
+		this.steps.set(index, steps);
+	}
+
+	@Override
+	public SubnetGraph fork() {
+		return new PartitionedSubnetGraph(this);
+	}
+
+	/**
+	 * Finds node b in the row of node a.
+	 *
+	 * @return the number of the link from a to b or a negative value if a and
+	 *         b were never linked
+	 */
+	private int linkOf(int a, int b) {
+		int p = a >>> this.partitionBits;
+		Partition partition = this.partition(p);
+		int local = a & ((1 << this.partitionBits) - 1);
+		int from = partition.offsets[local];
+		int to = partition.offsets[local + 1];
+		int shift = partition.shifts[local];
+		if (shift == 0) {
+			for (int k = from; k < to; k++) {
+				if (partition.targets[k] == b) {
+					return this.firstLinks[p] + k;
+				}
+			}
+			return -1;
+		}
+		// the first position whose bucket is not less than the one of b
+		int bucket = NeighbourOrder.bucket(this.idOf(b), shift);
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (NeighbourOrder.bucket(this.idOf(partition.targets[middle]), shift) < bucket) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		for (int k = low; k < to && NeighbourOrder.bucket(this.idOf(partition.targets[k]), shift) == bucket; k++) {
+			if (partition.targets[k] == b) {
+				return this.firstLinks[p] + k;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the partition, which is read from the file if it has not been
+	 *         read yet
+	 */
+	private Partition partition(int p) {
+		// the fields of a partition are final, so it is complete as soon as
+		// it can be seen in the array
+		Partition partition = this.partitions[p];
+		if (partition == null) {
+			partition = this.read(p);
+		}
+		return partition;
+	}
+
+	private Partition read(int p) {
+		synchronized (this.reads) {
+			Partition partition = this.partitions[p];
+			if (partition != null) {
+				return partition;
+			}
+			int from = p << this.partitionBits;
+			int nodes = Math.min(this.size - from, 1 << this.partitionBits);
+			int links = this.firstLinks[p + 1] - this.firstLinks[p];
+			int length = (int) (this.positions[p + 1] - this.positions[p]);
+			int expected = 4 * ((this.firstIds == null ? 0 : nodes) + 2 * nodes + 1 + links);
+			if (length != expected) {
+				throw new RuntimeException("Illegal subnet map: partition " + p + " of " + this.file + " has "
+						+ length + " bytes instead of " + expected + ".");
+			}
+			IntBuffer block;
+			try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+				block = read(channel, this.positions[p], length).asIntBuffer();
+			} catch (IOException e) {
+				throw new RuntimeException("Partition " + p + " of subnet map " + this.file + " cannot be read.", e);
+			}
+			int[] ids = null;
+			if (this.firstIds != null) {
+				ids = new int[nodes];
+				block.get(ids);
+			}
+			int[] offsets = new int[nodes + 1];
+			block.get(offsets);
+			byte[] shifts = new byte[nodes];
+			for (int local = 0; local < nodes; local++) {
+				shifts[local] = (byte) block.get();
+			}
+			int[] targets = new int[links];
+			block.get(targets);
+			partition = new Partition(ids, offsets, shifts, targets);
+			this.partitions[p] = partition;
+			this.reads.count++;
+			return partition;
+		}
+	}
+
+	/**
+	 * Reads a part of a file into a little endian buffer.
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new RuntimeException("Illegal subnet map: unexpected end of map.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void put(FileChannel out, ByteBuffer buffer, int value) throws IOException {
+		flushIfFull(out, buffer, 4);
+		buffer.putInt(value);
+	}
+
+	private static void flushIfFull(FileChannel out, ByteBuffer buffer, int needed) throws IOException {
+		if (buffer.remaining() < needed) {
+			flush(out, buffer);
+		}
+	}
+
+	private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+}
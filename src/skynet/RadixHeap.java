@@ -0,0 +1,117 @@
+package skynet;
+
+import java.util.Arrays;
+
+/**
+ * A monotone priority queue of nodes with non negative integer keys, as
+ * needed by Dijkstra's algorithm: a key is never less than the last key
+ * taken out. The entries are kept in 32 buckets by the highest bit in which
+ * their key differs from the last key taken out. Only when the bucket of the
+ * last key is empty, the next bucket is emptied into the lower ones, so every
+ * entry moves down at most 32 times and a push and a pop cost O(1) amortized,
+ * no matter how large the keys are.
+ *
+ * @author hto
+ *
+ */
+final class RadixHeap {
+
+	// key and node of every entry, the key in the upper half
+	private final long[][] buckets = new long[33][];
+	private final int[] sizes = new int[33];
+	private int size = 0;
+	private int last = 0;
+
+	RadixHeap() {
+		for (int i = 0; i < this.buckets.length; i++) {
+			this.buckets[i] = new long[8];
+		}
+	}
+
+	/**
+	 * Removes all entries and allows any key again.
+	 */
+	void clear() {
+		Arrays.fill(this.sizes, 0);
+		this.size = 0;
+		this.last = 0;
+	}
+
+	/**
+	 * @return true if there are no entries
+	 */
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Adds a node. A node may be added several times with different keys.
+	 *
+	 * @param key
+	 *            the key, at least the last key taken out
+	 * @param node
+	 *            the node
+	 */
+	void push(int key, int node) {
+		if (key < this.last) {
+			throw new RuntimeException("Key " + key + " is less than the last key " + this.last + ".");
+		}
+		this.add(this.bucketOf(key), ((long) key << 32) | node);
+		this.size++;
+	}
+
+	/**
+	 * @return the least key of all entries, the heap must not be empty
+	 */
+	int minKey() {
+		this.pull();
+		return this.last;
+	}
+
+	/**
+	 * Takes out an entry with the least key, see {@link #minKey()}.
+	 *
+	 * @return the node of the entry
+	 */
+	int pop() {
+		this.pull();
+		this.size--;
+		return (int) this.buckets[0][--this.sizes[0]];
+	}
+
+	/**
+	 * Makes sure that the entries with the least key are in bucket 0.
+	 */
+	private void pull() {
+		if (this.sizes[0] > 0) {
+			return;
+		}
+		int i = 1;
+		while (this.sizes[i] == 0) {
+			i++;
+		}
+		long[] bucket = this.buckets[i];
+		int count = this.sizes[i];
+		long min = bucket[0];
+		for (int k = 1; k < count; k++) {
+			min = Math.min(min, bucket[k]);
+		}
+		this.last = (int) (min >>> 32);
+		this.sizes[i] = 0;
+		for (int k = 0; k < count; k++) {
+			long entry = bucket[k];
+			this.add(this.bucketOf((int) (entry >>> 32)), entry);
+		}
+	}
+
+	private int bucketOf(int key) {
+		return 32 - Integer.numberOfLeadingZeros(key ^ this.last);
+	}
+
+	private void add(int b, long entry) {
+		if (this.sizes[b] == this.buckets[b].length) {
+			this.buckets[b] = Arrays.copyOf(this.buckets[b], 2 * this.sizes[b]);
+		}
+		this.buckets[b][this.sizes[b]++] = entry;
+	}
+}
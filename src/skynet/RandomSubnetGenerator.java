@@ -0,0 +1,149 @@
+package skynet;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+
+/**
+ * Generates maps of random subnets which are large enough for load tests. All
+ * the work is done on primitive arrays, so the costs grow linearly with the
+ * number of links and a subnet with a million nodes is ready in a few
+ * seconds. The same seed always produces the same map.
+ * <p>
+ * Like the subnets of {@link SkynetSubnet#createRandomSubnet(int)} between 1
+ * and numberOfNodes/2 nodes are gateways and every none gateway node is
+ * linked to at most one gateway. The none gateway nodes are connected by a
+ * random tree plus random links until they have the requested average
+ * degree.
+ *
+ * @author hto
+ *
+ */
+final class RandomSubnetGenerator {
+
+	private RandomSubnetGenerator() {
+	}
+
+	/**
+	 * Generates the map of a random subnet.
+	 *
+	 * @param numberOfNodes
+	 *            the number of nodes in the subnet &gt; 4
+	 * @param averageDegree
+	 *            the average number of links between a none gateway node and
+	 *            other none gateway nodes. Values below 2 result in a tree.
+	 * @param seed
+	 *            the seed of the random generator
+	 * @return the map of the subnet, node ids are 0 to numberOfNodes-1
+	 */
+	static SubnetMap generate(int numberOfNodes, double averageDegree, long seed) {
+		return generate(numberOfNodes, averageDegree, seed, 1);
+	}
+
+	/**
+	 * Generates the map of a random subnet with several agents. Every agent
+	 * starts on a random none gateway node, several agents may start on the
+	 * same node. The first agent starts where the only agent of
+	 * {@link #generate(int, double, long)} starts.
+	 *
+	 * @param numberOfNodes
+	 *            the number of nodes in the subnet &gt; 4
+	 * @param averageDegree
+	 *            the average number of links between a none gateway node and
+	 *            other none gateway nodes. Values below 2 result in a tree.
+	 * @param seed
+	 *            the seed of the random generator
+	 * @param numberOfAgents
+	 *            the number of agents &gt; 0
+	 * @return the map of the subnet, node ids are 0 to numberOfNodes-1
+	 */
+	static SubnetMap generate(int numberOfNodes, double averageDegree, long seed, int numberOfAgents) {
+		if (numberOfAgents < 1) {
+			throw new RuntimeException("Illegal number of agents " + numberOfAgents + ".");
+		}
+		if (numberOfNodes < 5) {
+			throw new RuntimeException("Illegal number of nodes " + numberOfNodes + ". There must be at least 5 nodes.");
+		}
+		if (!(averageDegree >= 0)) {
+			throw new RuntimeException("Illegal average degree " + averageDegree + ".");
+		}
+		RandomGenerator random = new Well19937c(seed);
+
+		// shuffle the node ids: the first numberOfGateways are the gateways
+		int[] nodes = new int[numberOfNodes];
+		for (int i = 0; i < numberOfNodes; i++) {
+			nodes[i] = i;
+		}
+		for (int i = numberOfNodes - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int node = nodes[i];
+			nodes[i] = nodes[j];
+			nodes[j] = node;
+		}
+		int numberOfGateways = 1 + random.nextInt(numberOfNodes / 2);
+		int numberOfNoneGateways = numberOfNodes - numberOfGateways;
+
+		// links between the none gateway nodes packed into longs: a random
+		// tree, so that all of them are connected, and then random pairs
+		long possibleLinks = (long) numberOfNoneGateways * (numberOfNoneGateways - 1) / 2;
+		long wanted = Math.round(averageDegree * numberOfNoneGateways / 2);
+		int numberOfTreeLinks = numberOfNoneGateways - 1;
+		int numberOfNodeLinks = (int) Math.min(Integer.MAX_VALUE / 2 - numberOfNodes,
+				Math.min(possibleLinks, Math.max(numberOfTreeLinks, wanted)));
+		long[] nodeLinks = new long[numberOfNodeLinks];
+		for (int i = 1; i <= numberOfTreeLinks; i++) {
+			int parent = random.nextInt(i);
+			nodeLinks[i - 1] = LinkStore.key(nodes[numberOfGateways + parent], nodes[numberOfGateways + i]);
+		}
+		int count = numberOfTreeLinks;
+		while (count < numberOfNodeLinks) {
+			for (int i = count; i < numberOfNodeLinks; i++) {
+				int a = random.nextInt(numberOfNoneGateways);
+				int b = random.nextInt(numberOfNoneGateways - 1);
+				if (b >= a) {
+					b++;
+				}
+				nodeLinks[i] = LinkStore.key(nodes[numberOfGateways + a], nodes[numberOfGateways + b]);
+			}
+			// drop the duplicates and draw again until there are enough
+			Arrays.sort(nodeLinks);
+			count = 1;
+			for (int i = 1; i < numberOfNodeLinks; i++) {
+				if (nodeLinks[i] != nodeLinks[count - 1]) {
+					nodeLinks[count++] = nodeLinks[i];
+				}
+			}
+		}
+
+		// every gateway gets its own disjunct set of none gateway nodes
+		int m = numberOfNoneGateways / numberOfGateways;
+		int[] gatewayLinks = new int[2 * numberOfNoneGateways];
+		int numberOfGatewayLinks = 0;
+		int next = numberOfGateways;
+		for (int g = 0; g < numberOfGateways; g++) {
+			int ni = 1 + random.nextInt(m);
+			for (int i = 0; i < ni; i++) {
+				gatewayLinks[2 * numberOfGatewayLinks] = nodes[g];
+				gatewayLinks[2 * numberOfGatewayLinks + 1] = nodes[next++];
+				numberOfGatewayLinks++;
+			}
+		}
+
+		int numberOfLinks = numberOfNodeLinks + numberOfGatewayLinks;
+		int[] links = new int[2 * numberOfLinks];
+		for (int i = 0; i < numberOfNodeLinks; i++) {
+			links[2 * i] = (int) (nodeLinks[i] >>> 32);
+			links[2 * i + 1] = (int) nodeLinks[i];
+		}
+		System.arraycopy(gatewayLinks, 0, links, 2 * numberOfNodeLinks, 2 * numberOfGatewayLinks);
+
+		int[] gateways = Arrays.copyOf(nodes, numberOfGateways);
+		int[] agentNodes = new int[numberOfAgents];
+		for (int i = 0; i < numberOfAgents; i++) {
+			agentNodes[i] = nodes[numberOfGateways + random.nextInt(numberOfNoneGateways)];
+		}
+		return new SubnetMap(IntBuffer.wrap(links), numberOfLinks, gateways, agentNodes);
+	}
+}
@@ -1,14 +1,25 @@
 package skynet;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntBinaryOperator;
 
 import org.apache.commons.math3.random.RandomDataGenerator;
 
@@ -43,15 +54,89 @@ public class SkynetSubnet implements SubnetBackdoor {
 	 */
 	public static final int GAMMA = 3;
 
-	private int[][] linksAsIntegers;
-
-	private Map<Integer, Node> nodes = new HashMap<>();
-	private List<Node> gatewayNodes = new ArrayList<>();
-	private Node agentNode = null;
+	/**
+	 * The graph cores a subnet can be built on. All cores list the neighbours
+	 * of a node in the order of {@link #NODES}, so the agent makes the same
+	 * moves on all of them. Only a node with 9 neighbours in the same bucket
+	 * of a HashMap with 64 buckets or more may break the ties between them
+	 * differently on the other cores once links of the node have been
+	 * severed, because the HashMap of {@link #NODES} turns the bucket into a
+	 * tree whose order depends on the links severed before.
+	 */
+	public enum Core {
+		/**
+		 * Every node is an object which knows its neighbours. This is the
+		 * default and fine for small subnets.
+		 */
+		NODES,
+		/**
+		 * Nodes are remapped to dense indexes and the links are stored in
+		 * compressed sparse row format in primitive arrays. Use this for
+		 * subnets with 10^5 nodes and more.
+		 */
+		CSR,
+		/**
+		 * Like {@link #CSR}, but the links, the steps to the gateways, the
+		 * gateway flags and the list of links are stored in direct buffers
+		 * off the heap. The heap stays small and the garbage collector has
+		 * nothing to scan, no matter how large the subnet is. Use this for
+		 * subnets with 10^7 nodes and more, preferably loaded with
+		 * {@link SkynetSubnet#createSubnetFromBinaryFile(Path, Core)}, which
+		 * maps the file instead of reading it into the heap. The size of the
+		 * direct memory may have to be raised with -XX:MaxDirectMemorySize.
+		 */
+		OFF_HEAP
+	}
 
-	// status notifier
+	// the agents choose their next nodes in parallel if there are at least
+	// this many of them
+	private static final int PARALLEL_AGENTS = 1 << 11;
+	private static final int AGENTS_PER_TASK = 1 << 9;
+	// an agent which has to look further than its neighbours for a way
+	private static final int FURTHER_AWAY = -2;
+
+	// the listeners of all new subnets, replaced on every change
+	private static volatile SubnetListener[] defaultListeners = new SubnetListener[0];
+
+	// the subnets loaded from maps, every new game on a map is a fork of them
+	private static final int DEFAULT_TEMPLATES = 16;
+	private static final SubnetTemplates templates = new SubnetTemplates(DEFAULT_TEMPLATES);
+	// a file changed within this time may be changed again without getting
+	// another time of the last change, FAT stores it in steps of 2 seconds
+	private static final long TIMESTAMP_TICK = 2000;
+
+	// null in a partitioned subnet until the links are asked for
+	private LinkStore links;
+
+	private Core core = Core.NODES;
+	private SubnetGraph graph;
+	// dense indexes of the gateway nodes and the agent nodes in the graph
+	private int[] gatewayNodes = new int[0];
+	private int[] agentNodes = new int[0];
+	private int[] nextAgentNodes;
+	private int[] neighbourBuffer;
+	private int[] weightBuffer;
+	private GatewayDistances distances;
+	// the minimum cut between the agents and the gateways, created on demand
+	private MinimumCut minimumCut;
+	private TurnResults turnResults;
+
+	// journal of the turns since the first mark, 3 ints per turn plus one per
+	// agent: the mark of the distances, the dense indexes of the severed
+	// nodes or -1 and the previous agent nodes
+	private int[] turnJournal = null;
+	private int turnJournalSize = 0;
+
+	// status notifier of the game and of every agent
 	private boolean agentMoving = true;
 	private boolean agentOnAGateway = true;
+	private boolean[] agentsMoving = new boolean[0];
+	private boolean[] agentsOnAGateway = new boolean[0];
+
+	// null without listeners, so that a turn does not even measure its time
+	private SubnetListener[] listeners = defaultListeners.length == 0 ? null : defaultListeners;
+	private SubnetEvent event;
+	private int[] previousAgentNodes;
 
 	/**
 	 * If you somehow got a map of a Skynet subnet you can create a back door to
@@ -67,15 +152,206 @@ public class SkynetSubnet implements SubnetBackdoor {
 	 *            <li>e - second integer including the number of gateways in the
 	 *            network</li>
 	 *            <li>links - l pairs of integers each representing a pair of
-	 *            linked nodes</li>
+	 *            linked nodes. If the map starts with the word "weighted"
+	 *            before l, every pair is followed by the weight of its link,
+	 *            a positive integer. The agents then take the way with the
+	 *            least sum of weights.</li>
 	 *            <li>gateways - e integers representing the gateway nodes</li>
 	 *            <li>agent position - last integer representing the node where
 	 *            the agent is initially positioned</li>
 	 *            </ul>
+	 *            If the filename ends with .skn the map is expected in the
+	 *            binary format written by {@link SubnetMapConverter}.
 	 * @return an object that implements the SubnetnetBackdoor interface
 	 */
 	public static SubnetBackdoor createSubnet(String pathToSubnetMap) {
-		return new SkynetSubnet(pathToSubnetMap);
+		return createSubnet(pathToSubnetMap, Core.NODES);
+	}
+
+	/**
+	 * Like {@link #createSubnet(String)} but the subnet is built on the given
+	 * graph core. The agent moves like on {@link Core#NODES}, except for the
+	 * rare nodes described at {@link Core}.
+	 * <p>
+	 * The map is only read for the first subnet, see
+	 * {@link #setTemplateCacheSize(int)}.
+	 * 
+	 * @param pathToSubnetMap
+	 *            the filename of the stolen map on the class path
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @return an object that implements the SubnetnetBackdoor interface
+	 */
+	public static SubnetBackdoor createSubnet(String pathToSubnetMap, Core core) {
+		return templates.newGame(templateKey(pathToSubnetMap, core),
+				() -> new SkynetSubnet(readSubnetMap(pathToSubnetMap), core, null));
+	}
+
+	/**
+	 * Identifies a map on the class path for the template cache. A map in a
+	 * directory may be changed while the program runs, so it is identified
+	 * like a binary file, see {@link #fileKey(Path)}.
+	 * 
+	 * @param pathToSubnetMap
+	 *            the position of the map on the class path
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @return the key of the template or null if the map must not be cached
+	 */
+	private static String templateKey(String pathToSubnetMap, Core core) {
+		URL url = SkynetSubnet.class.getResource(pathToSubnetMap);
+		if (url == null) {
+			throw new RuntimeException("Subnet map " + pathToSubnetMap + " not found on the class path.");
+		}
+		if ("file".equals(url.getProtocol())) {
+			try {
+				String fileKey = fileKey(Paths.get(url.toURI()));
+				return fileKey == null ? null : fileKey + ":" + core;
+			} catch (URISyntaxException e) {
+				// the url cannot be a file, so it cannot change either
+			} catch (IOException e) {
+				throw new RuntimeException("Subnet map " + pathToSubnetMap + " cannot be read.", e);
+			}
+		}
+		return url + ":" + core;
+	}
+
+	/**
+	 * Identifies the current content of a map file for the template cache by
+	 * the file, its size and the full time of its last change. A file which
+	 * has been changed within the last tick of the time stamps may be changed
+	 * again without getting another time, so it is not cached.
+	 * 
+	 * @param file
+	 *            the map in the file system
+	 * @return the key of the file or null if it must not be cached
+	 * @throws IOException
+	 *             if the attributes of the file cannot be read
+	 */
+	private static String fileKey(Path file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		FileTime lastModified = attributes.lastModifiedTime();
+		if (System.currentTimeMillis() - lastModified.toMillis() < TIMESTAMP_TICK) {
+			return null;
+		}
+		// the file key, e.g. the inode, changes if the file is replaced
+		return "file:" + file.toAbsolutePath() + ":" + attributes.fileKey() + ":" + lastModified + ":"
+				+ attributes.size();
+	}
+
+	/**
+	 * Like {@link #createSubnet(String, Core)} but several agents move through
+	 * the subnet at once. The agent position of the map is replaced by the
+	 * given positions. After each disconnected link all agents move on. The
+	 * agents are placed on a fork of the cached template of the map, unless
+	 * one of them is on a node which is not in the map.
+	 * 
+	 * @param pathToSubnetMap
+	 *            the filename of the stolen map on the class path
+	 * @param agentPositions
+	 *            the nodes where the agents are initially positioned, several
+	 *            agents may start on the same node
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @return an object that implements the SubnetnetBackdoor interface
+	 */
+	public static SubnetBackdoor createSubnet(String pathToSubnetMap, int[] agentPositions, Core core) {
+		SkynetSubnet game = templates.newGame(templateKey(pathToSubnetMap, core), agentPositions,
+				() -> new SkynetSubnet(readSubnetMap(pathToSubnetMap), core, null));
+		if (game == null) {
+			// an agent is on a node which is not in the map
+			game = new SkynetSubnet(readSubnetMap(pathToSubnetMap).withAgents(agentPositions), core);
+		}
+		return game;
+	}
+
+	/**
+	 * Creates a back door to a subnet whose map is stored in a file in the
+	 * binary format written by {@link SubnetMapConverter}. The file is mapped
+	 * into memory, so even huge maps are loaded without reading them through
+	 * a stream.
+	 * <p>
+	 * The map is only read again when the file has changed, see
+	 * {@link #setTemplateCacheSize(int)}. A file changed within the last two
+	 * seconds is always read again.
+	 * 
+	 * @param pathToBinaryMap
+	 *            the file in the file system (not on the class path)
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @return an object that implements the SubnetnetBackdoor interface
+	 */
+	public static SubnetBackdoor createSubnetFromBinaryFile(Path pathToBinaryMap, Core core) {
+		String key;
+		try {
+			key = fileKey(pathToBinaryMap);
+		} catch (IOException e) {
+			throw new RuntimeException("Subnet map " + pathToBinaryMap + " cannot be read.", e);
+		}
+		if (key != null) {
+			key += ":" + core;
+		}
+		return templates.newGame(key, () -> {
+			try {
+				return new SkynetSubnet(SubnetMap.mapBinary(pathToBinaryMap), core, null);
+			} catch (IOException e) {
+				throw new RuntimeException("Subnet map " + pathToBinaryMap + " cannot be read.", e);
+			}
+		});
+	}
+
+	/**
+	 * Creates a back door to a huge subnet whose map is stored in a file in
+	 * the partitioned format written by {@link SubnetMapConverter}. The map is
+	 * not loaded at once: a partition of 4096 nodes is read when the search
+	 * for the ways of the agents reaches it, so the memory and the time to
+	 * load the subnet follow the part of the map between the agents and the
+	 * nearest gateways. The subnet is built on a core like {@link Core#CSR}.
+	 * <p>
+	 * The first call of a method which returns the links of the subnet reads
+	 * the whole map, so do not call them on a subnet which does not fit into
+	 * the heap.
+	 * 
+	 * @param pathToPartitionedMap
+	 *            the file in the file system (not on the class path). It must
+	 *            not be changed while the subnet or a fork of it is used.
+	 * @return an object that implements the SubnetnetBackdoor interface
+	 */
+	public static SubnetBackdoor createSubnetFromPartitionedFile(Path pathToPartitionedMap) {
+		try {
+			return new SkynetSubnet(new PartitionedSubnetGraph(pathToPartitionedMap));
+		} catch (IOException e) {
+			throw new RuntimeException("Subnet map " + pathToPartitionedMap + " cannot be read.", e);
+		}
+	}
+
+	/**
+	 * Creates a back door to a subnet whose map has already been read.
+	 * 
+	 * @param map
+	 *            the map of the subnet
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @return an object that implements the SubnetnetBackdoor interface
+	 */
+	static SubnetBackdoor createSubnet(SubnetMap map, Core core) {
+		return new SkynetSubnet(map, core);
+	}
+
+	/**
+	 * Creates a back door to a subnet in which some links of the map have
+	 * already been severed, e.g. to replay a game from the middle.
+	 * 
+	 * @param map
+	 *            the whole map of the subnet
+	 * @param severedLinks
+	 *            the severed links, two node ids per link
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @return an object that implements the SubnetnetBackdoor interface
+	 */
+	static SubnetBackdoor createSubnet(SubnetMap map, int[] severedLinks, Core core) {
+		return new SkynetSubnet(map, severedLinks, core);
 	}
 
 	/**
@@ -89,7 +365,73 @@ public class SkynetSubnet implements SubnetBackdoor {
 	 * @return an object implementing the SubnetBackdor interface
 	 */
 	public static SubnetBackdoor createRandomSubnet(int numberOfNodes) {
-		return new SkynetSubnet(numberOfNodes);
+		return new SkynetSubnet(numberOfNodes, Core.NODES);
+	}
+
+	/**
+	 * Like {@link #createRandomSubnet(int)} but the subnet is built on the
+	 * given graph core. The agent moves like on {@link Core#NODES}, except
+	 * for the rare nodes described at {@link Core}.
+	 * 
+	 * @param numberOfNodes the number of the nodes in the network &gt; 4
+	 * @param core the graph core to build the subnet on
+	 * @return an object implementing the SubnetBackdor interface
+	 */
+	public static SubnetBackdoor createRandomSubnet(int numberOfNodes, Core core) {
+		return new SkynetSubnet(numberOfNodes, core);
+	}
+
+	/**
+	 * Creates a reproducible random network which can be large enough for
+	 * load tests. Like in {@link #createRandomSubnet(int)} between 1 and
+	 * numberOfNodes/2 nodes are gateways and a none gateway node is connected
+	 * at most to one gateway node. The none gateway nodes are connected with
+	 * each other by a random tree plus random links until they reach the
+	 * average degree. The costs grow linearly with the number of links.
+	 * 
+	 * @param numberOfNodes the number of the nodes in the network &gt; 4
+	 * @param averageDegree the average number of links from a none gateway node
+	 *            to other none gateway nodes, at least 2 because of the tree
+	 * @param seed the seed of the random generator, the same seed creates the
+	 *            same network
+	 * @return an object implementing the SubnetBackdor interface
+	 */
+	public static SubnetBackdoor createRandomSubnet(int numberOfNodes, double averageDegree, long seed) {
+		return createRandomSubnet(numberOfNodes, averageDegree, seed, Core.NODES);
+	}
+
+	/**
+	 * Like {@link #createRandomSubnet(int, double, long)} but the subnet is
+	 * built on the given graph core.
+	 * 
+	 * @param numberOfNodes the number of the nodes in the network &gt; 4
+	 * @param averageDegree the average number of links from a none gateway node
+	 *            to other none gateway nodes, at least 2 because of the tree
+	 * @param seed the seed of the random generator
+	 * @param core the graph core to build the subnet on
+	 * @return an object implementing the SubnetBackdor interface
+	 */
+	public static SubnetBackdoor createRandomSubnet(int numberOfNodes, double averageDegree, long seed, Core core) {
+		return new SkynetSubnet(RandomSubnetGenerator.generate(numberOfNodes, averageDegree, seed), core);
+	}
+
+	/**
+	 * Like {@link #createRandomSubnet(int, double, long, Core)} but several
+	 * agents start on random none gateway nodes. The first agent starts where
+	 * the only agent of the subnet with the same seed starts.
+	 * 
+	 * @param numberOfNodes the number of the nodes in the network &gt; 4
+	 * @param averageDegree the average number of links from a none gateway node
+	 *            to other none gateway nodes, at least 2 because of the tree
+	 * @param seed the seed of the random generator
+	 * @param numberOfAgents the number of agents &gt; 0
+	 * @param core the graph core to build the subnet on
+	 * @return an object implementing the SubnetBackdor interface
+	 */
+	public static SubnetBackdoor createRandomSubnet(int numberOfNodes, double averageDegree, long seed,
+			int numberOfAgents, Core core) {
+		return new SkynetSubnet(RandomSubnetGenerator.generate(numberOfNodes, averageDegree, seed, numberOfAgents),
+				core);
 	}
 
 	/**
@@ -112,32 +454,127 @@ public class SkynetSubnet implements SubnetBackdoor {
 	 *         ID is not 1, 2 or 3 a default subnet is returned.
 	 */
 	public static SubnetBackdoor createBackdoorToExistingSubnet(int subnetId) {
-		if (subnetId == ALPHA) {
-			return new SkynetSubnet(ALPHA);
-		}
-		if (subnetId == BETA) {
-			return new SkynetSubnet(BETA);
-		}
-		if (subnetId == GAMMA) {
-			return new SkynetSubnet(GAMMA);
-		}
-		return new SkynetSubnet(DEFAULT);
+		return createBackdoorToExistingSubnet(subnetId, Core.NODES);
 	}
 
 	/**
-	 * Initializes the Skynet subnet with a stolen map of the network
+	 * Like {@link #createBackdoorToExistingSubnet(int)} but the subnet is
+	 * built on the given graph core.
 	 * 
-	 * @param pathToSubnetMap
-	 *            the position of the stolen map on the class path (see:
-	 *            {@link #createSubnetBackdoor(String pathToSubnetMap})
+	 * @param subnetId
+	 *            integer id of an subnet
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @return an object that implements the SubnetnetBackdoor interface. If the
+	 *         ID is not 1, 2 or 3 a default subnet is returned.
+	 */
+	public static SubnetBackdoor createBackdoorToExistingSubnet(int subnetId, Core core) {
+		return createSubnet(getPathToSubnetMap(subnetId), core);
+	}
+
+	/**
+	 * Sets the maximum number of maps which are kept in memory. The first
+	 * subnet created from a map on the class path or from a binary file reads
+	 * the map into a template, on which no turn is ever played. Every further
+	 * subnet on the same map and graph core is a fork of the template. With
+	 * {@link Core#CSR} and {@link Core#OFF_HEAP} such a subnet only gets its
+	 * own severed links, steps and agent positions, which costs O(n/4096)
+	 * instead of O(map). With {@link Core#NODES} the nodes are still built
+	 * for every subnet, but the map is not read again. The map which was not
+	 * used for the longest time is dropped when there are too many. The
+	 * default is 16 maps.
+	 * 
+	 * @param maxTemplates
+	 *            the maximum number of maps, 0 to read every map again
 	 */
-	private SkynetSubnet(String pathToSubnetMap) {
-		InputStream subnetMapInput = getClass().getResourceAsStream(pathToSubnetMap);
-		Scanner in = new Scanner(subnetMapInput);
+	public static void setTemplateCacheSize(int maxTemplates) {
+		templates.setCapacity(maxTemplates);
+	}
 
-		this.initializeSubnetFromFile(in);
+	/**
+	 * Initializes the Skynet subnet with a map which has already been read.
+	 * 
+	 * @param map
+	 *            the map of the subnet
+	 * @param core
+	 *            the graph core to build the subnet on
+	 */
+	private SkynetSubnet(SubnetMap map, Core core) {
+		this.core = core;
+		this.initializeSubnet(map);
+	}
 
-		in.close();
+	/**
+	 * Initializes the Skynet subnet with a map in which some links have
+	 * already been severed.
+	 * 
+	 * @param map
+	 *            the whole map of the subnet
+	 * @param severedLinks
+	 *            the severed links, two node ids per link
+	 * @param core
+	 *            the graph core to build the subnet on
+	 */
+	private SkynetSubnet(SubnetMap map, int[] severedLinks, Core core) {
+		this.core = core;
+		this.initializeSubnet(map, severedLinks);
+	}
+
+	/**
+	 * Initializes a template for new games with a map which has already been
+	 * read, see {@link SubnetTemplates}.
+	 * 
+	 * @param map
+	 *            the map of the subnet
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @param listeners
+	 *            the listeners which are notified that the subnet has been
+	 *            loaded, null for none
+	 */
+	private SkynetSubnet(SubnetMap map, Core core, SubnetListener[] listeners) {
+		this.core = core;
+		this.listeners = listeners;
+		this.initializeSubnet(map);
+	}
+
+	/**
+	 * Initializes the Skynet subnet with a partitioned map, only the
+	 * partitions which the searches reach are read.
+	 * 
+	 * @param graph
+	 *            the opened partitioned map
+	 */
+	private SkynetSubnet(PartitionedSubnetGraph graph) {
+		this.core = Core.CSR;
+		long start = this.listeners == null ? 0 : System.nanoTime();
+		// the list of links is only created when it is asked for
+		this.graph = graph;
+		this.initializeSubnet(graph.getGatewayIds(), graph.getAgentIds(), start);
+	}
+
+	/**
+	 * Creates a fork of a subnet.
+	 * 
+	 * @param parent
+	 *            the subnet to fork
+	 */
+	private SkynetSubnet(SkynetSubnet parent) {
+		this.core = parent.core;
+		this.links = parent.links == null ? null : parent.links.fork();
+		this.graph = parent.graph.fork();
+		this.gatewayNodes = parent.gatewayNodes;
+		this.agentNodes = parent.agentNodes.clone();
+		this.nextAgentNodes = new int[this.agentNodes.length];
+		this.neighbourBuffer = new int[this.graph.maxDegree()];
+		this.weightBuffer = new int[this.graph.maxDegree()];
+		this.distances = parent.distances.fork(this.graph);
+		this.agentMoving = parent.agentMoving;
+		this.agentOnAGateway = parent.agentOnAGateway;
+		this.agentsMoving = parent.agentsMoving.clone();
+		this.agentsOnAGateway = parent.agentsOnAGateway.clone();
+		// the turns tried out on a fork are not reported
+		this.listeners = null;
 	}
 
 	/**
@@ -147,17 +584,15 @@ public class SkynetSubnet implements SubnetBackdoor {
 	 *            id of the predefined network may be 1, 2, 3 or 4 all other
 	 *            integers cause the network to be initialized with a random
 	 *            network.
+	 * @param core
+	 *            the graph core to build the subnet on
 	 */
-	private SkynetSubnet(int selector) {
+	private SkynetSubnet(int selector, Core core) {
+		this.core = core;
 
 		if (selector < 5 && selector > 0) {
 			String pathToSubnetMap = getPathToSubnetMap(selector);
-			InputStream subnetMapInput = getClass().getResourceAsStream(pathToSubnetMap);
-			Scanner in = new Scanner(subnetMapInput);
-
-			this.initializeSubnetFromFile(in);
-
-			in.close();
+			this.initializeSubnetFromFile(pathToSubnetMap);
 		} else if (selector > 4) {
 			this.initializeRandomSubnet(selector);
 		} else {
@@ -171,7 +606,7 @@ public class SkynetSubnet implements SubnetBackdoor {
 	 * @param subnetID the id of the subnet.
 	 * @return the path to the subnet as a string
 	 */
-	private String getPathToSubnetMap(int subnetID) {
+	private static String getPathToSubnetMap(int subnetID) {
 		String pathToSubnetMap = "";
 		switch (subnetID) {
 		case ALPHA:
@@ -196,66 +631,141 @@ public class SkynetSubnet implements SubnetBackdoor {
 	/**
 	 * Initializes a Skynet subnet from a file.
 	 * 
-	 * @param map
-	 *            is the scanner to a file where the initialization is stored.
-	 *            (see {@link #createSubnetBackdoor(String pathToSubnetMap} for
-	 *            the file format)
+	 * @param pathToSubnetMap
+	 *            the position of the file on the class path where the
+	 *            initialization is stored. (see
+	 *            {@link #createSubnetBackdoor(String pathToSubnetMap} for the
+	 *            file format)
 	 */
-	private void initializeSubnetFromFile(Scanner map) {
-		int l = map.nextInt(); // the number of links
-		int e = map.nextInt(); // the number of exit gateways
+	private void initializeSubnetFromFile(String pathToSubnetMap) {
+		this.initializeSubnet(readSubnetMap(pathToSubnetMap));
+	}
 
-		// initialize nodes and links between nodes (stored in the nodes)
-		int[][] links = new int[l][2];
-		for (int i = 0; i < l; i++) {
-			int nodeIdA = map.nextInt();
-			int nodeIdB = map.nextInt();
-			links[i] = new int[] { nodeIdA, nodeIdB };
+	/**
+	 * Reads a map from the class path.
+	 * 
+	 * @param pathToSubnetMap
+	 *            the position of the map on the class path
+	 * @return the map
+	 */
+	private static SubnetMap readSubnetMap(String pathToSubnetMap) {
+		SubnetMap map;
+		try (InputStream subnetMapInput = SkynetSubnet.class.getResourceAsStream(pathToSubnetMap)) {
+			if (subnetMapInput == null) {
+				throw new RuntimeException("Subnet map " + pathToSubnetMap + " not found on the class path.");
+			}
+			if (pathToSubnetMap.endsWith(".skn")) {
+				map = SubnetMap.readBinary(subnetMapInput);
+			} else {
+				map = SubnetMap.readText(subnetMapInput);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Subnet map " + pathToSubnetMap + " cannot be read.", e);
 		}
+		return map;
+	}
 
-		this.gatewayNodes = new ArrayList<Node>();
-		int[] gateways = new int[e];
-		for (int i = 0; i < e; i++) {
-			int gatewayId = map.nextInt();
-			gateways[i] = gatewayId;
-		}
+	/**
+	 * initializes the fields of subnet
+	 * 
+	 * @param map
+	 *            the map of the subnet with the links, the gateways and the
+	 *            positions of the agent nodes
+	 */
+	private void initializeSubnet(SubnetMap map) {
+		this.initializeSubnet(map, new int[0]);
+	}
 
-		int agentPosition = map.nextInt();
+	/**
+	 * initializes the fields of subnet and severs some links before the
+	 * steps to the gateways are searched
+	 * 
+	 * @param map
+	 *            the map of the subnet with the links, the gateways and the
+	 *            positions of the agent nodes
+	 * @param severedLinks
+	 *            the severed links, two node ids per link
+	 */
+	private void initializeSubnet(SubnetMap map, int[] severedLinks) {
+		long start = this.listeners == null ? 0 : System.nanoTime();
 
-		this.initializeSubnet(links, gateways, agentPosition);
+		// initialize nodes an links between nodes
+		boolean offHeap = this.core == Core.OFF_HEAP;
+		this.links = new LinkStore(map, offHeap);
+		if (this.core == Core.CSR) {
+			this.graph = new CsrSubnetGraph(map);
+		} else if (offHeap) {
+			this.graph = new OffHeapSubnetGraph(map);
+		} else {
+			this.graph = new NodeSubnetGraph(map);
+		}
+		for (int i = 0; i + 1 < severedLinks.length; i += 2) {
+			if (this.links.remove(severedLinks[i], severedLinks[i + 1])) {
+				this.graph.removeLink(this.graph.indexOf(severedLinks[i]), this.graph.indexOf(severedLinks[i + 1]));
+			}
+		}
+		this.initializeSubnet(map.gateways, map.agentPositions, start);
 	}
 
 	/**
-	 * initializes the fields of subnet
+	 * initializes the gateways, the agents and their steps to the gateways in
+	 * the graph of the subnet
 	 * 
-	 * @param links
-	 *            nx2 matrix of n links
 	 * @param gateways
-	 *            array of gateways
-	 * @param agentPosition
-	 *            position of the agentnode
+	 *            ids of the gateway nodes
+	 * @param agentPositions
+	 *            ids of the agent nodes
+	 * @param start
+	 *            the time when loading the subnet has started
 	 */
-	private void initializeSubnet(int[][] links, int[] gateways, int agentPosition) {
-		this.linksAsIntegers = links;
-
-		// initialize nodes an links between nodes
-		this.nodes = new HashMap<Integer, Node>();
-		for (int i = 0; i < links.length; i++) {
-			this.addLink(links[i][0], links[i][1]);
+	private void initializeSubnet(int[] gateways, int[] agentPositions, long start) {
+		if ((long) this.graph.maxWeight() * this.graph.size() >= Integer.MAX_VALUE) {
+			throw new RuntimeException("Links with weights up to " + this.graph.maxWeight()
+					+ " are too heavy for a subnet with " + this.graph.size() + " nodes.");
 		}
+		this.neighbourBuffer = new int[this.graph.maxDegree()];
+		this.weightBuffer = new int[this.graph.maxDegree()];
 
 		// initialize gateway nodes
-		this.gatewayNodes = new ArrayList<Node>();
+		this.gatewayNodes = new int[gateways.length];
 		for (int i = 0; i < gateways.length; i++) {
-			this.addGateway(gateways[i]);
+			this.addGateway(i, gateways[i]);
 		}
 
-		this.setAgentNode(agentPosition);
+		this.agentNodes = new int[agentPositions.length];
+		for (int i = 0; i < agentPositions.length; i++) {
+			this.setAgentNode(i, this.graph.indexOf(agentPositions[i]));
+		}
+		this.nextAgentNodes = new int[agentPositions.length];
+		this.agentsMoving = new boolean[agentPositions.length];
+		this.agentsOnAGateway = new boolean[agentPositions.length];
+		this.distances = new GatewayDistances(this.graph, this.gatewayNodes, this.core == Core.OFF_HEAP);
 
 		// initialize the shortest ways to the gateway
 		this.recalculateAndSetStepsToNextGateway();
 
 		this.calculateStatus();
+
+		this.fireSubnetLoaded(start, this.distances.getTouchedNodes());
+	}
+
+	/**
+	 * Notifies the listeners that the subnet has been loaded.
+	 * 
+	 * @param start
+	 *            the time when loading the subnet has started
+	 * @param touchedNodes
+	 *            the number of nodes the search for the initial steps touched
+	 */
+	private void fireSubnetLoaded(long start, long touchedNodes) {
+		if (this.listeners != null) {
+			SubnetEvent event = this.prepareEvent();
+			event.nanos = System.nanoTime() - start;
+			event.touchedNodes = touchedNodes;
+			for (SubnetListener listener : this.listeners) {
+				listener.subnetLoaded(event);
+			}
+		}
 	}
 
 	/**
@@ -345,21 +855,19 @@ public class SkynetSubnet implements SubnetBackdoor {
 			numberOfLinks += links.size();
 		}
 
-		int[][] links = new int[numberOfLinks][2];
+		int[] links = new int[2 * numberOfLinks];
 		int index = 0;
 		for (Integer id : nodes) {
 			if (nodesLinkedToNodes.containsKey(id)) {
 				for (Integer nodeId : nodesLinkedToNodes.get(id)) {
-					links[index][0] = id;
-					links[index][1] = nodeId;
-					index++;
+					links[index++] = id;
+					links[index++] = nodeId;
 				}
 			}
 			if (nodesLinkedToGateways.containsKey(id)) {
 				for (Integer nodeId : nodesLinkedToGateways.get(id)) {
-					links[index][0] = id;
-					links[index][1] = nodeId;
-					index++;
+					links[index++] = id;
+					links[index++] = nodeId;
 				}
 			}
 		}
@@ -371,95 +879,500 @@ public class SkynetSubnet implements SubnetBackdoor {
 			index++;
 		}
 
-		initializeSubnet(links, gateways, agentNode.intValue());
+		initializeSubnet(new SubnetMap(IntBuffer.wrap(links), numberOfLinks, gateways, agentNode.intValue()));
+	}
+
+	/**
+	 * @return the list of links, which is created from the whole map of a
+	 *         partitioned subnet when it is needed for the first time
+	 */
+	private LinkStore links() {
+		if (this.links == null) {
+			PartitionedSubnetGraph graph = (PartitionedSubnetGraph) this.graph;
+			LinkStore links = new LinkStore(graph.toMap());
+			graph.forEachSeveredLink(links::remove);
+			this.links = links;
+		}
+		return this.links;
 	}
 
 	@Override
 	public int[][] getNodeLinks() {
-		return this.linksAsIntegers.clone();
+		return this.links().toArray().clone();
+	}
+
+	@Override
+	public IntBuffer getNodeLinksBuffer() {
+		return this.links().asBuffer();
+	}
+
+	@Override
+	public int copyLinksInto(int[] dst) {
+		return this.links().copyInto(dst);
+	}
+
+	@Override
+	public void forEachLink(IntBiConsumer action) {
+		this.links().forEach(action);
 	}
 
 	@Override
 	public boolean disconnectNodesBeforeAgentMovesOn(int a, int b) {
+		long start = 0;
+		long touchedNodes = 0;
+		if (this.listeners != null) {
+			start = System.nanoTime();
+			touchedNodes = this.distances.getTouchedNodes();
+			this.prepareEvent();
+		}
 		boolean success = false;
-		Node nodeA = this.nodes.get(new Integer(a));
-		Node nodeB = this.nodes.get(new Integer(b));
-		if (nodeA != null && nodeB != null) {
-			nodeA.removeNeighbour(nodeB);
-			nodeB.removeNeighbour(nodeA);
-			this.removeFromLinksAsIntegers(a, b);
+		int nodeA = this.graph.indexOf(a);
+		int nodeB = this.graph.indexOf(b);
+		int turn = this.turnJournalSize;
+		if (this.turnJournal != null) {
+			this.recordTurn();
+		}
+
+		// the agents choose their ways on the steps known before the link is
+		// severed, but they cannot use the severed link anymore.
+		this.chooseNextAgentNodes(nodeA, nodeB);
+
+		if (nodeA >= 0 && nodeB >= 0) {
+			if (this.links == null ? this.graph.removeLink(nodeA, nodeB) : this.links.remove(a, b)) {
+				if (this.links != null) {
+					this.graph.removeLink(nodeA, nodeB);
+				}
+				this.distances.repairAfterSever(nodeA, nodeB);
+				if (this.minimumCut != null) {
+					this.minimumCut.removeLink(nodeA, nodeB);
+				}
+				if (this.turnJournal != null) {
+					this.turnJournal[turn + 1] = nodeA;
+					this.turnJournal[turn + 2] = nodeB;
+				}
+			}
 			success = true;
 		}
 
-		// Anyway the agent moves one step forward to the next gateway.
-		this.letTheAgentMoveOn();
+		// Anyway all agents move one step forward to the next gateway.
+		for (int i = 0; i < this.agentNodes.length; i++) {
+			this.letTheAgentMoveOn(i, this.nextAgentNodes[i]);
+		}
 
-		this.recalculateAndSetStepsToNextGateway();
+		for (int agentNode : this.agentNodes) {
+			this.distances.searchUntilReached(agentNode);
+		}
 		this.calculateStatus();
 
+		if (this.listeners != null) {
+			this.fireTurnEvents(a, b, success, System.nanoTime() - start,
+					this.distances.getTouchedNodes() - touchedNodes);
+		}
 		return success;
 	}
 
+	/**
+	 * Adds a listener to all subnets created from now on. Their listeners are
+	 * also notified when the subnet has been loaded. Forks of a subnet have no
+	 * listeners.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public static synchronized void addDefaultListener(SubnetListener listener) {
+		SubnetListener[] listeners = Arrays.copyOf(defaultListeners, defaultListeners.length + 1);
+		listeners[listeners.length - 1] = listener;
+		defaultListeners = listeners;
+	}
+
+	/**
+	 * Stops adding a listener to new subnets. The subnets created so far keep
+	 * it.
+	 * 
+	 * @param listener
+	 *            a listener added by {@link #addDefaultListener(SubnetListener)}
+	 */
+	public static synchronized void removeDefaultListener(SubnetListener listener) {
+		defaultListeners = remove(defaultListeners, listener);
+	}
+
 	@Override
-	public int getAgentPosition() {
-		return this.agentNode.getId();
+	public void addSubnetListener(SubnetListener listener) {
+		SubnetListener[] listeners = this.listeners == null ? new SubnetListener[1]
+				: Arrays.copyOf(this.listeners, this.listeners.length + 1);
+		listeners[listeners.length - 1] = listener;
+		this.listeners = listeners;
 	}
 
 	@Override
-	public boolean isAgentStillMoving() {
-		return agentMoving;
+	public void removeSubnetListener(SubnetListener listener) {
+		if (this.listeners != null) {
+			SubnetListener[] listeners = remove(this.listeners, listener);
+			this.listeners = listeners.length == 0 ? null : listeners;
+		}
+	}
+
+	private static SubnetListener[] remove(SubnetListener[] listeners, SubnetListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				SubnetListener[] rest = Arrays.copyOf(listeners, listeners.length - 1);
+				System.arraycopy(listeners, i + 1, rest, i, rest.length - i);
+				return rest;
+			}
+		}
+		return listeners;
+	}
+
+	/**
+	 * Remembers the state before a turn for the events after it.
+	 * 
+	 * @return the event of this subnet
+	 */
+	private SubnetEvent prepareEvent() {
+		if (this.event == null) {
+			this.event = new SubnetEvent(this);
+			this.previousAgentNodes = new int[this.agentNodes.length];
+		}
+		System.arraycopy(this.agentNodes, 0, this.previousAgentNodes, 0, this.agentNodes.length);
+		this.event.agentStillMoving = this.agentMoving;
+		this.event.agentOnAGateway = this.agentOnAGateway;
+		return this.event;
+	}
+
+	/**
+	 * Notifies the listeners about the moves of the agents, a change of the
+	 * status and the turn itself.
+	 */
+	private void fireTurnEvents(int a, int b, boolean success, long nanos, long touchedNodes) {
+		SubnetListener[] listeners = this.listeners;
+		SubnetEvent event = this.event;
+		boolean statusChanged = event.agentStillMoving != this.agentMoving
+				|| event.agentOnAGateway != this.agentOnAGateway;
+		event.nanos = nanos;
+		event.touchedNodes = touchedNodes;
+		event.nodeA = a;
+		event.nodeB = b;
+		event.disconnected = success;
+		event.agentStillMoving = this.agentMoving;
+		event.agentOnAGateway = this.agentOnAGateway;
+		for (int i = 0; i < this.agentNodes.length; i++) {
+			if (this.agentNodes[i] != this.previousAgentNodes[i]) {
+				event.agent = i;
+				event.from = this.graph.idOf(this.previousAgentNodes[i]);
+				event.to = this.graph.idOf(this.agentNodes[i]);
+				for (SubnetListener listener : listeners) {
+					listener.agentMoved(event);
+				}
+			}
+		}
+		if (statusChanged) {
+			for (SubnetListener listener : listeners) {
+				listener.statusChanged(event);
+			}
+		}
+		for (SubnetListener listener : listeners) {
+			listener.linkSevered(event);
+		}
 	}
 
 	@Override
-	public boolean isAgentOnAGateway() {
-		return agentOnAGateway;
+	public TurnResults playTurns(int[] a, int[] b) {
+		if (a.length != b.length) {
+			throw new RuntimeException("There are " + a.length + " first nodes but " + b.length + " second nodes.");
+		}
+		if (this.turnResults == null) {
+			this.turnResults = new TurnResults(a.length, this.agentNodes.length);
+		}
+		this.turnResults.clear(a.length);
+		for (int i = 0; i < a.length && this.agentMoving; i++) {
+			boolean success = this.disconnectNodesBeforeAgentMovesOn(a[i], b[i]);
+			this.turnResults.add(success);
+			for (int agent = 0; agent < this.agentNodes.length; agent++) {
+				this.turnResults.setAgentPosition(agent, this.graph.idOf(this.agentNodes[agent]));
+			}
+		}
+		return this.turnResults;
+	}
+
+	@Override
+	public int[][] getMinimumCut() {
+		if (this.minimumCut == null) {
+			this.minimumCut = new MinimumCut(this.graph, this.gatewayNodes);
+		}
+		int[] arcs = this.minimumCut.calculate(this.agentNodes);
+		if (arcs == null) {
+			return null;
+		}
+		int[][] cut = new int[arcs.length][];
+		for (int i = 0; i < arcs.length; i++) {
+			cut[i] = new int[] { this.graph.idOf(this.minimumCut.tail(arcs[i])),
+					this.graph.idOf(this.minimumCut.head(arcs[i])) };
+		}
+		return cut;
+	}
+
+	@Override
+	public SubnetBackdoor fork() {
+		return new SkynetSubnet(this);
 	}
 
 	/**
-	 * To keep the redundant list of links as integers in synch with the
-	 * representation of the network, a link must also be removed from this
-	 * list, too.
+	 * Creates a new game from a template. Unlike a fork, it gets the default
+	 * listeners, which are notified that the subnet has been loaded.
 	 * 
-	 * @param a
-	 *            starting node of the link to be severed
-	 * @param b
-	 *            end node of the link to be be severed
+	 * @return the new game
 	 */
-	private void removeFromLinksAsIntegers(int a, int b) {
-		int[][] newLinksAsIntegers = new int[this.linksAsIntegers.length - 1][2];
-		int index = 0;
-		try {
-			for (int[] link : this.linksAsIntegers) {
-				if (!(link[0] == a && link[1] == b) && !(link[0] == b && link[1] == a)) {
-					newLinksAsIntegers[index] = link;
-					index += 1;
+	SkynetSubnet newGame() {
+		return this.newGame(null);
+	}
+
+	/**
+	 * Creates a new game from a template with other agents than the map. The
+	 * search for the steps to the gateways goes on from where the template
+	 * has stopped until it reaches all agents.
+	 * 
+	 * @param agentPositions
+	 *            ids of the initial nodes of the agents, null for the agents
+	 *            of the map
+	 * @return the new game or null if an agent is on a node which is not in
+	 *         the map
+	 */
+	SkynetSubnet newGame(int[] agentPositions) {
+		int[] agentNodes = null;
+		if (agentPositions != null) {
+			if (agentPositions.length == 0) {
+				return null;
+			}
+			agentNodes = new int[agentPositions.length];
+			for (int i = 0; i < agentPositions.length; i++) {
+				agentNodes[i] = this.graph.indexOf(agentPositions[i]);
+				if (agentNodes[i] < 0) {
+					return null;
 				}
 			}
-			this.linksAsIntegers = newLinksAsIntegers;
-		} catch (ArrayIndexOutOfBoundsException e) {
-			// this may happen if there is no link between a and b
 		}
+		SubnetListener[] listeners = defaultListeners;
+		long start = listeners.length == 0 ? 0 : System.nanoTime();
+		SkynetSubnet game = new SkynetSubnet(this);
+		if (agentNodes != null) {
+			game.agentNodes = agentNodes;
+			game.nextAgentNodes = new int[agentNodes.length];
+			game.agentsMoving = new boolean[agentNodes.length];
+			game.agentsOnAGateway = new boolean[agentNodes.length];
+			for (int agentNode : agentNodes) {
+				game.distances.searchUntilReached(agentNode);
+			}
+			game.calculateStatus();
+		}
+		if (listeners.length > 0) {
+			game.listeners = listeners;
+			// the game starts with the steps the template has found, the
+			// fork only counts the search for the new agents
+			game.fireSubnetLoaded(start, this.distances.getTouchedNodes() + game.distances.getTouchedNodes());
+		}
+		return game;
 	}
 
-	private Node letTheAgentMoveOn() {
-		if (this.agentNode == null) {
-			throw new RuntimeException("Network not initialized correctly: Agent node is null!");
+	@Override
+	public int mark() {
+		if (this.turnJournal == null) {
+			this.turnJournal = new int[16 * this.turnSize()];
 		}
+		return this.turnJournalSize / this.turnSize();
+	}
 
-		Node newAgentNode = this.findNextNodeToTheNearestGatewayFrom(this.agentNode);
+	@Override
+	public boolean undoLastTurn() {
+		if (this.turnJournalSize == 0) {
+			return false;
+		}
+		this.rollbackTo(this.turnJournalSize / this.turnSize() - 1);
+		return true;
+	}
 
-		if (newAgentNode != null) {
-			this.setAgentNode(newAgentNode);
+	@Override
+	public void rollbackTo(int mark) {
+		int turnSize = this.turnSize();
+		if (this.turnJournal == null || mark < 0 || (long) turnSize * mark > this.turnJournalSize) {
+			throw new RuntimeException("Unknown mark " + mark + ".");
+		}
+		while (this.turnJournalSize > turnSize * mark) {
+			this.turnJournalSize -= turnSize;
+			int[] turn = this.turnJournal;
+			int t = this.turnJournalSize;
+			if (turn[t + 1] >= 0) {
+				this.graph.restoreLink(turn[t + 1], turn[t + 2]);
+				if (this.links != null) {
+					this.links.restore(this.graph.idOf(turn[t + 1]), this.graph.idOf(turn[t + 2]));
+				}
+				if (this.minimumCut != null && !this.minimumCut.restoreLink(turn[t + 1], turn[t + 2])) {
+					// severed before the cut was created
+					this.minimumCut = null;
+				}
+			}
+			this.distances.rollbackTo(turn[t]);
+			System.arraycopy(turn, t + 3, this.agentNodes, 0, this.agentNodes.length);
 		}
+		// the status only depends on the agent nodes and their steps
+		this.calculateStatus();
+	}
 
-		return this.agentNode;
+	@Override
+	public void clearJournal() {
+		this.turnJournal = null;
+		this.turnJournalSize = 0;
+		this.distances.clearJournal();
+	}
+
+	/**
+	 * Records the state before a turn in the journal. The severed link is
+	 * added when it has been severed.
+	 */
+	private void recordTurn() {
+		int turnSize = this.turnSize();
+		if (this.turnJournalSize + turnSize > this.turnJournal.length) {
+			this.turnJournal = Arrays.copyOf(this.turnJournal, 2 * this.turnJournal.length);
+		}
+		int t = this.turnJournalSize;
+		this.turnJournal[t] = this.distances.mark();
+		this.turnJournal[t + 1] = -1;
+		this.turnJournal[t + 2] = -1;
+		System.arraycopy(this.agentNodes, 0, this.turnJournal, t + 3, this.agentNodes.length);
+		this.turnJournalSize += turnSize;
+	}
+
+	/**
+	 * @return the number of ints a turn takes in the journal
+	 */
+	private int turnSize() {
+		return 3 + this.agentNodes.length;
+	}
+
+	@Override
+	public int getAgentPosition() {
+		return this.graph.idOf(this.agentNodes[0]);
+	}
+
+	@Override
+	public int getAgentCount() {
+		return this.agentNodes.length;
+	}
+
+	@Override
+	public int[] getAgentPositions() {
+		int[] agentPositions = new int[this.agentNodes.length];
+		for (int i = 0; i < this.agentNodes.length; i++) {
+			agentPositions[i] = this.graph.idOf(this.agentNodes[i]);
+		}
+		return agentPositions;
+	}
+
+	@Override
+	public int getStepsToNearestGateway(int node) {
+		int index = this.graph.indexOf(node);
+		int steps = index < 0 ? Integer.MAX_VALUE : this.graph.getSteps(index);
+		return steps == Integer.MAX_VALUE ? -1 : steps;
+	}
+
+	@Override
+	public int getNextHop(int node) {
+		int index = this.graph.indexOf(node);
+		int nextHop = index < 0 ? -1 : this.distances.getNextHop(index);
+		return nextHop < 0 ? -1 : this.graph.idOf(nextHop);
+	}
+
+	@Override
+	public int getLinkWeight(int a, int b) {
+		int indexA = this.graph.indexOf(a);
+		int indexB = this.graph.indexOf(b);
+		if (indexA < 0 || indexB < 0) {
+			return -1;
+		}
+		int count = this.graph.neighbours(indexA, this.neighbourBuffer);
+		for (int i = 0; i < count; i++) {
+			if (this.neighbourBuffer[i] == indexB) {
+				return this.graph.weight(indexA, indexB);
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int[] predictAgentPath(int agent, int maxSteps) {
+		int node = this.agentNodes[this.checkAgent(agent)];
+		if (!this.agentsMoving[agent]) {
+			return new int[0];
+		}
+		int length = Math.min(maxSteps, this.graph.getSteps(node));
+		if (this.graph.maxWeight() > 1) {
+			// with weights a way has fewer nodes than steps
+			int hops = 0;
+			for (int next = node; hops < length && !this.graph.isGateway(next); hops++) {
+				next = this.distances.getNextHop(next);
+			}
+			length = hops;
+		}
+		int[] path = new int[Math.max(length, 0)];
+		for (int i = 0; i < path.length; i++) {
+			node = this.distances.getNextHop(node);
+			path[i] = this.graph.idOf(node);
+		}
+		return path;
+	}
+
+	@Override
+	public boolean isAgentStillMoving() {
+		return agentMoving;
+	}
+
+	@Override
+	public boolean isAgentOnAGateway() {
+		return agentOnAGateway;
+	}
+
+	@Override
+	public boolean isAgentStillMoving(int agent) {
+		return this.agentsMoving[this.checkAgent(agent)];
+	}
+
+	@Override
+	public boolean isAgentOnAGateway(int agent) {
+		return this.agentsOnAGateway[this.checkAgent(agent)];
+	}
+
+	private int checkAgent(int agent) {
+		if (agent < 0 || agent >= this.agentNodes.length) {
+			throw new RuntimeException("Unknown agent " + agent + ". There are " + this.agentNodes.length + " agents.");
+		}
+		return agent;
+	}
+
+	/**
+	 * Moves an agent to the node it has chosen.
+	 * 
+	 * @param agent
+	 *            the number of the agent
+	 * @param newAgentNode
+	 *            the next agent node or -1 if the agent cannot move
+	 * @return the agent node
+	 */
+	private int letTheAgentMoveOn(int agent, int newAgentNode) {
+		if (this.agentNodes[agent] < 0) {
+			throw new RuntimeException("Network not initialized correctly: Agent node is null!");
+		}
+
+		if (newAgentNode >= 0) {
+			this.setAgentNode(agent, newAgentNode);
+		}
+
+		return this.agentNodes[agent];
 	}
 
 	@Override
 	public int[] getGatewayNodes() {
-		int[] gatewayNodeIds = new int[this.gatewayNodes.size()];
-		for (int i = 0; i < this.gatewayNodes.size(); i++) {
-			gatewayNodeIds[i] = this.gatewayNodes.get(i).getId();
+		int[] gatewayNodeIds = new int[this.gatewayNodes.length];
+		for (int i = 0; i < this.gatewayNodes.length; i++) {
+			gatewayNodeIds[i] = this.graph.idOf(this.gatewayNodes[i]);
 		}
 		return gatewayNodeIds;
 	}
@@ -472,311 +1385,447 @@ public class SkynetSubnet implements SubnetBackdoor {
 	 * agent to reach a gateway node</li>
 	 * <li>isAgentHasNotYetReachedAGateway() == true means that the agent has
 	 * not not yet reached a gateway node</li>
+	 * </ul>
+	 * With several agents the game goes on while no agent has reached a
+	 * gateway and at least one of them can still reach one.
 	 */
 	private void calculateStatus() {
-		if (this.agentNode.getStepsToNextGateway() == Integer.MAX_VALUE) {
-			this.agentMoving = false;
-			this.agentOnAGateway = false;
-		} else if (this.agentNode.isGateway()) {
-			this.agentMoving = false;
-			this.agentOnAGateway = true;
-		} else {
-			this.agentMoving = true;
-			this.agentOnAGateway = false;
+		boolean anyMoving = false;
+		boolean anyOnAGateway = false;
+		for (int i = 0; i < this.agentNodes.length; i++) {
+			int agentNode = this.agentNodes[i];
+			if (this.graph.getSteps(agentNode) == Integer.MAX_VALUE) {
+				this.agentsMoving[i] = false;
+				this.agentsOnAGateway[i] = false;
+			} else if (this.graph.isGateway(agentNode)) {
+				this.agentsMoving[i] = false;
+				this.agentsOnAGateway[i] = true;
+			} else {
+				this.agentsMoving[i] = true;
+				this.agentsOnAGateway[i] = false;
+			}
+			anyMoving |= this.agentsMoving[i];
+			anyOnAGateway |= this.agentsOnAGateway[i];
 		}
+		// the battle is lost as soon as a single agent reaches a gateway
+		this.agentMoving = anyMoving && !anyOnAGateway;
+		this.agentOnAGateway = anyOnAGateway;
 	}
 
 	/**
-	 * Adds a gateway node to the network. If the node is already in the
-	 * network, it is just marked as a gateway node.
+	 * Marks a node of the network as a gateway node.
 	 * 
+	 * @param position
+	 *            position of the gateway in the list of gateways
 	 * @param getwayId
 	 *            id of the gateway node
 	 */
-	private void addGateway(int getwayId) {
-		Node g = this.createOrGetNode(getwayId);
-		g.setGateway(true);
-		this.gatewayNodes.add(g);
+	private void addGateway(int position, int getwayId) {
+		int g = this.graph.indexOf(getwayId);
+		this.graph.setGateway(g);
+		this.gatewayNodes[position] = g;
 	}
 
 	/**
-	 * The node where the agent is located is added to the network. If the node
-	 * is already in the network, it is just marked as the agent node. Notice
-	 * that there is only one agent node in the network.
-	 * 
-	 * @param agentNodeId
-	 *            id of the initial agent Node
-	 */
-	private void setAgentNode(int agentNodeId) {
-		Node newAgentNode = this.createOrGetNode(agentNodeId);
-		this.setAgentNode(newAgentNode);
-	}
-
-	/**
-	 * Set the new agent node and thereby mark it as the agent node and remove
-	 * the mark from the old agent node.S
+	 * Marks the node where an agent is located as its agent node. Several
+	 * agents may be located at the same node.
 	 * 
+	 * @param agent
+	 *            the number of the agent
 	 * @param agentNode
-	 *            the new agent node
-	 */
-	private void setAgentNode(Node agentNode) {
-		if (this.agentNode != null) {
-			// Reset the old agent node to be no longer the agent node
-			this.agentNode.setAgentNode(false);
-		}
-		// set the new agent node and mark is as the agent node
-		this.agentNode = agentNode;
-		this.agentNode.setAgentNode(true);
-	}
-
-	/**
-	 * Adds a link from one node to another to the network.
-	 * 
-	 * @param nodeIDa
-	 *            one end of the link
-	 * @param nodeIDb
-	 *            other end of the link
+	 *            dense index of the new agent node
 	 */
-	private void addLink(int nodeIDa, int nodeIDb) {
-		Node a = this.createOrGetNode(nodeIDa);
-		Node b = this.createOrGetNode(nodeIDb);
-		a.addNeighbour(b);
-		b.addNeighbour(a);
+	private void setAgentNode(int agent, int agentNode) {
+		this.agentNodes[agent] = agentNode;
 	}
 
 	/**
-	 * Initially or after the agent has moved the steps from the agent node to
-	 * the gateways must bee recalculated. This solution of the network depends
-	 * on storing the number of steps to the next gateway node in each node.
+	 * Initially the steps from the agent node to the gateways must be
+	 * calculated. This solution of the network depends on storing the number
+	 * of steps to the next gateway node in each node. Afterwards the steps are
+	 * only repaired when a link is severed (see {@link GatewayDistances}).
 	 */
 	private void recalculateAndSetStepsToNextGateway() {
-		if (this.getAgentNode() == null) {
+		if (this.agentNodes.length == 0) {
 			throw new RuntimeException("No agent node found! Network is not completely initialized!");
 		}
-		if (this.gatewayNodes.isEmpty()) {
+		for (int agent = 0; agent < this.agentNodes.length; agent++) {
+			if (this.getAgentNode(agent) < 0) {
+				throw new RuntimeException("No agent node found! Network is not completely initialized!");
+			}
+		}
+		if (this.gatewayNodes.length == 0) {
 			throw new RuntimeException("No gateway nodes found! Network is not completely initialized!");
 		}
-		this.resetAllSteps();
-
-		for (Node gateway : this.gatewayNodes) {
-			gateway.goBackToAgentNode(0);
+		this.distances.reset();
+		for (int agentNode : this.agentNodes) {
+			this.distances.searchUntilReached(agentNode);
 		}
 	}
 
 	/**
-	 * Just returns the agent node.
+	 * Just returns the node of an agent.
 	 * 
-	 * @return the agent node
+	 * @param agent
+	 *            the number of the agent
+	 * @return dense index of the agent node
 	 */
-	private Node getAgentNode() {
-		return this.agentNode;
+	private int getAgentNode(int agent) {
+		return this.agentNodes[agent];
 	}
 
 	/**
-	 * From current node the next step to the nearest gateway is the neighbour
-	 * with the lowest count of steps to a gateway.
+	 * Lets every agent choose the node it moves to after the link between
+	 * nodeA and nodeB has been severed. Usually an agent just takes the
+	 * neighbour which is one step closer to a gateway. That only reads the
+	 * steps, so many agents choose in parallel. The few agents which have to
+	 * look further away change the distances and choose one after the other.
 	 * 
-	 * @param current
-	 *            the node from which the next step must be calculated.
-	 * @return the node to which to go next. If current is a gateway node return
-	 *         current.
+	 * @param nodeA
+	 *            dense index of one end of the link to sever or -1
+	 * @param nodeB
+	 *            dense index of the other end of the link to sever or -1
 	 */
-	private Node findNextNodeToTheNearestGatewayFrom(Node current) {
-		if (current == null) {
-			throw new RuntimeException("Current node is null!");
+	private void chooseNextAgentNodes(int nodeA, int nodeB) {
+		int count = this.agentNodes.length;
+		if (count >= PARALLEL_AGENTS) {
+			ForkJoinPool.commonPool().invoke(new NextAgentNodes(nodeA, nodeB, 0, count));
+		} else {
+			this.chooseNextAgentNodes(nodeA, nodeB, 0, count, this.neighbourBuffer, this.weightBuffer);
 		}
 
-		if (current.isGateway()) {
-			return current;
+		for (int i = 0; i < count; i++) {
+			if (this.nextAgentNodes[i] == FURTHER_AWAY) {
+				int agentNode = this.agentNodes[i];
+				// an agent before may have reset the steps
+				this.distances.searchUntilReached(agentNode);
+				this.nextAgentNodes[i] = this.findNextNodeToTheNearestGatewayFrom(agentNode,
+						severedFrom(agentNode, nodeA, nodeB));
+			}
 		}
+	}
 
-		Node neighbour = current.findNeighbourWithMinimumStepsToNextGateway();
-		// because a link could have been disconnected the count of steps to the
-		// next gateway from the current node may be wrong. It must be corrected
-		// for preventing endless loops.
-		if (neighbour != null) {
-			current.stepsToNextGateway = neighbour.stepsToNextGateway + 1;
+	/**
+	 * Lets the agents from to to-1 choose a neighbour which is one step closer
+	 * to a gateway. Usually that is the next hop of the agent node, only if
+	 * the link to it is about to be severed the other neighbours are
+	 * considered. Agents which do not find one get FURTHER_AWAY.
+	 * 
+	 * @param buffer
+	 *            buffer for the neighbours, not shared with other threads
+	 * @param weights
+	 *            buffer for the weights of the links to the neighbours, not
+	 *            shared with other threads
+	 */
+	private void chooseNextAgentNodes(int nodeA, int nodeB, int from, int to, int[] buffer, int[] weights) {
+		for (int i = from; i < to; i++) {
+			int current = this.agentNodes[i];
+			int severed = severedFrom(current, nodeA, nodeB);
+			int next = this.graph.isGateway(current) ? current : this.distances.getNextHop(current);
+			if (next < 0 || (next == severed && next != current)) {
+				int steps = this.graph.getSteps(current);
+				next = this.findNeighbourOnTheShortestWay(current, severed, steps, buffer, weights);
+				if (next < 0 && steps != Integer.MAX_VALUE) {
+					next = FURTHER_AWAY;
+				}
+			}
+			this.nextAgentNodes[i] = next;
 		}
-		return neighbour;
 	}
 
 	/**
-	 * Before recalculating the ways through the network the count in al nodes
-	 * must be reset.
+	 * @return the neighbour of node which is about to be disconnected from it
+	 *         or -1
 	 */
-	private void resetAllSteps() {
-		for (Node n : nodes.values()) {
-			n.resetStepsToNextGateway();
+	private static int severedFrom(int node, int nodeA, int nodeB) {
+		if (nodeA < 0 || nodeB < 0) {
+			return -1;
 		}
+		return nodeA == node ? nodeB : nodeB == node ? nodeA : -1;
 	}
 
 	/**
-	 * Find the node with id id. if no such node exists, create a new node and
-	 * return this
-	 * 
-	 * @param id
-	 *            id of the node requested
-	 * @return the unique node with the id id.
+	 * Lets a range of agents choose their next nodes, split into tasks for
+	 * the common fork/join pool.
 	 */
-	private Node createOrGetNode(int id) {
-		Node node = this.nodes.get(new Integer(id));
-		if (node == null) {
-			Node newNode = new Node(id);
-			this.nodes.put(new Integer(id), newNode);
-			return newNode;
+	private final class NextAgentNodes extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int nodeA;
+		private final int nodeB;
+		private final int from;
+		private final int to;
+
+		private NextAgentNodes(int nodeA, int nodeB, int from, int to) {
+			this.nodeA = nodeA;
+			this.nodeB = nodeB;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from > AGENTS_PER_TASK) {
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new NextAgentNodes(this.nodeA, this.nodeB, this.from, middle),
+						new NextAgentNodes(this.nodeA, this.nodeB, middle, this.to));
+			} else {
+				SkynetSubnet.this.chooseNextAgentNodes(this.nodeA, this.nodeB, this.from, this.to,
+						new int[SkynetSubnet.this.graph.maxDegree()], new int[SkynetSubnet.this.graph.maxDegree()]);
+			}
 		}
-		return node;
 	}
 
 	/**
-	 * The class node represents a node in the network.
+	 * From current node the next step to the nearest gateway is the neighbour
+	 * with the lowest count of steps to a gateway. The steps of the ways
+	 * which lead back through the current node do not count.
 	 * 
-	 * @author hto
-	 *
+	 * @param current
+	 *            the node from which the next step must be calculated.
+	 * @param severed
+	 *            a neighbour of current which is about to be disconnected or
+	 *            -1
+	 * @return the node to which to go next. If current is a gateway node return
+	 *         current. If current has no neighbours return -1.
 	 */
-	private class Node {
-		private Integer id;
-		private HashMap<Integer, Node> neighbours;
-		private boolean gateway;
-		private boolean agentNode;
+	private int findNextNodeToTheNearestGatewayFrom(int current, int severed) {
+		if (current < 0) {
+			throw new RuntimeException("Current node is null!");
+		}
 
-		private int stepsToNextGateway;
+		if (this.graph.isGateway(current)) {
+			return current;
+		}
 
-		/**
-		 * Creates a new node with the id id.
-		 * 
-		 * @param id
-		 *            id of the new node
-		 */
-		private Node(int id) {
-			this.id = new Integer(id);
-			this.neighbours = new HashMap<Integer, Node>();
-			this.stepsToNextGateway = Integer.MAX_VALUE;
-			this.gateway = false;
-			this.agentNode = false;
-			this.stepsToNextGateway = Integer.MAX_VALUE;
+		// usually there is a neighbour on a shortest way
+		int steps = this.graph.getSteps(current);
+		int neighbour = this.findNeighbourOnTheShortestWay(current, severed, steps, this.neighbourBuffer,
+				this.weightBuffer);
+		if (neighbour >= 0 || steps == Integer.MAX_VALUE) {
+			return neighbour;
+		}
+		if (this.graph.maxWeight() > 1) {
+			return this.findNextNodeOnAWeightedWayFrom(current, severed, steps);
 		}
 
-		/**
-		 * From all the nodes which can be reached from this node return the one
-		 * from which the way to any gateway is the shortest.
-		 * 
-		 * @return the neighbour from which the way to a gateway is th shortest.
-		 */
-		private Node findNeighbourWithMinimumStepsToNextGateway() {
-			int minDistance = Integer.MAX_VALUE;
-			Node minNeighbour = null;
-			for (Node neighbour : this.getNeighbours().values()) {
-				if (neighbour.getStepsToNextGateway() <= minDistance) {
-					minNeighbour = neighbour;
-					minDistance = neighbour.getStepsToNextGateway();
-				}
+		// otherwise take a neighbour one step further away, which does not
+		// only reach a gateway through the current node
+		this.distances.searchUpTo(steps + 1);
+		int count = this.graph.neighbours(current, this.neighbourBuffer);
+		for (int i = 0; i < count; i++) {
+			int n = this.neighbourBuffer[i];
+			if (n != severed && this.graph.getSteps(n) == steps + 1 && this.distances.isSupported(n, current)) {
+				neighbour = n;
 			}
-			return minNeighbour;
+		}
+		if (neighbour >= 0 || count == 0 || (count == 1 && this.neighbourBuffer[0] == severed)) {
+			return neighbour;
 		}
 
-		/**
-		 * Recursive method to find the shortest way bay to the agent node. The
-		 * minimal number of steps in each node is recorded. If this method is
-		 * called for all gateways the agent node is at last be initialized with
-		 * the number of steps the agent at least needs to a gateway.
-		 * 
-		 * @param steps
-		 *            the number of steps back from a gateway to this node.
-		 */
-		private void goBackToAgentNode(int steps) {
-			if (this.getStepsToNextGateway() > steps) {
-				this.stepsToNextGateway = steps;
-			} else {
-				return;
-			}
-			if (this.isAgentNode()) {
-				return;
-			}
+		// all other ways are even longer, they must be calculated around the
+		// current node
+		this.distances.searchAround(current);
+		neighbour = this.findNeighbourWithMinimumStepsToNextGateway(current, severed, Integer.MAX_VALUE,
+				this.neighbourBuffer);
+		this.distances.reset();
+		return neighbour;
+	}
 
-			for (Node neighbour : this.neighbours.values()) {
-				if (!neighbour.isGateway()) {
-					neighbour.goBackToAgentNode(steps + 1);
+	/**
+	 * Like {@link #findNextNodeToTheNearestGatewayFrom(int, int)} for links
+	 * with weights, after no neighbour on a shortest way is left. The costs
+	 * over the neighbours whose ways do not lead back through the current node
+	 * are known once the steps are known a bit further than the current node.
+	 * Only if a neighbour whose way may lead back could be cheaper, the ways
+	 * around the current node are calculated.
+	 * 
+	 * @param current
+	 *            the node from which the next step must be calculated
+	 * @param severed
+	 *            a neighbour of current which is about to be disconnected or
+	 *            -1
+	 * @param steps
+	 *            the steps of current
+	 * @return the node to which to go next or -1 if current has no other
+	 *         neighbours
+	 */
+	private int findNextNodeOnAWeightedWayFrom(int current, int severed, int steps) {
+		this.distances.searchUpTo(steps + this.graph.maxWeight());
+		int horizon = this.distances.getHorizon();
+		long minCost = Long.MAX_VALUE;
+		int neighbour = -1;
+		// the least cost over the neighbours whose ways may lead back
+		long bound = Long.MAX_VALUE;
+		int count = this.graph.neighbours(current, this.neighbourBuffer, this.weightBuffer);
+		for (int i = 0; i < count; i++) {
+			int n = this.neighbourBuffer[i];
+			int s = this.graph.getSteps(n);
+			if (n == severed) {
+				continue;
+			} else if (s == Integer.MAX_VALUE) {
+				if (horizon != Integer.MAX_VALUE) {
+					bound = Math.min(bound, (long) this.weightBuffer[i] + horizon + 1);
+				}
+			} else if (s <= steps || this.distances.isSupported(n, current, steps)) {
+				// a way back through current would cost more than s
+				if ((long) this.weightBuffer[i] + s <= minCost) {
+					minCost = (long) this.weightBuffer[i] + s;
+					neighbour = n;
 				}
+			} else {
+				bound = Math.min(bound, (long) this.weightBuffer[i] + s);
 			}
 		}
-
-		/**
-		 * Removes a neighbour node from the list of neighbours. This method
-		 * must be called on both nodes of a link that shall be severed.
-		 * 
-		 * @param neighbour
-		 *            the node to be disconnected
-		 * @return the neighbour disconnected.
-		 */
-		private Node removeNeighbour(Node neighbour) {
-			return this.neighbours.remove(neighbour.id);
+		if ((neighbour >= 0 && minCost <= bound) || count == 0 || (count == 1 && this.neighbourBuffer[0] == severed)) {
+			return neighbour;
 		}
 
-		private int getId() {
-			return this.id;
-		}
+		// a way which may lead back could be cheaper, so calculate the ways
+		// around the current node
+		this.distances.searchAround(current);
+		neighbour = this.findNeighbourOnTheShortestWay(current, severed, Integer.MAX_VALUE, this.neighbourBuffer,
+				this.weightBuffer);
+		this.distances.reset();
+		return neighbour;
+	}
 
-		private Map<Integer, Node> getNeighbours() {
-			return neighbours;
+	/**
+	 * Like {@link #findNeighbourWithMinimumStepsToNextGateway(int, int, int, int[])}
+	 * but the weights of the links to the neighbours are added to their steps
+	 * if the links have weights. A neighbour is only taken if its steps plus
+	 * the weight are at most maxSteps. Like without weights any neighbour may
+	 * be taken if maxSteps is Integer.MAX_VALUE.
+	 * 
+	 * @param buffer
+	 *            buffer for the neighbours of node
+	 * @param weights
+	 *            buffer for the weights of the links to the neighbours
+	 */
+	private int findNeighbourOnTheShortestWay(int node, int severed, int maxSteps, int[] buffer, int[] weights) {
+		if (this.graph.maxWeight() == 1) {
+			return this.findNeighbourWithMinimumStepsToNextGateway(node, severed, maxSteps, buffer);
 		}
-
-		/**
-		 * Add a neighbour to the list of neighbours. Conciders that a node
-		 * cannot be his own neighbour and one node can only be once the
-		 * neighbour of another node.
-		 * 
-		 * @param newNeighbour
-		 *            node to be added to my neighbours
-		 * @return true if the neighbour was successfully added
-		 */
-		private boolean addNeighbour(Node newNeighbour) {
-			if (this.id.equals(newNeighbour.id)) {
-				// I'm not my own neighbour
-				return false;
-			}
-			if (this.neighbours.containsKey(newNeighbour.id)) {
-				// one neighbour cannot be twice my neighbour
-				return false;
+		long minSteps = maxSteps == Integer.MAX_VALUE ? Long.MAX_VALUE : maxSteps;
+		int minNeighbour = -1;
+		int count = this.graph.neighbours(node, buffer, weights);
+		for (int i = 0; i < count; i++) {
+			int neighbour = buffer[i];
+			int steps = this.graph.getSteps(neighbour);
+			long cost = steps == Integer.MAX_VALUE ? Long.MAX_VALUE : (long) steps + weights[i];
+			if (neighbour != severed && cost <= minSteps) {
+				minNeighbour = neighbour;
+				minSteps = cost;
 			}
-			this.neighbours.put(newNeighbour.id, newNeighbour);
-			return true;
 		}
+		return minNeighbour;
+	}
 
-		private int getStepsToNextGateway() {
-			return this.stepsToNextGateway;
+	/**
+	 * From all the nodes which can be reached from a node return the one from
+	 * which the way to any gateway is the shortest.
+	 * 
+	 * @param node
+	 *            the node to look around
+	 * @param severed
+	 *            a neighbour not to be considered or -1
+	 * @param maxDistance
+	 *            neighbours with more steps are not considered
+	 * @param buffer
+	 *            buffer for the neighbours of node
+	 * @return the neighbour from which the way to a gateway is th shortest or
+	 *         -1 if there is no such neighbour.
+	 */
+	private int findNeighbourWithMinimumStepsToNextGateway(int node, int severed, int maxDistance, int[] buffer) {
+		int minDistance = maxDistance;
+		int minNeighbour = -1;
+		int count = this.graph.neighbours(node, buffer);
+		for (int i = 0; i < count; i++) {
+			int neighbour = buffer[i];
+			if (neighbour != severed && this.graph.getSteps(neighbour) <= minDistance) {
+				minNeighbour = neighbour;
+				minDistance = this.graph.getSteps(neighbour);
+			}
 		}
+		return minNeighbour;
+	}
 
-		private boolean isGateway() {
-			return gateway;
-		}
+	@Override
+	public void writeTo(WritableByteChannel out, SubnetFormat format) throws IOException {
+		// the links are streamed from the store, even if some are severed
+		LinkStore links = this.links();
+		SubnetWriter.write(out, format, links.size(), links::forEach, this.linkWeights(), this.getGatewayNodes(),
+				this.getAgentPositions());
+	}
 
-		private void setGateway(boolean gateway) {
-			this.gateway = gateway;
-		}
+	/**
+	 * @return the graph core the subnet is built on
+	 */
+	Core getCore() {
+		return this.core;
+	}
 
-		private void resetStepsToNextGateway() {
-			this.stepsToNextGateway = Integer.MAX_VALUE;
-		}
+	/**
+	 * @return the links which have been severed so far, two node ids per
+	 *         link in the order of the map
+	 */
+	int[] getSeveredLinks() {
+		LinkStore links = this.links();
+		int[] severed = new int[2 * (links.mapSize() - links.size())];
+		int[] count = { 0 };
+		links.forEachSevered((a, b) -> {
+			severed[count[0]++] = a;
+			severed[count[0]++] = b;
+		});
+		return severed;
+	}
 
-		private boolean isAgentNode() {
-			return this.agentNode;
-		}
+	/**
+	 * Writes the whole map of the subnet in the binary format, including the
+	 * links which have been severed.
+	 * 
+	 * @param out
+	 *            the channel to write to
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	void writeWholeMapTo(WritableByteChannel out) throws IOException {
+		LinkStore links = this.links();
+		SubnetWriter.write(out, SubnetFormat.BINARY, links.mapSize(), links::forEachOfMap, this.linkWeights(),
+				this.getGatewayNodes(), this.getAgentPositions());
+	}
 
-		private void setAgentNode(boolean agentNode) {
-			this.agentNode = agentNode;
+	/**
+	 * @return the weight of the link between two node ids or null if every
+	 *         link has weight 1
+	 */
+	private IntBinaryOperator linkWeights() {
+		if (this.graph.maxWeight() == 1) {
+			return null;
 		}
+		// a link of a node to itself is dropped from the graph, its weight
+		// does not matter
+		return (a, b) -> a == b ? 1 : this.graph.weight(this.graph.indexOf(a), this.graph.indexOf(b));
 	}
 
 	@Override
 	public String toString() {
-		StringBuilder str = new StringBuilder();
-		str.append(this.linksAsIntegers.length).append("\r\n");
-		str.append(this.getGatewayNodes().length).append("\r\n");
-		for (int[] link : this.getNodeLinks()) {
-			str.append(link[0]).append(" ").append(link[1]).append("\r\n");
+		LinkStore links = this.links();
+		int[] gateways = this.getGatewayNodes();
+		StringBuilder str = new StringBuilder(16 * links.size() + 8 * gateways.length + 32);
+		IntBinaryOperator weights = this.linkWeights();
+		if (weights != null) {
+			str.append(SubnetMap.WEIGHTED).append("\r\n");
+		}
+		str.append(links.size()).append("\r\n");
+		str.append(gateways.length).append("\r\n");
+		if (weights == null) {
+			links.forEach((a, b) -> str.append(a).append(' ').append(b).append("\r\n"));
+		} else {
+			links.forEach((a, b) -> str.append(a).append(' ').append(b).append(' ').append(weights.applyAsInt(a, b))
+					.append("\r\n"));
 		}
-		for (int id : this.getGatewayNodes()) {
+		for (int id : gateways) {
 			str.append(id).append("\r\n");
 		}
 		str.append(this.getAgentPosition()).append("\r\n");
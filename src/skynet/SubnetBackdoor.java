@@ -1,5 +1,9 @@
 package skynet;
 
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+
 /**
  * Interface that enables you to read a skynet subnet and to manipulate it by 
  * disconnecting nodes.
@@ -26,6 +30,71 @@ public interface SubnetBackdoor {
 	 */
 	public int[][] getNodeLinks();
 
+	/**
+	 * Returns all the links in the subnetwork as a flat read-only view without
+	 * copying them. The nodes of link i are at the positions 2*i and 2*i+1.
+	 * The view shows the links at the time of the call and must not be used
+	 * anymore after the next link has been disconnected.
+	 * 
+	 * <pre>
+	 * <code>
+	 *	IntBuffer links = backdoor.getNodeLinksBuffer();
+	 *	while (links.hasRemaining()) {
+	 *		System.out.println("" + links.get() + " " + links.get());
+	 *	}
+	 * </code>
+	 * </pre>
+	 * 
+	 * @return all the links in a read-only buffer with 2 integers per link
+	 */
+	public default IntBuffer getNodeLinksBuffer() {
+		int[][] links = this.getNodeLinks();
+		int[] flat = new int[2 * links.length];
+		this.copyLinksInto(flat);
+		return IntBuffer.wrap(flat).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copies all the links in the subnetwork into an array. The nodes of link
+	 * i are copied to the positions 2*i and 2*i+1. If the array is too small
+	 * only the first dst.length/2 links are copied, so a caller can reuse one
+	 * array for all turns and only has to grow it if the returned number of
+	 * links does not fit.
+	 * 
+	 * @param dst
+	 *            the array to copy the links into
+	 * @return the number of links in the subnetwork
+	 */
+	public default int copyLinksInto(int[] dst) {
+		int[][] links = this.getNodeLinks();
+		int count = Math.min(links.length, dst.length / 2);
+		for (int i = 0; i < count; i++) {
+			dst[2 * i] = links[i][0];
+			dst[2 * i + 1] = links[i][1];
+		}
+		return links.length;
+	}
+
+	/**
+	 * Calls an action for every link in the subnetwork in the order of
+	 * {@link #getNodeLinks()}. Example for printing all the links in the
+	 * network:
+	 * 
+	 * <pre>
+	 * <code>
+	 *	backdoor.forEachLink((a, b) -&gt; System.out.println("" + a + " " + b));
+	 * </code>
+	 * </pre>
+	 * 
+	 * @param action
+	 *            is called with both nodes of each link
+	 */
+	public default void forEachLink(IntBiConsumer action) {
+		for (int[] link : this.getNodeLinks()) {
+			action.accept(link[0], link[1]);
+		}
+	}
+
 	/**
 	 * Disconnects a link between two nodes and than makes the agent move on.
 	 * 
@@ -40,7 +109,164 @@ public interface SubnetBackdoor {
 	public boolean disconnectNodesBeforeAgentMovesOn(int a, int b);
 
 	/**
-	 * Returns the current position of the agent.
+	 * Plays a sequence of turns: turn i disconnects the link between a[i] and
+	 * b[i] like {@link #disconnectNodesBeforeAgentMovesOn(int, int)} and then
+	 * the agent moves on. The sequence stops early as soon as the agent is not
+	 * moving anymore. The results hold the positions of all agents after each
+	 * turn, see {@link TurnResults#getAgentPosition(int, int)}. Example for
+	 * replaying a recorded game:
+	 * 
+	 * <pre>
+	 * <code>
+	 *	TurnResults results = backdoor.playTurns(a, b);
+	 *	for (int i = 0; i &lt; results.getTurnCount(); i++) {
+	 *		System.out.println("Agent's position: " + results.getAgentPositions()[i]);
+	 *	}
+	 * </code>
+	 * </pre>
+	 * 
+	 * @param a
+	 *            first nodes of the links
+	 * @param b
+	 *            second nodes of the links, as many as first nodes
+	 * @return the results of the turns played. They may be reused by the
+	 *         next call of this method, so they must be evaluated before.
+	 */
+	public default TurnResults playTurns(int[] a, int[] b) {
+		if (a.length != b.length) {
+			throw new RuntimeException("There are " + a.length + " first nodes but " + b.length + " second nodes.");
+		}
+		int agentCount = this.getAgentCount();
+		TurnResults results = new TurnResults(a.length, agentCount);
+		for (int i = 0; i < a.length && this.isAgentStillMoving(); i++) {
+			boolean success = this.disconnectNodesBeforeAgentMovesOn(a[i], b[i]);
+			if (agentCount == 1) {
+				results.add(this.getAgentPosition(), success);
+			} else {
+				results.add(success);
+				int[] agentPositions = this.getAgentPositions();
+				for (int agent = 0; agent < agentCount; agent++) {
+					results.setAgentPosition(agent, agentPositions[agent]);
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Creates an independent copy of the game in its current state: the same
+	 * links, the same agent position and the same status. Disconnecting links
+	 * in the copy does not change this game and vice versa, so a solver can
+	 * try out different moves on copies. The copy shares the unchanged parts
+	 * of the subnet with this game; on {@link SkynetSubnet.Core#CSR} forking
+	 * costs almost nothing, whatever the size of the subnet.
+	 * <p>
+	 * Back doors which cannot copy their game throw an exception, which is
+	 * the default.
+	 * 
+	 * @return the copy
+	 * @throws RuntimeException
+	 *             if the game cannot be copied
+	 */
+	public default SubnetBackdoor fork() {
+		throw new RuntimeException(this.getClass().getName() + " cannot fork its game.");
+	}
+
+	/**
+	 * Marks the current state of the game, so that it can be restored with
+	 * {@link #rollbackTo(int)}. The first mark starts a journal which records
+	 * the effects of every turn until {@link #clearJournal()} is called.
+	 * Example for trying out a move:
+	 * 
+	 * <pre>
+	 * <code>
+	 *	int mark = backdoor.mark();
+	 *	backdoor.disconnectNodesBeforeAgentMovesOn(a, b);
+	 *	boolean saved = !backdoor.isAgentOnAGateway();
+	 *	backdoor.rollbackTo(mark);
+	 * </code>
+	 * </pre>
+	 * 
+	 * Back doors without a journal throw an exception, which is the default.
+	 * 
+	 * @return the mark, the number of turns in the journal
+	 * @throws RuntimeException
+	 *             if the turns cannot be taken back
+	 */
+	public default int mark() {
+		throw new RuntimeException(this.getClass().getName() + " cannot take back turns.");
+	}
+
+	/**
+	 * Takes back the last turn recorded in the journal: the link is connected
+	 * again and the agent returns to its previous position.
+	 * 
+	 * @return true if a turn was taken back, false if there is no turn in
+	 *         the journal, which is always the case by default
+	 */
+	public default boolean undoLastTurn() {
+		return false;
+	}
+
+	/**
+	 * Takes back all turns recorded after a mark. This costs as much as the
+	 * turns have changed.
+	 * 
+	 * @param mark
+	 *            a mark returned by {@link #mark()}
+	 * @throws RuntimeException
+	 *             if the turns cannot be taken back, which is the default
+	 */
+	public default void rollbackTo(int mark) {
+		throw new RuntimeException(this.getClass().getName() + " cannot take back turns.");
+	}
+
+	/**
+	 * Stops recording the turns and forgets the journal. Turns played so far
+	 * cannot be taken back anymore. By default there is no journal and
+	 * nothing happens.
+	 */
+	public default void clearJournal() {
+	}
+
+	/**
+	 * Adds a listener which is notified about every turn of this game. Example
+	 * for counting the moves of the agent:
+	 * 
+	 * <pre>
+	 * <code>
+	 *	LongAdder moves = new LongAdder();
+	 *	backdoor.addSubnetListener(new SubnetListener() {
+	 *		public void agentMoved(SubnetEvent event) {
+	 *			moves.increment();
+	 *		}
+	 *	});
+	 * </code>
+	 * </pre>
+	 * 
+	 * @param listener
+	 *            the listener
+	 * @throws RuntimeException
+	 *             if the back door cannot notify listeners, which is the
+	 *             default
+	 */
+	public default void addSubnetListener(SubnetListener listener) {
+		throw new RuntimeException(this.getClass().getName() + " cannot notify listeners.");
+	}
+
+	/**
+	 * Removes a listener. Without listeners a turn costs no more than
+	 * before any listener was added.
+	 * 
+	 * @param listener
+	 *            a listener added before
+	 */
+	public default void removeSubnetListener(SubnetListener listener) {
+	}
+
+	/**
+	 * Returns the current position of the agent. If there are several agents
+	 * this is the position of the first one.
 	 * 
 	 * @return integer value of the current agent position
 	 */
@@ -48,10 +274,13 @@ public interface SubnetBackdoor {
 
 	/**
 	 * There is hope but the agent is still moving on. Disconnect another
-	 * link to save the world.
+	 * link to save the world. If there are several agents the world is saved
+	 * when none of them can reach a gateway anymore.
 	 * 
 	 * @return true if the agent has not yet reached a gateway
-	 *         node but still has the chance to, otherwise false.
+	 *         node but still has the chance to, otherwise false. With several
+	 *         agents true if no agent has reached a gateway and at least one
+	 *         still has the chance to.
 	 */
 	public boolean isAgentStillMoving();
 
@@ -59,13 +288,237 @@ public interface SubnetBackdoor {
 	 * Return if the battle is lost
 	 * 
 	 * @return true if the agent has reached a gateway node, false if
-	 *         the agent has not yet reached a gateway node.
+	 *         the agent has not yet reached a gateway node. With several
+	 *         agents true as soon as any of them has reached a gateway.
 	 */
 	public boolean isAgentOnAGateway();
 
+	/**
+	 * Returns the number of agents which move through the subnet at once.
+	 * After each disconnected link all of them move on.
+	 * 
+	 * @return the number of agents, at least 1
+	 */
+	public default int getAgentCount() {
+		return 1;
+	}
+
+	/**
+	 * Returns the current positions of all agents. Example for printing the
+	 * agents which can still reach a gateway:
+	 * 
+	 * <pre>
+	 * <code>
+	 *	int[] positions = backdoor.getAgentPositions();
+	 *	for (int agent = 0; agent &lt; positions.length; agent++) {
+	 *		if (backdoor.isAgentStillMoving(agent)) {
+	 *			System.out.println("Agent " + agent + " is on " + positions[agent]);
+	 *		}
+	 *	}
+	 * </code>
+	 * </pre>
+	 * 
+	 * @return the positions of the agents, position i belongs to agent i
+	 */
+	public default int[] getAgentPositions() {
+		return new int[] { this.getAgentPosition() };
+	}
+
+	/**
+	 * @param agent
+	 *            the number of the agent from 0 to {@link #getAgentCount()}-1
+	 * @return true if this agent has not yet reached a gateway node but still
+	 *         has the chance to, otherwise false
+	 */
+	public default boolean isAgentStillMoving(int agent) {
+		if (agent != 0) {
+			throw new RuntimeException("Unknown agent " + agent + ". There is 1 agent.");
+		}
+		return this.isAgentStillMoving();
+	}
+
+	/**
+	 * @param agent
+	 *            the number of the agent from 0 to {@link #getAgentCount()}-1
+	 * @return true if this agent has reached a gateway node
+	 */
+	public default boolean isAgentOnAGateway(int agent) {
+		if (agent != 0) {
+			throw new RuntimeException("Unknown agent " + agent + ". There is 1 agent.");
+		}
+		return this.isAgentOnAGateway();
+	}
+
+	/**
+	 * Returns the number of steps from a node to the nearest gateway. If the
+	 * links of the map have weights, the steps are the sum of the weights on
+	 * the shortest way (see {@link #getLinkWeight(int, int)}). The steps are
+	 * only known as far as the game needs them, that is at least for all
+	 * nodes which are not farther away from the gateways than the agents.
+	 * This method only reads them, it never calculates further. By default no
+	 * steps are known.
+	 * 
+	 * @param node
+	 *            a node of the subnetwork
+	 * @return the number of steps, 0 for a gateway, or -1 if the node cannot
+	 *         reach a gateway or its steps are not known
+	 */
+	public default int getStepsToNearestGateway(int node) {
+		return -1;
+	}
+
+	/**
+	 * Returns the node an agent on the given node would move to next, if the
+	 * link between them is not disconnected before.
+	 * 
+	 * @param node
+	 *            a node of the subnetwork
+	 * @return the next node on the way of an agent to the nearest gateway,
+	 *         node itself for a gateway or -1 if the steps of the node are not
+	 *         known (see {@link #getStepsToNearestGateway(int)}), which is
+	 *         always the case by default
+	 */
+	public default int getNextHop(int node) {
+		return -1;
+	}
+
+	/**
+	 * Returns the weight of a link, the cost for an agent to pass it. The
+	 * agents always take the way with the least sum of weights to the
+	 * nearest gateway. Maps without weights have weight 1 for every link.
+	 * 
+	 * @param a
+	 *            one end of the link
+	 * @param b
+	 *            other end of the link
+	 * @return the weight of the link or -1 if the nodes are not linked
+	 */
+	public default int getLinkWeight(int a, int b) {
+		IntBuffer links = this.getNodeLinksBuffer();
+		for (int i = links.position(); i < links.limit(); i += 2) {
+			if ((links.get(i) == a && links.get(i + 1) == b) || (links.get(i) == b && links.get(i + 1) == a)) {
+				return 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Predicts the way of the agent, assuming that no link on it is
+	 * disconnected. Example for printing the way of the agent:
+	 * 
+	 * <pre>
+	 * <code>
+	 *	for (int node : backdoor.predictAgentPath(Integer.MAX_VALUE)) {
+	 *		System.out.println("The agent moves to " + node);
+	 *	}
+	 * </code>
+	 * </pre>
+	 * 
+	 * @param maxSteps
+	 *            the maximal number of steps to predict
+	 * @return the nodes the agent moves to in the next turns, the last one
+	 *         is a gateway if the agent reaches it within maxSteps. Empty if
+	 *         the agent is not moving anymore.
+	 */
+	public default int[] predictAgentPath(int maxSteps) {
+		return this.predictAgentPath(0, maxSteps);
+	}
+
+	/**
+	 * Like {@link #predictAgentPath(int)} for one of several agents. Every
+	 * step costs O(1).
+	 * 
+	 * @param agent
+	 *            the number of the agent from 0 to {@link #getAgentCount()}-1
+	 * @param maxSteps
+	 *            the maximal number of steps to predict
+	 * @return the nodes the agent moves to in the next turns
+	 */
+	public default int[] predictAgentPath(int agent, int maxSteps) {
+		int node = this.getAgentPositions()[agent];
+		if (!this.isAgentStillMoving(agent)) {
+			return new int[0];
+		}
+		// with weights a way has fewer nodes than steps
+		int length = 0;
+		int at = node;
+		int next = this.getNextHop(at);
+		while (length < maxSteps && next >= 0 && next != at) {
+			length++;
+			at = next;
+			next = this.getNextHop(at);
+		}
+		int[] path = new int[length];
+		for (int i = 0; i < path.length; i++) {
+			node = this.getNextHop(node);
+			path[i] = node;
+		}
+		return path;
+	}
+
+	/**
+	 * Finds the fewest links which have to be severed to cut all agents off
+	 * from all gateways, a minimum edge cut of the current subnet. The agents
+	 * may of course move on before all of these links are severed, so this
+	 * is a lower bound for the links still needed to win the game. Example:
+	 * 
+	 * <pre>
+	 * <code>
+	 *	int[][] cut = backdoor.getMinimumCut();
+	 *	System.out.println("At least " + cut.length + " more links have to be severed.");
+	 * </code>
+	 * </pre>
+	 * 
+	 * Asking again after a turn only costs as much as the cut has changed.
+	 * 
+	 * @return the links of the cut, each as the node on the side of the
+	 *         agents and the node on the side of the gateways. Empty if no
+	 *         agent can reach a gateway anymore, null if an agent is on a
+	 *         gateway.
+	 * @throws RuntimeException
+	 *             if the back door cannot find the cut, which is the default
+	 */
+	public default int[][] getMinimumCut() {
+		throw new RuntimeException(this.getClass().getName() + " cannot find a minimum cut.");
+	}
+
 	/**
 	 * @return all the gateway nodes in the subnetwork
 	 */
 	public int[] getGatewayNodes();
 
+	/**
+	 * Writes the current state of the subnet, the links which have not been
+	 * severed with their weights, the gateways and the agent positions, to a
+	 * channel. Links without weights are written as in the map. The
+	 * subnet is encoded link by link into a small buffer, so even a subnet
+	 * with millions of links can be written in the middle of a game without
+	 * copying its links. Example for writing a map which can be loaded with
+	 * {@link SkynetSubnet#createSubnetFromBinaryFile(java.nio.file.Path, SkynetSubnet.Core)}:
+	 * 
+	 * <pre>
+	 * <code>
+	 *	try (FileChannel out = FileChannel.open(Paths.get("game.skn"), CREATE, WRITE, TRUNCATE_EXISTING)) {
+	 *		backdoor.writeTo(out, SubnetFormat.BINARY);
+	 *	}
+	 * </code>
+	 * </pre>
+	 * 
+	 * @param out
+	 *            where to write the subnet to, it is not closed
+	 * @param format
+	 *            the format to write the subnet in
+	 * @throws IOException
+	 *             if the subnet cannot be written
+	 */
+	public default void writeTo(WritableByteChannel out, SubnetFormat format) throws IOException {
+		IntBuffer links = this.getNodeLinksBuffer();
+		SubnetWriter.write(out, format, links.remaining() / 2, action -> {
+			for (int i = links.position(); i < links.limit(); i += 2) {
+				action.accept(links.get(i), links.get(i + 1));
+			}
+		}, null, this.getGatewayNodes(), this.getAgentPositions());
+	}
+
 }
@@ -0,0 +1,320 @@
+package skynet;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+
+/**
+ * Generates maps of subnets with typical shapes for stress tests and writes
+ * them in text format (see {@link SkynetSubnet#createSubnet(String)}). The
+ * links are written while they are generated, so a map is never built in
+ * memory and even corpora of several GB can be created. Put the directory of
+ * the maps on the class path to load them with
+ * {@link SkynetSubnet#createSubnet(String)}.
+ * <p>
+ * The following shapes can be generated:
+ * <ul>
+ * <li>grid - width x height nodes, each linked to its right and lower
+ * neighbour. The gateways are random nodes on the border, the agent starts
+ * in the center.</li>
+ * <li>scalefree - a scale free subnet built by preferential attachment: every
+ * new node is linked to linksPerNode nodes which are chosen with a
+ * probability proportional to their number of links. The gateways and the
+ * agent are random nodes. This shape needs 8 bytes of memory per link.</li>
+ * <li>wheels - a chain of wheels like subnetGamma: a ring of nodes whose
+ * nodes are all linked to a hub in the middle. Every hub is linked to the hub
+ * of the next wheel and to a gateway of its own. The last node of a ring is
+ * linked to the first two nodes of the next ring. The agent starts on the
+ * ring of the first wheel.</li>
+ * </ul>
+ * Example:
+ *
+ * <pre>
+ * <code>
+ *	java skynet.SubnetCorpusGenerator grid 1000 1000 8 42 corpus/grid1000.txt
+ *	java skynet.SubnetCorpusGenerator scalefree 1000000 3 16 42 corpus/scalefree1M.txt
+ *	java skynet.SubnetCorpusGenerator wheels 10000 100 corpus/wheels1M.txt
+ * </code>
+ * </pre>
+ *
+ * @author hto
+ *
+ */
+public class SubnetCorpusGenerator {
+
+	/**
+	 * Writes a grid of width x height nodes. Node (x, y) has the id
+	 * y*width+x.
+	 *
+	 * @param file
+	 *            the file to write the map to, an existing file is overwritten
+	 * @param width
+	 *            the number of nodes in a row &gt; 2
+	 * @param height
+	 *            the number of nodes in a column &gt; 2
+	 * @param numberOfGateways
+	 *            the number of gateways on the border of the grid
+	 * @param seed
+	 *            the seed of the random generator which chooses the gateways
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void writeGrid(Path file, int width, int height, int numberOfGateways, long seed)
+			throws IOException {
+		if (width < 3 || height < 3) {
+			throw new RuntimeException("Illegal grid " + width + " x " + height + ". It must be at least 3 x 3.");
+		}
+		checkNumberOfNodes((long) width * height);
+		long numberOfLinks = (long) (width - 1) * height + (long) width * (height - 1);
+		int[] border = new int[2 * width + 2 * height - 4];
+		int count = 0;
+		for (int x = 0; x < width; x++) {
+			border[count++] = x;
+			border[count++] = (height - 1) * width + x;
+		}
+		for (int y = 1; y < height - 1; y++) {
+			border[count++] = y * width;
+			border[count++] = y * width + width - 1;
+		}
+		if (numberOfGateways < 1 || numberOfGateways > border.length) {
+			throw new RuntimeException("Illegal number of gateways " + numberOfGateways + ".");
+		}
+		int[] gateways = choose(border, numberOfGateways, new Well19937c(seed));
+		int agentNode = height / 2 * width + width / 2;
+
+		try (FileChannel channel = create(file)) {
+			SubnetMap.TextWriter out = new SubnetMap.TextWriter(channel);
+			out.writeLink(checkNumberOfLinks(numberOfLinks), numberOfGateways);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int node = y * width + x;
+					if (x + 1 < width) {
+						out.writeLink(node, node + 1);
+					}
+					if (y + 1 < height) {
+						out.writeLink(node, node + width);
+					}
+				}
+			}
+			writeGatewaysAndAgent(out, gateways, agentNode);
+		}
+	}
+
+	/**
+	 * Writes a scale free subnet. It starts with linksPerNode+1 nodes which
+	 * are all linked with each other, every further node is linked to
+	 * linksPerNode different nodes chosen by preferential attachment.
+	 *
+	 * @param file
+	 *            the file to write the map to, an existing file is overwritten
+	 * @param numberOfNodes
+	 *            the number of nodes in the subnet
+	 * @param linksPerNode
+	 *            the number of links of a new node &gt; 0
+	 * @param numberOfGateways
+	 *            the number of gateways, at most numberOfNodes/2
+	 * @param seed
+	 *            the seed of the random generator
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void writeScaleFree(Path file, int numberOfNodes, int linksPerNode, int numberOfGateways,
+			long seed) throws IOException {
+		if (linksPerNode < 1 || numberOfNodes < linksPerNode + 2) {
+			throw new RuntimeException(
+					"Illegal scale free subnet: " + numberOfNodes + " nodes with " + linksPerNode + " links each.");
+		}
+		if (numberOfGateways < 1 || numberOfGateways > numberOfNodes / 2) {
+			throw new RuntimeException("Illegal number of gateways " + numberOfGateways + ".");
+		}
+		int initialNodes = linksPerNode + 1;
+		long numberOfLinks = (long) initialNodes * linksPerNode / 2
+				+ (long) (numberOfNodes - initialNodes) * linksPerNode;
+		checkNumberOfLinks(numberOfLinks);
+		RandomGenerator random = new Well19937c(seed);
+
+		// the gateways and the agent are chosen first, the links are drawn
+		// from the same generator afterwards
+		boolean[] gateway = new boolean[numberOfNodes];
+		int[] gateways = new int[numberOfGateways];
+		for (int i = 0; i < numberOfGateways; i++) {
+			int node;
+			do {
+				node = random.nextInt(numberOfNodes);
+			} while (gateway[node]);
+			gateway[node] = true;
+			gateways[i] = node;
+		}
+		int agentNode;
+		do {
+			agentNode = random.nextInt(numberOfNodes);
+		} while (gateway[agentNode]);
+		gateway = null;
+
+		// every node appears in ends as often as it has links
+		int[] ends = new int[(int) (2 * numberOfLinks)];
+		int endCount = 0;
+		int[] chosen = new int[linksPerNode];
+		try (FileChannel channel = create(file)) {
+			SubnetMap.TextWriter out = new SubnetMap.TextWriter(channel);
+			out.writeLink((int) numberOfLinks, numberOfGateways);
+			for (int a = 0; a < initialNodes; a++) {
+				for (int b = a + 1; b < initialNodes; b++) {
+					out.writeLink(a, b);
+					ends[endCount++] = a;
+					ends[endCount++] = b;
+				}
+			}
+			for (int node = initialNodes; node < numberOfNodes; node++) {
+				for (int i = 0; i < linksPerNode; i++) {
+					int target;
+					do {
+						target = ends[random.nextInt(endCount)];
+					} while (contains(chosen, i, target));
+					chosen[i] = target;
+					out.writeLink(node, target);
+				}
+				for (int i = 0; i < linksPerNode; i++) {
+					ends[endCount++] = node;
+					ends[endCount++] = chosen[i];
+				}
+			}
+			writeGatewaysAndAgent(out, gateways, agentNode);
+		}
+	}
+
+	/**
+	 * Writes a chain of wheels. Wheel i consists of the ring nodes
+	 * i*(ringSize+2) to i*(ringSize+2)+ringSize-1, followed by its hub and its
+	 * gateway.
+	 *
+	 * @param file
+	 *            the file to write the map to, an existing file is overwritten
+	 * @param numberOfWheels
+	 *            the number of wheels &gt; 0
+	 * @param ringSize
+	 *            the number of nodes on the ring of a wheel &gt; 2
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void writeWheelOfRings(Path file, int numberOfWheels, int ringSize) throws IOException {
+		if (numberOfWheels < 1 || ringSize < 3) {
+			throw new RuntimeException(
+					"Illegal wheels: " + numberOfWheels + " wheels with " + ringSize + " nodes on each ring.");
+		}
+		int wheelSize = ringSize + 2;
+		checkNumberOfNodes((long) numberOfWheels * wheelSize);
+		long numberOfLinks = (long) numberOfWheels * (2 * ringSize + 1) + 3L * (numberOfWheels - 1);
+		int[] gateways = new int[numberOfWheels];
+		for (int i = 0; i < numberOfWheels; i++) {
+			gateways[i] = i * wheelSize + ringSize + 1;
+		}
+
+		try (FileChannel channel = create(file)) {
+			SubnetMap.TextWriter out = new SubnetMap.TextWriter(channel);
+			out.writeLink(checkNumberOfLinks(numberOfLinks), numberOfWheels);
+			for (int i = 0; i < numberOfWheels; i++) {
+				int first = i * wheelSize;
+				int hub = first + ringSize;
+				for (int j = 0; j < ringSize; j++) {
+					out.writeLink(first + j, first + (j + 1) % ringSize);
+					out.writeLink(first + j, hub);
+				}
+				out.writeLink(hub, hub + 1);
+				if (i + 1 < numberOfWheels) {
+					int next = first + wheelSize;
+					out.writeLink(hub - 1, next);
+					out.writeLink(hub - 1, next + 1);
+					out.writeLink(hub, next + ringSize);
+				}
+			}
+			writeGatewaysAndAgent(out, gateways, 0);
+		}
+	}
+
+	/**
+	 * Generates a map with the shape and the parameters given on the command
+	 * line:
+	 * <ul>
+	 * <li>grid width height numberOfGateways seed file</li>
+	 * <li>scalefree numberOfNodes linksPerNode numberOfGateways seed file</li>
+	 * <li>wheels numberOfWheels ringSize file</li>
+	 * </ul>
+	 *
+	 * @param args
+	 *            the shape, its parameters and the file to write the map to
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 6 && args[0].equals("grid")) {
+			writeGrid(Paths.get(args[5]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+					Integer.parseInt(args[3]), Long.parseLong(args[4]));
+		} else if (args.length == 6 && args[0].equals("scalefree")) {
+			writeScaleFree(Paths.get(args[5]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+					Integer.parseInt(args[3]), Long.parseLong(args[4]));
+		} else if (args.length == 4 && args[0].equals("wheels")) {
+			writeWheelOfRings(Paths.get(args[3]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+		} else {
+			System.out.println("Usage: java skynet.SubnetCorpusGenerator grid <width> <height> <gateways> <seed> <file>");
+			System.out.println("       java skynet.SubnetCorpusGenerator scalefree <nodes> <linksPerNode> <gateways> <seed> <file>");
+			System.out.println("       java skynet.SubnetCorpusGenerator wheels <wheels> <ringSize> <file>");
+		}
+	}
+
+	private static void writeGatewaysAndAgent(SubnetMap.TextWriter out, int[] gateways, int agentNode)
+			throws IOException {
+		for (int gateway : gateways) {
+			out.write(gateway, '\n');
+		}
+		out.write(agentNode, '\n');
+		out.flush();
+	}
+
+	/**
+	 * Chooses count different elements by a partial shuffle of candidates.
+	 */
+	private static int[] choose(int[] candidates, int count, RandomGenerator random) {
+		int[] chosen = new int[count];
+		for (int i = 0; i < count; i++) {
+			int j = i + random.nextInt(candidates.length - i);
+			int candidate = candidates[j];
+			candidates[j] = candidates[i];
+			candidates[i] = candidate;
+			chosen[i] = candidate;
+		}
+		return chosen;
+	}
+
+	private static boolean contains(int[] values, int count, int value) {
+		for (int i = 0; i < count; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void checkNumberOfNodes(long numberOfNodes) {
+		if (numberOfNodes > Integer.MAX_VALUE) {
+			throw new RuntimeException("Too many nodes: " + numberOfNodes + ".");
+		}
+	}
+
+	private static int checkNumberOfLinks(long numberOfLinks) {
+		if (numberOfLinks > Integer.MAX_VALUE / 2) {
+			throw new RuntimeException("Too many links: " + numberOfLinks + ".");
+		}
+		return (int) numberOfLinks;
+	}
+
+	private static FileChannel create(Path file) throws IOException {
+		return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+}
@@ -0,0 +1,117 @@
+package skynet;
+
+/**
+ * Describes what has happened in a subnet, see {@link SubnetListener}. The
+ * time and the number of touched nodes are the ones of the whole turn (or of
+ * loading the subnet), so all events of a turn carry the same values.
+ * <p>
+ * A subnet reuses its event for all notifications, so an event is only
+ * valid during the call of the listener.
+ *
+ * @author hto
+ *
+ */
+public final class SubnetEvent {
+
+	private final SubnetBackdoor subnet;
+	long nanos;
+	long touchedNodes;
+	int nodeA;
+	int nodeB;
+	boolean disconnected;
+	int agent;
+	int from;
+	int to;
+	boolean agentStillMoving;
+	boolean agentOnAGateway;
+
+	SubnetEvent(SubnetBackdoor subnet) {
+		this.subnet = subnet;
+	}
+
+	/**
+	 * @return the subnet in which it happened
+	 */
+	public SubnetBackdoor getSubnet() {
+		return this.subnet;
+	}
+
+	/**
+	 * @return the time the turn or loading the subnet took in nanoseconds
+	 */
+	public long getNanos() {
+		return this.nanos;
+	}
+
+	/**
+	 * @return the number of times the steps of a node to the nearest gateway
+	 *         were calculated or repaired during the turn or while loading
+	 */
+	public long getTouchedNodes() {
+		return this.touchedNodes;
+	}
+
+	/**
+	 * @return the first node of the link to disconnect
+	 */
+	public int getNodeA() {
+		return this.nodeA;
+	}
+
+	/**
+	 * @return the second node of the link to disconnect
+	 */
+	public int getNodeB() {
+		return this.nodeB;
+	}
+
+	/**
+	 * @return true if the link existed and was disconnected
+	 */
+	public boolean isDisconnected() {
+		return this.disconnected;
+	}
+
+	/**
+	 * @return the number of the agent which has moved
+	 */
+	public int getAgent() {
+		return this.agent;
+	}
+
+	/**
+	 * @return the node the agent came from
+	 */
+	public int getFrom() {
+		return this.from;
+	}
+
+	/**
+	 * @return the node the agent has moved to
+	 */
+	public int getTo() {
+		return this.to;
+	}
+
+	/**
+	 * @return the status of the game, see
+	 *         {@link SubnetBackdoor#isAgentStillMoving()}
+	 */
+	public boolean isAgentStillMoving() {
+		return this.agentStillMoving;
+	}
+
+	/**
+	 * @return the status of the game, see
+	 *         {@link SubnetBackdoor#isAgentOnAGateway()}
+	 */
+	public boolean isAgentOnAGateway() {
+		return this.agentOnAGateway;
+	}
+
+	@Override
+	public String toString() {
+		return "link " + this.nodeA + " " + this.nodeB + (this.disconnected ? "" : " (not disconnected)") + ", "
+				+ this.nanos + " ns, " + this.touchedNodes + " nodes touched";
+	}
+}
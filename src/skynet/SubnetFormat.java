@@ -0,0 +1,26 @@
+package skynet;
+
+/**
+ * The formats a subnet can be written in, see
+ * {@link SubnetBackdoor#writeTo(java.nio.channels.WritableByteChannel, SubnetFormat)}.
+ *
+ * @author hto
+ *
+ */
+public enum SubnetFormat {
+	/**
+	 * The text format of the maps, see {@link SkynetSubnet#createSubnet(String)}.
+	 * Only the first agent is written.
+	 */
+	TEXT,
+	/**
+	 * An undirected graph for Graphviz. The gateways are drawn as double
+	 * circles and the nodes of the agents are filled.
+	 */
+	DOT,
+	/**
+	 * The binary format of the maps, see {@link SubnetMapConverter}. Only
+	 * the first agent is written.
+	 */
+	BINARY
+}
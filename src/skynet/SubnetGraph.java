@@ -0,0 +1,167 @@
+package skynet;
+
+import java.util.Arrays;
+
+/**
+ * The topology of a Skynet subnet as seen by {@link SkynetSubnet}. Every node
+ * of the subnet is addressed by a dense index from 0 to {@link #size()}-1
+ * which is assigned when the subnet is loaded. The original node ids of the
+ * map are only needed at the border to the {@link SubnetBackdoor} interface.
+ * <p>
+ * Besides the links and their weights a graph also stores the gateway flags
+ * and the number of steps from each node to the nearest gateway. With weights
+ * the steps are the sum of the weights on a shortest way.
+ *
+ * @author hto
+ *
+ */
+interface SubnetGraph {
+
+	/**
+	 * @return the number of nodes in the subnet
+	 */
+	int size();
+
+	/**
+	 * Maps a node id of the map to its dense index.
+	 *
+	 * @param id
+	 *            the node id as used in the map of the subnet
+	 * @return the dense index of the node or -1 if there is no such node
+	 */
+	int indexOf(int id);
+
+	/**
+	 * Maps a dense index back to the node id of the map.
+	 *
+	 * @param index
+	 *            dense index of a node
+	 * @return the node id as used in the map of the subnet
+	 */
+	int idOf(int index);
+
+	/**
+	 * @return an upper bound for the number of neighbours of any node. An
+	 *         array of this size can be passed to
+	 *         {@link #neighbours(int, int[])}.
+	 */
+	int maxDegree();
+
+	/**
+	 * Copies the dense indexes of all nodes currently linked to a node into
+	 * dst, in the order in which a HashMap with their ids as keys iterates
+	 * them, like {@link NodeSubnetGraph} keeps them. Whenever several
+	 * neighbours are equally close to a gateway the agent takes the last of
+	 * them, so every core has to list them in this order, see
+	 * {@link NeighbourOrder}.
+	 *
+	 * @param index
+	 *            dense index of the node
+	 * @param dst
+	 *            array with at least {@link #maxDegree()} elements
+	 * @return the number of neighbours copied into dst
+	 */
+	int neighbours(int index, int[] dst);
+
+	/**
+	 * Copies the dense indexes of all nodes currently linked to a node into
+	 * dst and the weights of their links into weights.
+	 *
+	 * @param index
+	 *            dense index of the node
+	 * @param dst
+	 *            array with at least {@link #maxDegree()} elements
+	 * @param weights
+	 *            array with at least {@link #maxDegree()} elements,
+	 *            weights[i] is the weight of the link to dst[i]
+	 * @return the number of neighbours copied into dst
+	 */
+	default int neighbours(int index, int[] dst, int[] weights) {
+		int count = this.neighbours(index, dst);
+		Arrays.fill(weights, 0, count, 1);
+		return count;
+	}
+
+	/**
+	 * @return the maximum weight of all links, 1 if the links have no weights
+	 */
+	default int maxWeight() {
+		return 1;
+	}
+
+	/**
+	 * @param a
+	 *            dense index of one end of a link
+	 * @param b
+	 *            dense index of the other end of the link. a and b must be
+	 *            linked or must have been linked before.
+	 * @return the weight of the link between a and b, at least 1
+	 */
+	default int weight(int a, int b) {
+		return 1;
+	}
+
+	/**
+	 * Severs the link between two nodes if there is one.
+	 *
+	 * @param a
+	 *            dense index of one end of the link
+	 * @param b
+	 *            dense index of the other end of the link
+	 * @return true if the nodes were linked
+	 */
+	boolean removeLink(int a, int b);
+
+	/**
+	 * Links two nodes again after their link has been severed with
+	 * {@link #removeLink(int, int)}. Links must be restored in the reverse
+	 * order of severing, then the graph is exactly as before.
+	 *
+	 * @param a
+	 *            dense index of one end of the link
+	 * @param b
+	 *            dense index of the other end of the link
+	 */
+	void restoreLink(int a, int b);
+
+	/**
+	 * @param index
+	 *            dense index of a node
+	 * @return true if the node is a gateway
+	 */
+	boolean isGateway(int index);
+
+	/**
+	 * Marks a node as a gateway.
+	 *
+	 * @param index
+	 *            dense index of a node
+	 */
+	void setGateway(int index);
+
+	/**
+	 * @param index
+	 *            dense index of a node
+	 * @return the steps from the node to the nearest gateway or
+	 *         Integer.MAX_VALUE if not (yet) known
+	 */
+	int getSteps(int index);
+
+	/**
+	 * @param index
+	 *            dense index of a node
+	 * @param steps
+	 *            the steps from the node to the nearest gateway
+	 */
+	void setSteps(int index, int steps);
+
+	/**
+	 * Creates an independent copy of the graph with the same links, gateways
+	 * and steps. Severing links or changing steps of the copy does not
+	 * change the graph and vice versa. The gateways must not be changed
+	 * anymore.
+	 *
+	 * @return the copy
+	 */
+	SubnetGraph fork();
+}
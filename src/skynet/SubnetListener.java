@@ -0,0 +1,71 @@
+package skynet;
+
+/**
+ * Is notified about what happens in a subnet, e.g. to measure where the time
+ * of a turn goes. All methods do nothing by default. Example of a listener
+ * which prints slow turns:
+ *
+ * <pre>
+ * <code>
+ *	backdoor.addSubnetListener(new SubnetListener() {
+ *		public void linkSevered(SubnetEvent event) {
+ *			if (event.getNanos() &gt; 1000000) {
+ *				System.out.println("Slow turn: " + event);
+ *			}
+ *		}
+ *	});
+ * </code>
+ * </pre>
+ *
+ * The listeners are called in the thread which plays the turn, after the
+ * turn has been played. The event is reused for the next call, so it must
+ * not be kept. Without listeners a subnet does not even measure the time.
+ *
+ * @author hto
+ *
+ */
+public interface SubnetListener {
+
+	/**
+	 * Called when a subnet has been loaded and the steps of the agents to the
+	 * nearest gateway have been calculated. Only the listeners added by
+	 * {@link SkynetSubnet#addDefaultListener(SubnetListener)} are notified.
+	 *
+	 * @param event
+	 *            the time to build the subnet from its map and the number of
+	 *            steps calculated
+	 */
+	public default void subnetLoaded(SubnetEvent event) {
+	}
+
+	/**
+	 * Called at the end of every turn, that is for every call of
+	 * {@link SubnetBackdoor#disconnectNodesBeforeAgentMovesOn(int, int)}.
+	 *
+	 * @param event
+	 *            the link, whether it was disconnected, the time of the turn
+	 *            and the number of steps repaired or calculated in the turn
+	 */
+	public default void linkSevered(SubnetEvent event) {
+	}
+
+	/**
+	 * Called during a turn for every agent which has moved to another node.
+	 *
+	 * @param event
+	 *            the agent, where it came from and where it is now
+	 */
+	public default void agentMoved(SubnetEvent event) {
+	}
+
+	/**
+	 * Called during a turn if the status of the game has changed, i.e.
+	 * {@link SubnetBackdoor#isAgentStillMoving()} or
+	 * {@link SubnetBackdoor#isAgentOnAGateway()}.
+	 *
+	 * @param event
+	 *            the new status
+	 */
+	public default void statusChanged(SubnetEvent event) {
+	}
+}
@@ -0,0 +1,639 @@
+package skynet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The contents of a map of a Skynet subnet: the links, the gateways and the
+ * initial position of the agent. See {@link SkynetSubnet#createSubnet(String)}
+ * for the text format of a map. A map may also place several agents, but the
+ * formats only store the first of them.
+ * <p>
+ * There is also a compact binary format (file extension .skn) which consists
+ * of little endian integers only:
+ * <ul>
+ * <li>header - the magic number 0x314E4B53 ("SKN1") and the format version
+ * 1, or 2 if the links have weights</li>
+ * <li>l - the number of links</li>
+ * <li>e - the number of gateways</li>
+ * <li>links - l pairs of linked nodes</li>
+ * <li>weights - only in format version 2, the l weights of the links</li>
+ * <li>gateways - e gateway nodes</li>
+ * <li>agent position - the node where the agent is initially positioned</li>
+ * </ul>
+ * A map without weights is written in format version 1, every link has the
+ * weight 1 then.
+ *
+ * @author hto
+ *
+ */
+final class SubnetMap {
+
+	/**
+	 * The first integer of a map in binary format.
+	 */
+	static final int MAGIC = 0x314E4B53;
+
+	/**
+	 * The version of the binary format.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * The version of the binary format with the weights of the links.
+	 */
+	static final int WEIGHTED_VERSION = 2;
+
+	/**
+	 * The first word of a map in text format with the weights of the links.
+	 */
+	static final String WEIGHTED = "weighted";
+
+	private static final int HEADER_SIZE = 16;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// link i connects links.get(2*i) with links.get(2*i+1)
+	final IntBuffer links;
+	final int linkCount;
+	final int[] gateways;
+	final int agentPosition;
+	// agentPositions[0] == agentPosition, the formats only store that one
+	final int[] agentPositions;
+	// weights.get(i) is the weight of link i, null if every link has weight 1
+	final IntBuffer weights;
+
+	/**
+	 * @param links
+	 *            the ends of all links, link i connects links.get(2*i) with
+	 *            links.get(2*i+1)
+	 * @param linkCount
+	 *            the number of links
+	 * @param gateways
+	 *            ids of the gateway nodes
+	 * @param agentPosition
+	 *            id of the initial agent node
+	 */
+	SubnetMap(IntBuffer links, int linkCount, int[] gateways, int agentPosition) {
+		this(links, linkCount, gateways, new int[] { agentPosition });
+	}
+
+	/**
+	 * @param links
+	 *            the ends of all links, link i connects links.get(2*i) with
+	 *            links.get(2*i+1)
+	 * @param linkCount
+	 *            the number of links
+	 * @param gateways
+	 *            ids of the gateway nodes
+	 * @param agentPositions
+	 *            ids of the initial nodes of one or more agents
+	 */
+	SubnetMap(IntBuffer links, int linkCount, int[] gateways, int[] agentPositions) {
+		this(links, linkCount, null, gateways, agentPositions);
+	}
+
+	/**
+	 * @param links
+	 *            the ends of all links, link i connects links.get(2*i) with
+	 *            links.get(2*i+1)
+	 * @param linkCount
+	 *            the number of links
+	 * @param weights
+	 *            the weights of the links, link i has the weight
+	 *            weights.get(i), or null if every link has weight 1
+	 * @param gateways
+	 *            ids of the gateway nodes
+	 * @param agentPositions
+	 *            ids of the initial nodes of one or more agents
+	 */
+	SubnetMap(IntBuffer links, int linkCount, IntBuffer weights, int[] gateways, int[] agentPositions) {
+		if (agentPositions.length == 0) {
+			throw new RuntimeException("Illegal subnet map: there is no agent.");
+		}
+		this.links = links;
+		this.linkCount = linkCount;
+		this.gateways = gateways;
+		this.agentPosition = agentPositions[0];
+		this.agentPositions = agentPositions;
+		this.weights = weights;
+	}
+
+	/**
+	 * Checks the weight of a link.
+	 *
+	 * @param a
+	 *            id of one end of the link
+	 * @param b
+	 *            id of the other end of the link
+	 * @param weight
+	 *            the weight of the link
+	 * @return the weight
+	 * @throws RuntimeException
+	 *             if the weight is less than 1
+	 */
+	static int checkWeight(int a, int b, int weight) {
+		if (weight < 1) {
+			throw new RuntimeException("Illegal subnet map: link " + a + " " + b + " has weight " + weight + ".");
+		}
+		return weight;
+	}
+
+	/**
+	 * @param agentPositions
+	 *            ids of the initial nodes of one or more agents
+	 * @return a map with the same links and gateways but other agents
+	 */
+	SubnetMap withAgents(int[] agentPositions) {
+		return new SubnetMap(this.links, this.linkCount, this.weights, this.gateways, agentPositions.clone());
+	}
+
+	/**
+	 * A map read from a mapped file reads its links from the file as long as
+	 * it is used, so it breaks when the file is changed.
+	 *
+	 * @return this map if its links and weights are on the heap, otherwise a
+	 *         copy of it with the links and weights copied into the heap
+	 */
+	SubnetMap onHeap() {
+		if (!this.links.isDirect() && (this.weights == null || !this.weights.isDirect())) {
+			return this;
+		}
+		return new SubnetMap(copyToHeap(this.links, 2 * this.linkCount), this.linkCount,
+				this.weights == null ? null : copyToHeap(this.weights, this.linkCount), this.gateways,
+				this.agentPositions);
+	}
+
+	private static IntBuffer copyToHeap(IntBuffer buffer, int length) {
+		int[] ints = new int[length];
+		for (int i = 0; i < length; i++) {
+			ints[i] = buffer.get(i);
+		}
+		return IntBuffer.wrap(ints);
+	}
+
+	/**
+	 * Reads a map in text format.
+	 *
+	 * @param in
+	 *            the map, it is not closed
+	 * @return the map
+	 * @throws IOException
+	 *             if the map cannot be read
+	 */
+	static SubnetMap readText(InputStream in) throws IOException {
+		return readText(Channels.newChannel(in));
+	}
+
+	/**
+	 * Reads a map in text format. The integers may be separated by any
+	 * whitespace including blank lines. A map starting with the word
+	 * {@value #WEIGHTED} has weights: every link is followed by its weight.
+	 * Everything after the agent position is ignored.
+	 *
+	 * @param in
+	 *            the map, it is not closed
+	 * @return the map
+	 * @throws IOException
+	 *             if the map cannot be read
+	 */
+	static SubnetMap readText(ReadableByteChannel in) throws IOException {
+		TextReader reader = new TextReader(in);
+		String marker = reader.nextWord();
+		if (marker != null && !marker.equals(WEIGHTED)) {
+			throw new RuntimeException("Illegal subnet map: unexpected word '" + marker + "'.");
+		}
+		boolean weighted = marker != null;
+		int l = reader.nextInt(); // the number of links
+		int e = reader.nextInt(); // the number of exit gateways
+		if (l < 0 || e < 0) {
+			throw new RuntimeException("Illegal subnet map: " + l + " links and " + e + " gateways.");
+		}
+
+		int[] links = new int[2 * l];
+		int[] weights = weighted ? new int[l] : null;
+		for (int i = 0; i < l; i++) {
+			links[2 * i] = reader.nextInt();
+			links[2 * i + 1] = reader.nextInt();
+			if (weighted) {
+				weights[i] = checkWeight(links[2 * i], links[2 * i + 1], reader.nextInt());
+			}
+		}
+		int[] gateways = new int[e];
+		for (int i = 0; i < e; i++) {
+			gateways[i] = reader.nextInt();
+		}
+		int agentPosition = reader.nextInt();
+
+		return new SubnetMap(IntBuffer.wrap(links), l, weights == null ? null : IntBuffer.wrap(weights), gateways,
+				new int[] { agentPosition });
+	}
+
+	/**
+	 * Reads a map in binary format from a stream, e.g. from the class path.
+	 *
+	 * @param in
+	 *            the map, it is not closed
+	 * @return the map
+	 * @throws IOException
+	 *             if the map cannot be read
+	 */
+	static SubnetMap readBinary(InputStream in) throws IOException {
+		ReadableByteChannel channel = Channels.newChannel(in);
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.limit(HEADER_SIZE);
+		readFully(channel, buffer);
+		int l = buffer.getInt(8);
+		int e = buffer.getInt(12);
+		boolean weighted = checkHeader(buffer.getInt(0), buffer.getInt(4), l, e);
+		int w = weighted ? l : 0;
+
+		int[] ints = new int[2 * l + w + e + 1];
+		int count = 0;
+		while (count < ints.length) {
+			buffer.clear();
+			buffer.limit(4 * Math.min(BUFFER_SIZE / 4, ints.length - count));
+			readFully(channel, buffer);
+			buffer.flip();
+			buffer.asIntBuffer().get(ints, count, buffer.remaining() / 4);
+			count += buffer.remaining() / 4;
+		}
+
+		IntBuffer weights = null;
+		if (weighted) {
+			weights = IntBuffer.wrap(ints, 2 * l, l).slice();
+			checkWeights(IntBuffer.wrap(ints, 0, 2 * l), weights, l);
+		}
+		int[] gateways = new int[e];
+		System.arraycopy(ints, 2 * l + w, gateways, 0, e);
+		return new SubnetMap(IntBuffer.wrap(ints, 0, 2 * l), l, weights, gateways,
+				new int[] { ints[2 * l + w + e] });
+	}
+
+	/**
+	 * Maps a file in binary format into memory. The links are read directly
+	 * from the mapped file and are not copied onto the heap.
+	 *
+	 * @param file
+	 *            the map
+	 * @return the map
+	 * @throws IOException
+	 *             if the map cannot be read
+	 */
+	static SubnetMap mapBinary(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				throw new RuntimeException("Illegal subnet map: " + file + " has " + size + " bytes.");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			return readBinary(mapped);
+		}
+	}
+
+	/**
+	 * Reads a map in binary format from a buffer, e.g. from a part of a mapped
+	 * file. The links are read directly from the buffer and are not copied.
+	 *
+	 * @param buffer
+	 *            the map starting at the position of the buffer. Afterwards
+	 *            the position is behind the map.
+	 * @return the map
+	 */
+	static SubnetMap readBinary(ByteBuffer buffer) {
+		ByteBuffer bytes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (bytes.remaining() < HEADER_SIZE) {
+			throw new RuntimeException("Illegal subnet map: unexpected end of map.");
+		}
+		int l = bytes.getInt(8);
+		int e = bytes.getInt(12);
+		boolean weighted = checkHeader(bytes.getInt(0), bytes.getInt(4), l, e);
+		int w = weighted ? l : 0;
+		long size = HEADER_SIZE + 4L * (2L * l + w + e + 1);
+		if (bytes.remaining() < size) {
+			throw new RuntimeException("Illegal subnet map: map is truncated.");
+		}
+
+		bytes.position(HEADER_SIZE);
+		IntBuffer ints = bytes.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		int[] gateways = new int[e];
+		for (int i = 0; i < e; i++) {
+			gateways[i] = ints.get(2 * l + w + i);
+		}
+		int agentPosition = ints.get(2 * l + w + e);
+		IntBuffer weights = null;
+		if (weighted) {
+			ints.limit(3 * l).position(2 * l);
+			weights = ints.slice();
+			ints.position(0);
+		}
+		ints.limit(2 * l);
+		IntBuffer links = ints.slice();
+		if (weighted) {
+			checkWeights(links, weights, l);
+		}
+		buffer.position(buffer.position() + (int) size);
+		return new SubnetMap(links, l, weights, gateways, new int[] { agentPosition });
+	}
+
+	/**
+	 * Writes the map in binary format.
+	 *
+	 * @param out
+	 *            where to write the map to, it is not closed
+	 * @throws IOException
+	 *             if the map cannot be written
+	 */
+	void writeBinary(WritableByteChannel out) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(this.weights == null ? VERSION : WEIGHTED_VERSION).putInt(this.linkCount)
+				.putInt(this.gateways.length);
+		for (int i = 0; i < 2 * this.linkCount; i++) {
+			if (!buffer.hasRemaining()) {
+				writeFully(out, buffer);
+			}
+			buffer.putInt(this.links.get(i));
+		}
+		for (int i = 0; this.weights != null && i < this.linkCount; i++) {
+			if (!buffer.hasRemaining()) {
+				writeFully(out, buffer);
+			}
+			buffer.putInt(this.weights.get(i));
+		}
+		for (int gateway : this.gateways) {
+			if (!buffer.hasRemaining()) {
+				writeFully(out, buffer);
+			}
+			buffer.putInt(gateway);
+		}
+		if (!buffer.hasRemaining()) {
+			writeFully(out, buffer);
+		}
+		buffer.putInt(this.agentPosition);
+		writeFully(out, buffer);
+	}
+
+	/**
+	 * @return true if the links have weights
+	 */
+	private static boolean checkHeader(int magic, int version, int l, int e) {
+		if (magic != MAGIC) {
+			throw new RuntimeException("Illegal subnet map: not in binary format.");
+		}
+		if (version != VERSION && version != WEIGHTED_VERSION) {
+			throw new RuntimeException("Illegal subnet map: unknown binary format version " + version + ".");
+		}
+		if (l < 0 || e < 0 || version == WEIGHTED_VERSION && 3L * l > Integer.MAX_VALUE) {
+			throw new RuntimeException("Illegal subnet map: " + l + " links and " + e + " gateways.");
+		}
+		return version == WEIGHTED_VERSION;
+	}
+
+	private static void checkWeights(IntBuffer links, IntBuffer weights, int l) {
+		for (int i = 0; i < l; i++) {
+			checkWeight(links.get(2 * i), links.get(2 * i + 1), weights.get(i));
+		}
+	}
+
+	private static void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) {
+				throw new RuntimeException("Illegal subnet map: unexpected end of map.");
+			}
+		}
+	}
+
+	private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes a map in text format integer by integer to a channel, so a map
+	 * can be written while it is generated.
+	 */
+	static final class TextWriter {
+		private final WritableByteChannel out;
+		private final ByteBuffer buffer;
+		private final byte[] digits = new byte[11];
+
+		/**
+		 * @param out
+		 *            where to write the map to, it is not closed
+		 */
+		TextWriter(WritableByteChannel out) {
+			this(out, ByteBuffer.allocate(BUFFER_SIZE));
+		}
+
+		/**
+		 * @param out
+		 *            where to write the map to, it is not closed
+		 * @param buffer
+		 *            the buffer to encode the map into, e.g. a reused direct
+		 *            buffer. It must hold at least 64 bytes.
+		 */
+		TextWriter(WritableByteChannel out, ByteBuffer buffer) {
+			this.out = out;
+			this.buffer = buffer;
+			buffer.clear();
+		}
+
+		/**
+		 * Writes an integer followed by a separator.
+		 *
+		 * @param value
+		 *            the integer
+		 * @param separator
+		 *            the character after the integer, usually ' ' or '\n'
+		 * @throws IOException
+		 *             if the map cannot be written
+		 */
+		void write(int value, char separator) throws IOException {
+			this.write(value);
+			this.buffer.put((byte) separator);
+		}
+
+		/**
+		 * Writes an integer followed by a separator of several characters.
+		 *
+		 * @param value
+		 *            the integer
+		 * @param separator
+		 *            the ASCII characters after the integer, e.g. "\r\n"
+		 * @throws IOException
+		 *             if the map cannot be written
+		 */
+		void write(int value, String separator) throws IOException {
+			this.write(value);
+			this.write(separator);
+		}
+
+		/**
+		 * Writes ASCII characters.
+		 *
+		 * @param text
+		 *            the characters
+		 * @throws IOException
+		 *             if the map cannot be written
+		 */
+		void write(String text) throws IOException {
+			for (int i = 0; i < text.length(); i++) {
+				if (!this.buffer.hasRemaining()) {
+					this.flush();
+				}
+				this.buffer.put((byte) text.charAt(i));
+			}
+		}
+
+		private void write(int value) throws IOException {
+			if (this.buffer.remaining() < this.digits.length + 1) {
+				this.flush();
+			}
+			long rest = Math.abs((long) value);
+			int count = 0;
+			do {
+				this.digits[count++] = (byte) ('0' + rest % 10);
+				rest /= 10;
+			} while (rest > 0);
+			if (value < 0) {
+				this.buffer.put((byte) '-');
+			}
+			while (count > 0) {
+				this.buffer.put(this.digits[--count]);
+			}
+		}
+
+		/**
+		 * Writes the ends of a link on a line.
+		 *
+		 * @param a
+		 *            one end of the link
+		 * @param b
+		 *            other end of the link
+		 * @throws IOException
+		 *             if the map cannot be written
+		 */
+		void writeLink(int a, int b) throws IOException {
+			this.write(a, ' ');
+			this.write(b, '\n');
+		}
+
+		/**
+		 * Writes everything which is still buffered to the channel.
+		 *
+		 * @throws IOException
+		 *             if the map cannot be written
+		 */
+		void flush() throws IOException {
+			writeFully(this.out, this.buffer);
+		}
+	}
+
+	/**
+	 * Reads whitespace separated integers byte by byte from a channel.
+	 */
+	private static final class TextReader {
+		private final ReadableByteChannel in;
+		private final byte[] bytes = new byte[BUFFER_SIZE];
+		private final ByteBuffer buffer = ByteBuffer.wrap(this.bytes);
+		private int position = 0;
+		private int limit = 0;
+		// a character which was read ahead, -2 if there is none
+		private int next = -2;
+
+		private TextReader(ReadableByteChannel in) {
+			this.in = in;
+		}
+
+		private int nextInt() throws IOException {
+			int c = this.read();
+			while (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f') {
+				c = this.read();
+			}
+			if (c < 0) {
+				throw new RuntimeException("Illegal subnet map: unexpected end of map.");
+			}
+
+			boolean negative = c == '-';
+			if (negative || c == '+') {
+				c = this.read();
+			}
+			if (c < '0' || c > '9') {
+				throw new RuntimeException("Illegal subnet map: unexpected character '" + (char) c + "'.");
+			}
+			long value = 0;
+			while (c >= '0' && c <= '9') {
+				value = 10 * value + (c - '0');
+				if (value > Integer.MAX_VALUE + 1L) {
+					throw new RuntimeException("Illegal subnet map: number out of range.");
+				}
+				c = this.read();
+			}
+			if (c >= 0 && c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != '\f') {
+				throw new RuntimeException("Illegal subnet map: unexpected character '" + (char) c + "'.");
+			}
+			value = negative ? -value : value;
+			if (value > Integer.MAX_VALUE) {
+				throw new RuntimeException("Illegal subnet map: number out of range.");
+			}
+			// the whitespace after the integer may end the line
+			this.next = c;
+			return (int) value;
+		}
+
+		/**
+		 * @return the next word after the whitespace if it starts with a
+		 *         letter, otherwise null and nothing is read
+		 */
+		private String nextWord() throws IOException {
+			int c = this.read();
+			while (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f') {
+				c = this.read();
+			}
+			if (!Character.isLetter(c)) {
+				this.next = c;
+				return null;
+			}
+			StringBuilder word = new StringBuilder();
+			while (c >= 0 && c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != '\f') {
+				word.append((char) c);
+				c = this.read();
+			}
+			return word.toString();
+		}
+
+		private int read() throws IOException {
+			if (this.next != -2) {
+				int c = this.next;
+				this.next = -2;
+				return c;
+			}
+			if (this.position == this.limit) {
+				this.buffer.clear();
+				int count;
+				do {
+					count = this.in.read(this.buffer);
+				} while (count == 0);
+				if (count < 0) {
+					return -1;
+				}
+				this.position = 0;
+				this.limit = count;
+			}
+			return this.bytes[this.position++] & 0xFF;
+		}
+	}
+}
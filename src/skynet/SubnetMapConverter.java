@@ -0,0 +1,129 @@
+package skynet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Converts maps of Skynet subnets from the text format (see
+ * {@link SkynetSubnet#createSubnet(String)}) to the compact binary format
+ * which can be loaded with
+ * {@link SkynetSubnet#createSubnetFromBinaryFile(Path, SkynetSubnet.Core)}.
+ * <p>
+ * The binary format consists of little endian integers only:
+ * <ul>
+ * <li>header - the magic number 0x314E4B53 ("SKN1") and the format version
+ * 1, or 2 if the links have weights</li>
+ * <li>l - the number of links</li>
+ * <li>e - the number of gateways</li>
+ * <li>links - l pairs of linked nodes</li>
+ * <li>weights - only in format version 2, the l weights of the links</li>
+ * <li>gateways - e gateway nodes</li>
+ * <li>agent position - the node where the agent is initially positioned</li>
+ * </ul>
+ * Example for converting all the maps in the data folder:
+ * 
+ * <pre>
+ * <code>
+ *	java skynet.SubnetMapConverter data/defaultSubnet.txt data/subnetAlpha.txt data/subnetBeta.txt data/subnetGamma.txt
+ * </code>
+ * </pre>
+ * 
+ * With the option -p maps in text or binary format are converted to the
+ * partitioned format (file extension .skp), which is loaded lazily by
+ * {@link SkynetSubnet#createSubnetFromPartitionedFile(Path)}:
+ * 
+ * <pre>
+ * <code>
+ *	java skynet.SubnetMapConverter -p huge.skn
+ * </code>
+ * </pre>
+ * 
+ * @author hto
+ *
+ */
+public class SubnetMapConverter {
+
+	/**
+	 * Converts a map from text format to binary format.
+	 * 
+	 * @param textMap
+	 *            the file with the map in text format
+	 * @param binaryMap
+	 *            the file to write the map in binary format to. An existing
+	 *            file is overwritten.
+	 * @throws IOException
+	 *             if one of the files cannot be read or written
+	 */
+	public static void convert(Path textMap, Path binaryMap) throws IOException {
+		SubnetMap map;
+		try (InputStream in = Files.newInputStream(textMap)) {
+			map = SubnetMap.readText(in);
+		}
+		try (FileChannel out = FileChannel.open(binaryMap, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			map.writeBinary(out);
+		}
+	}
+
+	/**
+	 * Converts a map from text or binary format to partitioned format. The
+	 * links are sorted off the heap, so the heap only has to hold the map if
+	 * it is in text format.
+	 * 
+	 * @param map
+	 *            the file with the map, in binary format if its name ends
+	 *            with .skn and in text format otherwise
+	 * @param partitionedMap
+	 *            the file to write the map in partitioned format to. An
+	 *            existing file is overwritten.
+	 * @throws IOException
+	 *             if one of the files cannot be read or written
+	 */
+	public static void partition(Path map, Path partitionedMap) throws IOException {
+		SubnetMap subnetMap;
+		if (map.getFileName().toString().endsWith(".skn")) {
+			subnetMap = SubnetMap.mapBinary(map);
+		} else {
+			try (InputStream in = Files.newInputStream(map)) {
+				subnetMap = SubnetMap.readText(in);
+			}
+		}
+		PartitionedSubnetGraph.write(subnetMap, partitionedMap);
+	}
+
+	/**
+	 * Converts each map given on the command line into a file with the same
+	 * name but the extension .skn, or .skp with the option -p.
+	 * 
+	 * @param args
+	 *            optionally -p, then the files with the maps in text format
+	 *            or, with -p, also in binary format
+	 * @throws IOException
+	 *             if one of the files cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean partitioned = args.length > 0 && args[0].equals("-p");
+		if (args.length == (partitioned ? 1 : 0)) {
+			System.out.println("Usage: java skynet.SubnetMapConverter [-p] <map> ...");
+			return;
+		}
+		for (int i = partitioned ? 1 : 0; i < args.length; i++) {
+			Path map = Paths.get(args[i]);
+			String name = map.getFileName().toString();
+			int dot = name.lastIndexOf('.');
+			String baseName = dot > 0 ? name.substring(0, dot) : name;
+			Path converted = map.resolveSibling(baseName + (partitioned ? ".skp" : ".skn"));
+			if (partitioned) {
+				partition(map, converted);
+			} else {
+				convert(map, converted);
+			}
+			System.out.println(map + " -> " + converted);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package skynet;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects counters and histograms over all turns of all subnets it listens
+ * to and publishes them as a JMX MBean. Example of monitoring all subnets
+ * created from now on:
+ *
+ * <pre>
+ * <code>
+ *	SubnetMonitor monitor = new SubnetMonitor();
+ *	monitor.registerMBean();
+ *	SkynetSubnet.addDefaultListener(monitor);
+ * </code>
+ * </pre>
+ *
+ * A monitor may listen to subnets played in different threads at once.
+ *
+ * @author hto
+ *
+ */
+public class SubnetMonitor implements SubnetListener, SubnetMonitorMBean {
+
+	/**
+	 * The name under which {@link #registerMBean()} registers the monitor.
+	 */
+	public static final String OBJECT_NAME = "skynet:type=SubnetMonitor";
+
+	private final LongAdder loadedSubnets = new LongAdder();
+	private final LongAdder turns = new LongAdder();
+	private final LongAdder disconnectedLinks = new LongAdder();
+	private final LongAdder agentMoves = new LongAdder();
+	private final LongAdder lostGames = new LongAdder();
+	private final LongAdder wonGames = new LongAdder();
+	private final LongAdder touchedNodes = new LongAdder();
+
+	// guarded by themselves
+	private final LatencyHistogram turnNanos = new LatencyHistogram();
+	private final LatencyHistogram touchedNodesPerTurn = new LatencyHistogram();
+	private final LatencyHistogram loadNanos = new LatencyHistogram();
+
+	/**
+	 * Registers the monitor in the platform MBean server under
+	 * {@link #OBJECT_NAME}.
+	 */
+	public void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			throw new RuntimeException("Subnet monitor cannot be registered as " + OBJECT_NAME + ".", e);
+		}
+	}
+
+	/**
+	 * Removes the monitor from the platform MBean server.
+	 */
+	public void unregisterMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			throw new RuntimeException("Subnet monitor cannot be unregistered as " + OBJECT_NAME + ".", e);
+		}
+	}
+
+	@Override
+	public void subnetLoaded(SubnetEvent event) {
+		this.loadedSubnets.increment();
+		this.touchedNodes.add(event.getTouchedNodes());
+		synchronized (this.loadNanos) {
+			this.loadNanos.record(event.getNanos());
+		}
+	}
+
+	@Override
+	public void linkSevered(SubnetEvent event) {
+		this.turns.increment();
+		if (event.isDisconnected()) {
+			this.disconnectedLinks.increment();
+		}
+		this.touchedNodes.add(event.getTouchedNodes());
+		synchronized (this.turnNanos) {
+			this.turnNanos.record(event.getNanos());
+		}
+		synchronized (this.touchedNodesPerTurn) {
+			this.touchedNodesPerTurn.record(event.getTouchedNodes());
+		}
+	}
+
+	@Override
+	public void agentMoved(SubnetEvent event) {
+		this.agentMoves.increment();
+	}
+
+	@Override
+	public void statusChanged(SubnetEvent event) {
+		if (!event.isAgentStillMoving()) {
+			if (event.isAgentOnAGateway()) {
+				this.lostGames.increment();
+			} else {
+				this.wonGames.increment();
+			}
+		}
+	}
+
+	@Override
+	public long getLoadedSubnets() {
+		return this.loadedSubnets.sum();
+	}
+
+	@Override
+	public long getTurns() {
+		return this.turns.sum();
+	}
+
+	@Override
+	public long getDisconnectedLinks() {
+		return this.disconnectedLinks.sum();
+	}
+
+	@Override
+	public long getAgentMoves() {
+		return this.agentMoves.sum();
+	}
+
+	@Override
+	public long getLostGames() {
+		return this.lostGames.sum();
+	}
+
+	@Override
+	public long getWonGames() {
+		return this.wonGames.sum();
+	}
+
+	@Override
+	public long getTouchedNodes() {
+		return this.touchedNodes.sum();
+	}
+
+	@Override
+	public long getTurnNanosP50() {
+		return percentile(this.turnNanos, 50);
+	}
+
+	@Override
+	public long getTurnNanosP90() {
+		return percentile(this.turnNanos, 90);
+	}
+
+	@Override
+	public long getTurnNanosP99() {
+		return percentile(this.turnNanos, 99);
+	}
+
+	@Override
+	public long getTurnNanosMax() {
+		synchronized (this.turnNanos) {
+			return this.turnNanos.getMax();
+		}
+	}
+
+	@Override
+	public long getTouchedNodesPerTurnP99() {
+		return percentile(this.touchedNodesPerTurn, 99);
+	}
+
+	@Override
+	public long getLoadNanosP50() {
+		return percentile(this.loadNanos, 50);
+	}
+
+	@Override
+	public long getLoadNanosMax() {
+		synchronized (this.loadNanos) {
+			return this.loadNanos.getMax();
+		}
+	}
+
+	@Override
+	public void reset() {
+		this.loadedSubnets.reset();
+		this.turns.reset();
+		this.disconnectedLinks.reset();
+		this.agentMoves.reset();
+		this.lostGames.reset();
+		this.wonGames.reset();
+		this.touchedNodes.reset();
+		synchronized (this.turnNanos) {
+			this.turnNanos.clear();
+		}
+		synchronized (this.touchedNodesPerTurn) {
+			this.touchedNodesPerTurn.clear();
+		}
+		synchronized (this.loadNanos) {
+			this.loadNanos.clear();
+		}
+	}
+
+	private static long percentile(LatencyHistogram histogram, double percentile) {
+		synchronized (histogram) {
+			return histogram.getPercentile(percentile);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d subnets loaded, %d turns, %d links disconnected, %d games won, %d games lost, "
+				+ "turn p50 %d ns, p99 %d ns, max %d ns", this.getLoadedSubnets(), this.getTurns(),
+				this.getDisconnectedLinks(), this.getWonGames(), this.getLostGames(), this.getTurnNanosP50(),
+				this.getTurnNanosP99(), this.getTurnNanosMax());
+	}
+}
@@ -0,0 +1,88 @@
+package skynet;
+
+/**
+ * The management interface of a {@link SubnetMonitor}, e.g. for JConsole.
+ * All times are in nanoseconds.
+ *
+ * @author hto
+ *
+ */
+public interface SubnetMonitorMBean {
+
+	/**
+	 * @return the number of subnets loaded
+	 */
+	public long getLoadedSubnets();
+
+	/**
+	 * @return the number of turns played
+	 */
+	public long getTurns();
+
+	/**
+	 * @return the number of links disconnected
+	 */
+	public long getDisconnectedLinks();
+
+	/**
+	 * @return the number of moves of agents to another node
+	 */
+	public long getAgentMoves();
+
+	/**
+	 * @return the number of games in which an agent has reached a gateway
+	 */
+	public long getLostGames();
+
+	/**
+	 * @return the number of games in which no agent can reach a gateway
+	 *         anymore
+	 */
+	public long getWonGames();
+
+	/**
+	 * @return the number of times the steps of a node were calculated or
+	 *         repaired in all turns and loads
+	 */
+	public long getTouchedNodes();
+
+	/**
+	 * @return the median time of a turn
+	 */
+	public long getTurnNanosP50();
+
+	/**
+	 * @return the 90th percentile of the time of a turn
+	 */
+	public long getTurnNanosP90();
+
+	/**
+	 * @return the 99th percentile of the time of a turn
+	 */
+	public long getTurnNanosP99();
+
+	/**
+	 * @return the time of the slowest turn
+	 */
+	public long getTurnNanosMax();
+
+	/**
+	 * @return the 99th percentile of the nodes touched in a turn
+	 */
+	public long getTouchedNodesPerTurnP99();
+
+	/**
+	 * @return the median time to load a subnet
+	 */
+	public long getLoadNanosP50();
+
+	/**
+	 * @return the time of the slowest load
+	 */
+	public long getLoadNanosMax();
+
+	/**
+	 * Sets all counters and histograms back to 0.
+	 */
+	public void reset();
+}
@@ -0,0 +1,30 @@
+package skynet;
+
+/**
+ * A player of the back door game, e.g. a {@link SubnetSolver}. Example of a
+ * player who just watches the agent:
+ * 
+ * <pre>
+ * <code>
+ *	SubnetPlayer watcher = subnet -&gt; {
+ *		while (subnet.isAgentStillMoving()) {
+ *			subnet.disconnectNodesBeforeAgentMovesOn(99, 999);
+ *		}
+ *	};
+ * </code>
+ * </pre>
+ * 
+ * @author hto
+ *
+ */
+@FunctionalInterface
+public interface SubnetPlayer {
+
+	/**
+	 * Plays a game until the agent is not moving anymore.
+	 * 
+	 * @param subnet
+	 *            the subnet to play on
+	 */
+	public void play(SubnetBackdoor subnet);
+}
@@ -0,0 +1,197 @@
+package skynet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records a game in a replay log, so that it can be played again with
+ * {@link SubnetReplayer}. Example:
+ *
+ * <pre>
+ * <code>
+ *	try (SubnetRecorder recorder = SubnetRecorder.record(backdoor, Paths.get("game.skr"))) {
+ *		... play the game ...
+ *	}
+ * </code>
+ * </pre>
+ *
+ * The log starts with the subnet as it is when the recording starts, so a
+ * game can also be recorded from the middle. It keeps the whole map and the
+ * links severed before, so the replay severs them again and builds the same
+ * graph as the recorded game. Then a record is appended for every turn. The
+ * log consists of little endian integers only:
+ * <ul>
+ * <li>header - the magic number 0x31524B53 ("SKR1") and the format version
+ * 2</li>
+ * <li>core - the ordinal of the {@link SkynetSubnet.Core} of the recorded
+ * game</li>
+ * <li>k - the number of agents</li>
+ * <li>agent positions - the k nodes where the agents are</li>
+ * <li>s - the number of links severed before the recording started</li>
+ * <li>severed links - s pairs of nodes</li>
+ * <li>map - all links of the map with their weights if they have any, the
+ * gateways and the position of the first agent in the binary map format, see
+ * {@link SubnetMapConverter}</li>
+ * <li>turns - for every turn the two nodes passed to
+ * {@link SubnetBackdoor#disconnectNodesBeforeAgentMovesOn(int, int)}, the
+ * result flags (1 if the link was disconnected, 2 if an agent is still
+ * moving, 4 if an agent is on a gateway) and the k agent positions after the
+ * turn</li>
+ * </ul>
+ * The records are collected in a buffer and appended to the file when it is
+ * full, on {@link #flush()} and on {@link #close()}. If the program dies
+ * before, the log just ends earlier. Turns which are undone or rolled back
+ * are not removed from the log, so such a game cannot be replayed.
+ *
+ * @author hto
+ *
+ */
+public final class SubnetRecorder implements SubnetListener, Closeable {
+
+	/**
+	 * The first integer of a replay log.
+	 */
+	static final int MAGIC = 0x31524B53;
+
+	/**
+	 * The version of the replay log format.
+	 */
+	static final int VERSION = 2;
+
+	// the result flags of a turn
+	static final int DISCONNECTED = 1;
+	static final int STILL_MOVING = 2;
+	static final int ON_A_GATEWAY = 4;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final SubnetBackdoor subnet;
+	private final Path log;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final int agentCount;
+	private long turns = 0;
+
+	private SubnetRecorder(SubnetBackdoor subnet, Path log, FileChannel channel) {
+		this.subnet = subnet;
+		this.log = log;
+		this.channel = channel;
+		this.agentCount = subnet.getAgentCount();
+		int recordSize = 4 * (3 + this.agentCount);
+		this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, recordSize)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Starts to record a game. An existing log is overwritten.
+	 *
+	 * @param subnet
+	 *            the subnet in which the game is played
+	 * @param log
+	 *            the file to write the log to
+	 * @return the recorder, which has to be closed at the end of the game
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public static SubnetRecorder record(SubnetBackdoor subnet, Path log) throws IOException {
+		FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			int[] agentPositions = subnet.getAgentPositions();
+			SkynetSubnet skynetSubnet = subnet instanceof SkynetSubnet ? (SkynetSubnet) subnet : null;
+			SkynetSubnet.Core core = skynetSubnet == null ? SkynetSubnet.Core.NODES : skynetSubnet.getCore();
+			// other subnets only provide the links which are not severed
+			int[] severedLinks = skynetSubnet == null ? new int[0] : skynetSubnet.getSeveredLinks();
+			ByteBuffer header = ByteBuffer.allocate(4 * (5 + agentPositions.length + severedLinks.length))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(core.ordinal()).putInt(agentPositions.length);
+			for (int agentPosition : agentPositions) {
+				header.putInt(agentPosition);
+			}
+			header.putInt(severedLinks.length / 2);
+			for (int node : severedLinks) {
+				header.putInt(node);
+			}
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			if (skynetSubnet == null) {
+				subnet.writeTo(channel, SubnetFormat.BINARY);
+			} else {
+				skynetSubnet.writeWholeMapTo(channel);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		SubnetRecorder recorder = new SubnetRecorder(subnet, log, channel);
+		subnet.addSubnetListener(recorder);
+		return recorder;
+	}
+
+	@Override
+	public void linkSevered(SubnetEvent event) {
+		if (this.buffer.remaining() < 4 * (3 + this.agentCount)) {
+			try {
+				this.flush();
+			} catch (IOException e) {
+				throw new RuntimeException("Replay log " + this.log + " cannot be written.", e);
+			}
+		}
+		int flags = (event.isDisconnected() ? DISCONNECTED : 0) | (event.isAgentStillMoving() ? STILL_MOVING : 0)
+				| (event.isAgentOnAGateway() ? ON_A_GATEWAY : 0);
+		this.buffer.putInt(event.getNodeA()).putInt(event.getNodeB()).putInt(flags);
+		if (this.agentCount == 1) {
+			this.buffer.putInt(this.subnet.getAgentPosition());
+		} else {
+			for (int agentPosition : this.subnet.getAgentPositions()) {
+				this.buffer.putInt(agentPosition);
+			}
+		}
+		this.turns++;
+	}
+
+	/**
+	 * @return the number of turns recorded so far
+	 */
+	public long getTurns() {
+		return this.turns;
+	}
+
+	/**
+	 * Appends the turns recorded so far to the log.
+	 *
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void flush() throws IOException {
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+	}
+
+	/**
+	 * Stops recording and closes the log.
+	 *
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.channel.isOpen()) {
+			this.subnet.removeSubnetListener(this);
+			try {
+				this.flush();
+			} finally {
+				this.channel.close();
+			}
+		}
+	}
+}
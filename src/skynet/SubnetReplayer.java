@@ -0,0 +1,240 @@
+package skynet;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays a game recorded by {@link SubnetRecorder} again and checks that the
+ * agents take the same ways. The log is mapped into memory, so a replay
+ * costs hardly more than the turns themselves. Example:
+ *
+ * <pre>
+ * <code>
+ *	SubnetReplayer replayer = new SubnetReplayer(Paths.get("game.skr"));
+ *	SubnetBackdoor subnet = replayer.replay(SkynetSubnet.Core.CSR);
+ * </code>
+ * </pre>
+ *
+ * A log which ends in the middle of a turn, e.g. because the recording
+ * program died, is replayed up to the last complete turn. The links severed
+ * before the recording started are severed again before the first turn.
+ * Other graph cores than the recorded one usually play the same game,
+ * because all cores list the neighbours of a node in the same order. The
+ * exception are the rare nodes described at {@link SkynetSubnet.Core}: once
+ * links of such a node have been severed, {@link SkynetSubnet.Core#NODES}
+ * may break the ties between its neighbours differently than the other
+ * cores, so {@link #replay(SkynetSubnet.Core)} on another core than the
+ * recorded one may report a divergence for such maps.
+ *
+ * @author hto
+ *
+ */
+public final class SubnetReplayer {
+
+	private static final int HEADER_SIZE = 16;
+
+	private final Path log;
+	private final SkynetSubnet.Core core;
+	private final int[] agentPositions;
+	private final int[] severedLinks;
+	private final SubnetMap map;
+	// the records of all complete turns
+	private final IntBuffer turns;
+	private final int recordSize;
+
+	/**
+	 * Opens a replay log.
+	 *
+	 * @param log
+	 *            the file written by {@link SubnetRecorder}
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	public SubnetReplayer(Path log) throws IOException {
+		this.log = log;
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				throw new RuntimeException("Illegal replay log: " + log + " has " + size + " bytes.");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.getInt(0) != SubnetRecorder.MAGIC) {
+				throw new RuntimeException("Illegal replay log: " + log + " is not a replay log.");
+			}
+			if (mapped.getInt(4) != SubnetRecorder.VERSION) {
+				throw new RuntimeException("Illegal replay log: unknown format version " + mapped.getInt(4) + ".");
+			}
+			int core = mapped.getInt(8);
+			if (core < 0 || core >= SkynetSubnet.Core.values().length) {
+				throw new RuntimeException("Illegal replay log: unknown graph core " + core + ".");
+			}
+			this.core = SkynetSubnet.Core.values()[core];
+			int agentCount = mapped.getInt(12);
+			if (agentCount < 1 || size < HEADER_SIZE + 4L * agentCount + 4) {
+				throw new RuntimeException("Illegal replay log: " + log + " is truncated.");
+			}
+			this.agentPositions = new int[agentCount];
+			for (int i = 0; i < agentCount; i++) {
+				this.agentPositions[i] = mapped.getInt(HEADER_SIZE + 4 * i);
+			}
+			int severed = HEADER_SIZE + 4 * agentCount;
+			int severedCount = mapped.getInt(severed);
+			if (severedCount < 0 || size < severed + 4 + 8L * severedCount) {
+				throw new RuntimeException("Illegal replay log: " + log + " is truncated.");
+			}
+			this.severedLinks = new int[2 * severedCount];
+			for (int i = 0; i < this.severedLinks.length; i++) {
+				this.severedLinks[i] = mapped.getInt(severed + 4 + 4 * i);
+			}
+			mapped.position(severed + 4 + 8 * severedCount);
+			this.map = SubnetMap.readBinary(mapped).withAgents(this.agentPositions);
+
+			this.recordSize = 3 + agentCount;
+			IntBuffer turns = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			turns.limit(turns.remaining() / this.recordSize * this.recordSize);
+			this.turns = turns.slice();
+		}
+	}
+
+	/**
+	 * @return the graph core the game was recorded on
+	 */
+	public SkynetSubnet.Core getCore() {
+		return this.core;
+	}
+
+	/**
+	 * @return the number of agents in the recorded game
+	 */
+	public int getAgentCount() {
+		return this.agentPositions.length;
+	}
+
+	/**
+	 * @return the number of complete turns in the log
+	 */
+	public int getTurns() {
+		return this.turns.limit() / this.recordSize;
+	}
+
+	/**
+	 * Creates the subnet as it was when the recording started.
+	 *
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @return the subnet before the first recorded turn
+	 */
+	public SubnetBackdoor createSubnet(SkynetSubnet.Core core) {
+		return SkynetSubnet.createSubnet(this.map, this.severedLinks, core);
+	}
+
+	/**
+	 * Replays all turns of the log in a new subnet on the graph core the game
+	 * was recorded on.
+	 *
+	 * @return the subnet after the last turn
+	 * @throws RuntimeException
+	 *             if a link is disconnected or not disconnected, the status
+	 *             of the game or the position of an agent differs from the
+	 *             log
+	 */
+	public SubnetBackdoor replay() {
+		return this.replay(this.core);
+	}
+
+	/**
+	 * Replays all turns of the log in a new subnet. On another core than the
+	 * recorded one a map may diverge from the log, see the class comment.
+	 *
+	 * @param core
+	 *            the graph core to build the subnet on
+	 * @return the subnet after the last turn
+	 * @throws RuntimeException
+	 *             if a link is disconnected or not disconnected, the status
+	 *             of the game or the position of an agent differs from the
+	 *             log
+	 */
+	public SubnetBackdoor replay(SkynetSubnet.Core core) {
+		return this.replay(this.createSubnet(core), this.getTurns());
+	}
+
+	/**
+	 * Replays the first turns of the log in a subnet.
+	 *
+	 * @param subnet
+	 *            a subnet created by {@link #createSubnet(SkynetSubnet.Core)}
+	 *            or a fork of it
+	 * @param turns
+	 *            the number of turns to replay
+	 * @return the subnet
+	 * @throws RuntimeException
+	 *             if a link is disconnected or not disconnected, the status
+	 *             of the game or the position of an agent differs from the
+	 *             log
+	 */
+	public SubnetBackdoor replay(SubnetBackdoor subnet, int turns) {
+		IntBuffer records = this.turns.duplicate();
+		int agentCount = this.agentPositions.length;
+		for (int turn = 0; turn < turns; turn++) {
+			int a = records.get();
+			int b = records.get();
+			int flags = records.get();
+			boolean disconnected = subnet.disconnectNodesBeforeAgentMovesOn(a, b);
+			int replayedFlags = (disconnected ? SubnetRecorder.DISCONNECTED : 0)
+					| (subnet.isAgentStillMoving() ? SubnetRecorder.STILL_MOVING : 0)
+					| (subnet.isAgentOnAGateway() ? SubnetRecorder.ON_A_GATEWAY : 0);
+			if (replayedFlags != flags) {
+				throw new RuntimeException("Replay of " + this.log + " diverged in turn " + turn + " (" + a + " " + b
+						+ "): result flags are " + replayedFlags + " instead of " + flags + ".");
+			}
+			if (agentCount == 1) {
+				this.checkAgent(turn, 0, subnet.getAgentPosition(), records.get());
+			} else {
+				int[] agentPositions = subnet.getAgentPositions();
+				for (int i = 0; i < agentCount; i++) {
+					this.checkAgent(turn, i, agentPositions[i], records.get());
+				}
+			}
+		}
+		return subnet;
+	}
+
+	private void checkAgent(int turn, int agent, int position, int recordedPosition) {
+		if (position != recordedPosition) {
+			throw new RuntimeException("Replay of " + this.log + " diverged in turn " + turn + ": agent " + agent
+					+ " is on node " + position + " instead of " + recordedPosition + ".");
+		}
+	}
+
+	/**
+	 * Replays a log and prints how long it took.
+	 *
+	 * @param args
+	 *            the replay log and optionally the graph core, the recorded
+	 *            one by default
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: java skynet.SubnetReplayer <game.skr> [NODES|CSR|OFF_HEAP]");
+			return;
+		}
+		SubnetReplayer replayer = new SubnetReplayer(Paths.get(args[0]));
+		SkynetSubnet.Core core = args.length > 1 ? SkynetSubnet.Core.valueOf(args[1]) : replayer.getCore();
+		SubnetBackdoor subnet = replayer.createSubnet(core);
+		long start = System.nanoTime();
+		replayer.replay(subnet, replayer.getTurns());
+		long nanos = Math.max(1, System.nanoTime() - start);
+		System.out.println(replayer.getTurns() + " turns replayed in " + nanos / 1000000 + " ms ("
+				+ replayer.getTurns() * 1000000000L / nanos + " turns/s), agent "
+				+ (subnet.isAgentOnAGateway() ? "on a gateway" : subnet.isAgentStillMoving() ? "still moving" : "caught"));
+	}
+}
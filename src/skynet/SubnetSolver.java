@@ -0,0 +1,538 @@
+package skynet;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A reference solver for the back door game: it plays a whole game against a
+ * subnet and tries to cut the agent off from all gateways with as few
+ * disconnected links as possible.
+ * <p>
+ * Only links to gateways are disconnected. The candidates are ordered by
+ * urgency: a node with k links to gateways needs k-1 more disconnected links
+ * than the agent needs turns to reach it, and only the nodes on the way which
+ * are not linked to a gateway give the player time to spare. So nodes which
+ * are linked to several gateways are disconnected first if the agent can
+ * reach them soon. Playing the most urgent candidate every turn is the fast
+ * default (a time limit of 0).
+ * <p>
+ * With a time limit every turn the most urgent candidates are searched in
+ * parallel on forks of the subnet by a fork/join pool. Each task deepens a
+ * search over the most urgent candidates until the time is up, using
+ * {@link SubnetBackdoor#mark()} and {@link SubnetBackdoor#rollbackTo(int)}
+ * to try the moves, and plays the fast default to the end of the game at the
+ * leaves. The candidate which wins with the fewest disconnected links or,
+ * if none wins, which keeps the agent away from the gateways for the most
+ * turns, is played.
+ *
+ * @author hto
+ *
+ */
+public class SubnetSolver implements SubnetPlayer {
+
+	// the number of candidates searched at the top and within the search
+	private static final int TOP_CANDIDATES = 16;
+	private static final int SEARCH_CANDIDATES = 4;
+
+	// scores of games won are above WIN, the fewer links the higher
+	private static final long WIN = 1L << 40;
+
+	private final long timePerTurn;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a solver which searches in the common fork/join pool.
+	 *
+	 * @param timePerTurn
+	 *            the time to search for the best link every turn, 0 to play
+	 *            the most urgent candidate without searching
+	 * @param unit
+	 *            the unit of the time
+	 */
+	public SubnetSolver(long timePerTurn, TimeUnit unit) {
+		this(timePerTurn, unit, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a solver.
+	 *
+	 * @param timePerTurn
+	 *            the time to search for the best link every turn, 0 to play
+	 *            the most urgent candidate without searching
+	 * @param unit
+	 *            the unit of the time
+	 * @param pool
+	 *            the pool which runs the searches
+	 */
+	public SubnetSolver(long timePerTurn, TimeUnit unit, ForkJoinPool pool) {
+		this.timePerTurn = unit.toNanos(timePerTurn);
+		this.pool = pool;
+	}
+
+	/**
+	 * Plays a game against a subnet until the agent has reached a gateway or
+	 * cannot reach any gateway anymore.
+	 *
+	 * @param subnet
+	 *            the subnet with a single agent, the game is played on it
+	 * @return the links disconnected and the statistics of the search
+	 */
+	public Result solve(SubnetBackdoor subnet) {
+		if (subnet.getAgentCount() != 1) {
+			throw new RuntimeException("The solver can only play against a single agent, not against "
+					+ subnet.getAgentCount() + ".");
+		}
+		long start = System.nanoTime();
+		LongAdder expanded = new LongAdder();
+		Position position = new Position(subnet);
+		Result result = new Result();
+		int[] candidates = new int[2 * TOP_CANDIDATES];
+		while (subnet.isAgentStillMoving()) {
+			int count = position.candidates(candidates, TOP_CANDIDATES);
+			if (count == 0) {
+				break;
+			}
+			int best = 0;
+			if (count > 1 && this.timePerTurn > 0) {
+				best = this.search(subnet, position, candidates, count, System.nanoTime() + this.timePerTurn,
+						expanded);
+			}
+			int a = candidates[2 * best];
+			int b = candidates[2 * best + 1];
+			int idA = position.graph.idOf(a);
+			int idB = position.graph.idOf(b);
+			subnet.disconnectNodesBeforeAgentMovesOn(idA, idB);
+			position.sever(a, b);
+			expanded.increment();
+			result.add(idA, idB);
+		}
+		result.won = !subnet.isAgentStillMoving() && !subnet.isAgentOnAGateway();
+		result.expanded = expanded.sum();
+		result.elapsed = System.nanoTime() - start;
+		return result;
+	}
+
+	@Override
+	public void play(SubnetBackdoor subnet) {
+		this.solve(subnet);
+	}
+
+	/**
+	 * Searches all candidates in parallel.
+	 *
+	 * @return the index of the best candidate
+	 */
+	private int search(SubnetBackdoor subnet, Position position, int[] candidates, int count, long deadline,
+			LongAdder expanded) {
+		List<Search> searches = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			SubnetBackdoor fork = subnet.fork();
+			searches.add(new Search(fork, position.fork(fork), candidates[2 * i], candidates[2 * i + 1], deadline,
+					expanded));
+		}
+		this.pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(searches);
+			}
+		});
+		int best = 0;
+		for (int i = 1; i < count; i++) {
+			if (searches.get(i).score > searches.get(best).score) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * The search of one candidate on its own fork of the subnet.
+	 */
+	private static final class Search extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final SubnetBackdoor subnet;
+		private final Position position;
+		private final int a;
+		private final int b;
+		private final long deadline;
+		private final LongAdder expanded;
+		private long count = 0;
+		private int[][] candidates = new int[0][];
+		private long score = Long.MIN_VALUE;
+		// true if the last depth did not reach the end of every game
+		private boolean cut;
+
+		private Search(SubnetBackdoor subnet, Position position, int a, int b, long deadline,
+				LongAdder expanded) {
+			this.subnet = subnet;
+			this.position = position;
+			this.a = a;
+			this.b = b;
+			this.deadline = deadline;
+			this.expanded = expanded;
+		}
+
+		@Override
+		protected void compute() {
+			this.subnet.mark();
+			this.play(this.a, this.b);
+			// deepen the search until the time is up, only complete depths
+			// count
+			for (int depth = 0; depth < Integer.MAX_VALUE; depth++) {
+				this.cut = false;
+				long score = this.search(depth, 1);
+				if (score == Long.MIN_VALUE) {
+					break;
+				}
+				this.score = score;
+				if (!this.cut || System.nanoTime() > this.deadline) {
+					// a deeper search would not find anything new
+					break;
+				}
+			}
+			this.subnet.clearJournal();
+			this.expanded.add(this.count);
+		}
+
+		/**
+		 * @param depth
+		 *            the number of moves to search before the rollout
+		 * @param turns
+		 *            the number of turns played so far
+		 * @return the score or Long.MIN_VALUE if the time is up
+		 */
+		private long search(int depth, int turns) {
+			this.count++;
+			if (!this.subnet.isAgentStillMoving()) {
+				return score(this.subnet, turns);
+			}
+			if (depth == 0) {
+				this.cut = true;
+				return this.rollout(turns);
+			}
+			if (System.nanoTime() > this.deadline) {
+				return Long.MIN_VALUE;
+			}
+			if (this.candidates.length <= depth) {
+				this.candidates = Arrays.copyOf(this.candidates, depth + 1);
+			}
+			if (this.candidates[depth] == null) {
+				this.candidates[depth] = new int[2 * SEARCH_CANDIDATES];
+			}
+			int[] candidates = this.candidates[depth];
+			int count = this.position.candidates(candidates, SEARCH_CANDIDATES);
+			long best = Long.MIN_VALUE;
+			for (int i = 0; i < count; i++) {
+				int mark = this.subnet.mark();
+				this.play(candidates[2 * i], candidates[2 * i + 1]);
+				long score = this.search(depth - 1, turns + 1);
+				this.subnet.rollbackTo(mark);
+				this.position.restore(candidates[2 * i], candidates[2 * i + 1]);
+				if (score == Long.MIN_VALUE) {
+					return Long.MIN_VALUE;
+				}
+				best = Math.max(best, score);
+			}
+			return count == 0 ? this.rollout(turns) : best;
+		}
+
+		/**
+		 * Plays the most urgent candidate until the game is over.
+		 */
+		private long rollout(int turns) {
+			int mark = this.subnet.mark();
+			int[] candidate = new int[2];
+			int played = 0;
+			int[] severed = new int[16];
+			while (this.subnet.isAgentStillMoving() && this.position.candidates(candidate, 1) > 0) {
+				if (2 * played == severed.length) {
+					severed = Arrays.copyOf(severed, 2 * severed.length);
+				}
+				severed[2 * played] = candidate[0];
+				severed[2 * played + 1] = candidate[1];
+				played++;
+				this.play(candidate[0], candidate[1]);
+				this.count++;
+			}
+			long score = score(this.subnet, turns + played);
+			this.subnet.rollbackTo(mark);
+			for (int i = played - 1; i >= 0; i--) {
+				this.position.restore(severed[2 * i], severed[2 * i + 1]);
+			}
+			return score;
+		}
+
+		private void play(int a, int b) {
+			Position position = this.position;
+			this.subnet.disconnectNodesBeforeAgentMovesOn(position.graph.idOf(a), position.graph.idOf(b));
+			position.sever(a, b);
+		}
+
+		private static long score(SubnetBackdoor subnet, int turns) {
+			if (subnet.isAgentStillMoving() || subnet.isAgentOnAGateway()) {
+				return turns;
+			}
+			return 2 * WIN - turns;
+		}
+	}
+
+	/**
+	 * The solver's own copy of the subnet which it uses to find the
+	 * candidates. The agent position is taken from the subnet after every
+	 * move.
+	 */
+	private static final class Position {
+		private final SubnetBackdoor subnet;
+		private final SubnetGraph graph;
+		private int[] neighbours;
+		private int[] others;
+		private int[] cost;
+		private int[] done;
+		private int epoch = 0;
+		private int[] deque;
+		private long[] urgent;
+
+		private Position(SubnetBackdoor subnet) {
+			int[] links = new int[0];
+			int linkCount = subnet.copyLinksInto(links);
+			links = new int[2 * linkCount];
+			subnet.copyLinksInto(links);
+			int[] gateways = subnet.getGatewayNodes();
+			this.subnet = subnet;
+			this.graph = new CsrSubnetGraph(
+					new SubnetMap(IntBuffer.wrap(links), linkCount, gateways, subnet.getAgentPosition()));
+			for (int id : gateways) {
+				this.graph.setGateway(this.graph.indexOf(id));
+			}
+		}
+
+		private Position(Position parent, SubnetBackdoor subnet) {
+			this.subnet = subnet;
+			this.graph = parent.graph.fork();
+		}
+
+		private Position fork(SubnetBackdoor subnet) {
+			return new Position(this, subnet);
+		}
+
+		private void sever(int a, int b) {
+			this.graph.removeLink(a, b);
+		}
+
+		private void restore(int a, int b) {
+			this.graph.restoreLink(a, b);
+		}
+
+		/**
+		 * Finds the most urgent links to gateways for the agent position of
+		 * the given subnet.
+		 *
+		 * @param candidates
+		 *            receives the two nodes of each candidate
+		 * @param max
+		 *            the maximal number of candidates
+		 * @return the number of candidates
+		 */
+		private int candidates(int[] candidates, int max) {
+			SubnetGraph graph = this.graph;
+			int n = graph.size();
+			if (this.cost == null) {
+				this.neighbours = new int[graph.maxDegree()];
+				this.others = new int[graph.maxDegree()];
+				this.cost = new int[n];
+				this.done = new int[n];
+				this.deque = new int[2 * n + 1];
+				this.urgent = new long[16];
+			}
+			int[] neighbours = this.neighbours;
+			int agent = graph.indexOf(this.agentPosition());
+			int count = 0;
+
+			// a gateway next to the agent must be disconnected now
+			int degree = graph.neighbours(agent, neighbours);
+			for (int i = 0; i < degree && count < max; i++) {
+				if (graph.isGateway(neighbours[i])) {
+					candidates[2 * count] = agent;
+					candidates[2 * count + 1] = neighbours[i];
+					count++;
+				}
+			}
+			if (count > 0) {
+				return count;
+			}
+
+			// 0-1 breadth first search: entering a node which is not linked
+			// to a gateway gives the player a turn to spare
+			int[] cost = this.cost;
+			Arrays.fill(cost, Integer.MAX_VALUE);
+			int[] deque = this.deque;
+			int head = n;
+			int tail = n;
+			deque[tail++] = agent;
+			cost[agent] = 0;
+			int urgentCount = 0;
+			int epoch = ++this.epoch;
+			while (head < tail) {
+				int node = deque[head++];
+				if (this.done[node] == epoch) {
+					// popped again after its cost was lowered
+					continue;
+				}
+				this.done[node] = epoch;
+				degree = graph.neighbours(node, neighbours);
+				int gatewayLinks = 0;
+				for (int i = 0; i < degree; i++) {
+					if (graph.isGateway(neighbours[i])) {
+						gatewayLinks++;
+					}
+				}
+				if (gatewayLinks > 0) {
+					if (urgentCount == this.urgent.length) {
+						this.urgent = Arrays.copyOf(this.urgent, 2 * urgentCount);
+					}
+					long urgency = (long) cost[node] - gatewayLinks + n;
+					this.urgent[urgentCount++] = (urgency << 32) | node;
+				}
+				for (int i = 0; i < degree; i++) {
+					int neighbour = neighbours[i];
+					if (graph.isGateway(neighbour)) {
+						continue;
+					}
+					int step = this.hasGatewayLink(neighbour) ? 0 : 1;
+					if (cost[node] + step < cost[neighbour]) {
+						cost[neighbour] = cost[node] + step;
+						if (step == 0) {
+							deque[--head] = neighbour;
+						} else {
+							deque[tail++] = neighbour;
+						}
+					}
+				}
+			}
+
+			// one link to a gateway of each of the most urgent nodes
+			Arrays.sort(this.urgent, 0, urgentCount);
+			for (int k = 0; k < urgentCount && count < max; k++) {
+				int node = (int) this.urgent[k];
+				degree = graph.neighbours(node, neighbours);
+				for (int i = 0; i < degree; i++) {
+					if (graph.isGateway(neighbours[i])) {
+						candidates[2 * count] = node;
+						candidates[2 * count + 1] = neighbours[i];
+						count++;
+						break;
+					}
+				}
+			}
+			return count;
+		}
+
+		private boolean hasGatewayLink(int node) {
+			int[] neighbours = this.others;
+			int degree = this.graph.neighbours(node, neighbours);
+			for (int i = 0; i < degree; i++) {
+				if (this.graph.isGateway(neighbours[i])) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private int agentPosition() {
+			return this.subnet.getAgentPosition();
+		}
+	}
+
+	/**
+	 * The result of a game played by the solver.
+	 */
+	public static final class Result {
+		private int[] a = new int[16];
+		private int[] b = new int[16];
+		private int count = 0;
+		private boolean won = false;
+		private long expanded = 0;
+		private long elapsed = 0;
+
+		private Result() {
+		}
+
+		private void add(int idA, int idB) {
+			if (this.count == this.a.length) {
+				this.a = Arrays.copyOf(this.a, 2 * this.count);
+				this.b = Arrays.copyOf(this.b, 2 * this.count);
+			}
+			this.a[this.count] = idA;
+			this.b[this.count] = idB;
+			this.count++;
+		}
+
+		/**
+		 * @return true if the agent cannot reach a gateway anymore
+		 */
+		public boolean isWon() {
+			return this.won;
+		}
+
+		/**
+		 * @return the number of links disconnected
+		 */
+		public int getSeverCount() {
+			return this.count;
+		}
+
+		/**
+		 * @return the first nodes of the links disconnected in the order of
+		 *         the turns
+		 */
+		public int[] getFirstNodes() {
+			return Arrays.copyOf(this.a, this.count);
+		}
+
+		/**
+		 * @return the second nodes of the links disconnected in the order of
+		 *         the turns
+		 */
+		public int[] getSecondNodes() {
+			return Arrays.copyOf(this.b, this.count);
+		}
+
+		/**
+		 * @return the number of positions evaluated, including the moves of
+		 *         the rollouts
+		 */
+		public long getExpandedNodes() {
+			return this.expanded;
+		}
+
+		/**
+		 * @return the time the game took in nanoseconds
+		 */
+		public long getElapsedNanos() {
+			return this.elapsed;
+		}
+
+		/**
+		 * @return the positions evaluated per second
+		 */
+		public double getNodesPerSecond() {
+			return this.elapsed == 0 ? 0 : this.expanded * 1e9 / this.elapsed;
+		}
+
+		@Override
+		public String toString() {
+			return (this.won ? "won" : "lost") + " with " + this.count + " links disconnected, " + this.expanded
+					+ " nodes expanded in " + this.elapsed / 1000000 + " ms (" + (long) this.getNodesPerSecond()
+					+ " nodes/s)";
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package skynet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A bounded cache of the subnets loaded from maps. Every map is read once into
+ * a template, a subnet in which no turn is ever played, and every new game on
+ * that map is a fork of its template. A fork shares the links, the gateways
+ * and the initial steps of the template and only copies the pages it changes,
+ * so for {@link SkynetSubnet.Core#CSR} and {@link SkynetSubnet.Core#OFF_HEAP}
+ * a new game costs O(n/4096) instead of reading the map again. A
+ * {@link SkynetSubnet.Core#NODES} fork still builds its nodes from the cached
+ * map, which saves reading and parsing the map only.
+ * <p>
+ * The template which was not used for the longest time is dropped when the
+ * cache is full.
+ *
+ * @author hto
+ *
+ */
+final class SubnetTemplates {
+
+	private final LinkedHashMap<String, SkynetSubnet> templates = new LinkedHashMap<String, SkynetSubnet>(16, 0.75f,
+			true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SkynetSubnet> eldest) {
+			return this.size() > SubnetTemplates.this.capacity;
+		}
+	};
+	private int capacity;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity
+	 *            the maximum number of templates, 0 to disable the cache
+	 */
+	SubnetTemplates(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Changes the maximum number of templates and drops the templates which
+	 * were not used for the longest time if there are too many.
+	 *
+	 * @param capacity
+	 *            the maximum number of templates, 0 to disable the cache
+	 */
+	synchronized void setCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new RuntimeException("Illegal template cache size " + capacity + ".");
+		}
+		this.capacity = capacity;
+		while (this.templates.size() > capacity) {
+			this.templates.remove(this.templates.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * @return the number of templates in the cache
+	 */
+	synchronized int size() {
+		return this.templates.size();
+	}
+
+	/**
+	 * Creates a new game from the template of a map. The template is loaded
+	 * if it is not in the cache. Two threads which miss the same map at once
+	 * may both load it, one of the templates is kept.
+	 *
+	 * @param key
+	 *            identifies the map and the graph core, null if the map must
+	 *            not be cached
+	 * @param loader
+	 *            loads the template, a subnet without listeners
+	 * @return a new game on the map
+	 */
+	SkynetSubnet newGame(String key, Supplier<SkynetSubnet> loader) {
+		return this.newGame(key, null, loader);
+	}
+
+	/**
+	 * Creates a new game with other agents than the map from the template of
+	 * a map, see {@link #newGame(String, Supplier)}.
+	 *
+	 * @param key
+	 *            identifies the map and the graph core, null if the map must
+	 *            not be cached
+	 * @param agentPositions
+	 *            ids of the initial nodes of the agents, null for the agents
+	 *            of the map
+	 * @param loader
+	 *            loads the template, a subnet without listeners
+	 * @return a new game on the map or null if an agent is on a node which is
+	 *         not in the map
+	 */
+	SkynetSubnet newGame(String key, int[] agentPositions, Supplier<SkynetSubnet> loader) {
+		SkynetSubnet template;
+		synchronized (this) {
+			if (this.capacity == 0 || key == null) {
+				template = null;
+			} else {
+				template = this.templates.get(key);
+			}
+		}
+		if (template == null) {
+			template = loader.get();
+			synchronized (this) {
+				if (this.capacity > 0 && key != null) {
+					SkynetSubnet cached = this.templates.putIfAbsent(key, template);
+					if (cached != null) {
+						template = cached;
+					}
+				}
+			}
+		}
+		// forking writes the owner of the shared pages of the template
+		synchronized (template) {
+			return template.newGame(agentPositions);
+		}
+	}
+}
@@ -0,0 +1,502 @@
+package skynet;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Lets several players play against a corpus of subnets and compares them:
+ * every player plays one game on every map. The games run in parallel in a
+ * work stealing fork/join pool. Every game creates its own subnet in the
+ * thread which plays it, so a {@link SkynetSubnet} is never shared between
+ * threads. (A {@link SubnetSolver} with a time limit searches in a pool of
+ * its own, but only on forks of the subnet.)
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * <code>
+ *	SubnetTournament tournament = new SubnetTournament(SkynetSubnet.Core.CSR);
+ *	tournament.addPlayer("greedy", new SubnetSolver(0, TimeUnit.MILLISECONDS));
+ *	tournament.addPlayer("search", new SubnetSolver(5, TimeUnit.MILLISECONDS));
+ *	tournament.addPredefinedSubnets();
+ *	tournament.addRandomSubnets(1000, 100, 3.0, 42L);
+ *	for (SubnetTournament.Standing standing : tournament.run()) {
+ *		System.out.println(standing);
+ *	}
+ * </code>
+ * </pre>
+ *
+ * @author hto
+ *
+ */
+public class SubnetTournament {
+
+	// a task plays at most this many games one after the other, smaller
+	// tasks cost more for their standings than they gain in parallelism
+	private static final int GAMES_PER_TASK = 8;
+
+	private final SkynetSubnet.Core core;
+	private final List<String> playerNames = new ArrayList<>();
+	private final List<SubnetPlayer> players = new ArrayList<>();
+	private final List<Supplier<SubnetBackdoor>> maps = new ArrayList<>();
+
+	/**
+	 * Creates an empty tournament.
+	 *
+	 * @param core
+	 *            the graph core to build the subnets on
+	 */
+	public SubnetTournament(SkynetSubnet.Core core) {
+		this.core = core;
+	}
+
+	/**
+	 * Adds a player. The same player plays several games at the same time, so
+	 * it must be thread safe.
+	 *
+	 * @param name
+	 *            the name of the player in the standings
+	 * @param player
+	 *            the player
+	 */
+	public void addPlayer(String name, SubnetPlayer player) {
+		this.playerNames.add(name);
+		this.players.add(player);
+	}
+
+	/**
+	 * Adds the predefined subnets ALPHA to DEFAULT.
+	 */
+	public void addPredefinedSubnets() {
+		for (int subnetId = SkynetSubnet.ALPHA; subnetId <= SkynetSubnet.DEFAULT; subnetId++) {
+			this.addPredefinedSubnet(subnetId);
+		}
+	}
+
+	/**
+	 * @param subnetId
+	 *            ID of a predefined subnet, see
+	 *            {@link SkynetSubnet#createBackdoorToExistingSubnet(int)}
+	 */
+	public void addPredefinedSubnet(int subnetId) {
+		this.maps.add(() -> SkynetSubnet.createBackdoorToExistingSubnet(subnetId, this.core));
+	}
+
+	/**
+	 * @param pathToSubnetMap
+	 *            a map on the class path, see
+	 *            {@link SkynetSubnet#createSubnet(String)}
+	 */
+	public void addSubnetMap(String pathToSubnetMap) {
+		this.maps.add(() -> SkynetSubnet.createSubnet(pathToSubnetMap, this.core));
+	}
+
+	/**
+	 * @param pathToBinaryMap
+	 *            a map in binary format in the file system, see
+	 *            {@link SkynetSubnet#createSubnetFromBinaryFile(Path, SkynetSubnet.Core)}
+	 */
+	public void addBinaryMap(Path pathToBinaryMap) {
+		this.maps.add(() -> SkynetSubnet.createSubnetFromBinaryFile(pathToBinaryMap, this.core));
+	}
+
+	/**
+	 * Adds random subnets, see
+	 * {@link SkynetSubnet#createRandomSubnet(int, double, long)}. The subnets
+	 * get the seeds seed, seed+1, ...
+	 *
+	 * @param count
+	 *            the number of subnets
+	 * @param numberOfNodes
+	 *            the number of nodes of each subnet
+	 * @param averageDegree
+	 *            the average degree of the none gateway nodes
+	 * @param seed
+	 *            the seed of the first subnet
+	 */
+	public void addRandomSubnets(int count, int numberOfNodes, double averageDegree, long seed) {
+		for (int i = 0; i < count; i++) {
+			long subnetSeed = seed + i;
+			this.maps.add(() -> SkynetSubnet.createRandomSubnet(numberOfNodes, averageDegree, subnetSeed, this.core));
+		}
+	}
+
+	/**
+	 * Plays all games in the common fork/join pool.
+	 *
+	 * @return the standings of the players in the order they were added
+	 */
+	public List<Standing> run() {
+		return this.run(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Plays all games.
+	 *
+	 * @param pool
+	 *            the pool which plays the games
+	 * @return the standings of the players in the order they were added
+	 */
+	public List<Standing> run(ForkJoinPool pool) {
+		Standing[] standings = pool.invoke(new Games(0, this.players.size() * this.maps.size()));
+		List<Standing> result = new ArrayList<>(standings.length);
+		for (int i = 0; i < standings.length; i++) {
+			// a player without maps has not played
+			result.add(standings[i] == null ? new Standing(this.playerNames.get(i)) : standings[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Plays a range of games, game i is played by player i / maps on map i %
+	 * maps. Ranges are split until they contain at most
+	 * {@link SubnetTournament#GAMES_PER_TASK} games, which are played one
+	 * after the other. A task only creates the standings of the players of
+	 * its games, the others stay null.
+	 */
+	private final class Games extends RecursiveTask<Standing[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		private Games(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Standing[] compute() {
+			if (this.to - this.from > GAMES_PER_TASK) {
+				int middle = (this.from + this.to) >>> 1;
+				Games right = new Games(middle, this.to);
+				right.fork();
+				Standing[] standings = new Games(this.from, middle).compute();
+				Standing[] others = right.join();
+				for (int i = 0; i < standings.length; i++) {
+					if (standings[i] == null) {
+						standings[i] = others[i];
+					} else if (others[i] != null) {
+						standings[i].add(others[i]);
+					}
+				}
+				return standings;
+			}
+
+			Standing[] standings = new Standing[SubnetTournament.this.players.size()];
+			int mapCount = SubnetTournament.this.maps.size();
+			for (int game = this.from; game < this.to; game++) {
+				int player = game / mapCount;
+				if (standings[player] == null) {
+					standings[player] = new Standing(SubnetTournament.this.playerNames.get(player));
+				}
+				play(SubnetTournament.this.players.get(player), SubnetTournament.this.maps.get(game % mapCount),
+						standings[player]);
+			}
+			return standings;
+		}
+	}
+
+	/**
+	 * Plays a single game and records it in the standing of the player.
+	 */
+	private static void play(SubnetPlayer player, Supplier<SubnetBackdoor> map, Standing standing) {
+		try {
+			TimedBackdoor subnet = new TimedBackdoor(map.get(), standing.latencies);
+			player.play(subnet);
+			standing.games++;
+			standing.turns += subnet.turns;
+			if (!subnet.isAgentStillMoving() && !subnet.isAgentOnAGateway()) {
+				standing.wins++;
+			}
+		} catch (RuntimeException e) {
+			standing.errors++;
+		}
+	}
+
+	/**
+	 * The results of a player in the tournament.
+	 */
+	public static final class Standing {
+		private final String name;
+		private long games = 0;
+		private long wins = 0;
+		private long errors = 0;
+		private long turns = 0;
+		private final LatencyHistogram latencies = new LatencyHistogram();
+
+		private Standing(String name) {
+			this.name = name;
+		}
+
+		private void add(Standing other) {
+			this.games += other.games;
+			this.wins += other.wins;
+			this.errors += other.errors;
+			this.turns += other.turns;
+			this.latencies.add(other.latencies);
+		}
+
+		/**
+		 * @return the name of the player
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the number of games played to the end
+		 */
+		public long getGames() {
+			return this.games;
+		}
+
+		/**
+		 * @return the number of games in which the agent could not reach a
+		 *         gateway
+		 */
+		public long getWins() {
+			return this.wins;
+		}
+
+		/**
+		 * @return the number of games in which the player or the subnet threw
+		 *         an exception
+		 */
+		public long getErrors() {
+			return this.errors;
+		}
+
+		/**
+		 * @return the share of the games won, between 0 and 1
+		 */
+		public double getWinRate() {
+			return this.games == 0 ? 0 : (double) this.wins / this.games;
+		}
+
+		/**
+		 * @return the number of turns of all games
+		 */
+		public long getTurns() {
+			return this.turns;
+		}
+
+		/**
+		 * @return the average number of turns of a game
+		 */
+		public double getTurnsPerGame() {
+			return this.games == 0 ? 0 : (double) this.turns / this.games;
+		}
+
+		/**
+		 * A turn takes from the end of the previous turn (or the start of the
+		 * game) until the link has been disconnected and the agent has moved
+		 * on, so it includes the time the player needs to choose a link.
+		 *
+		 * @param percentile
+		 *            between 0 and 100, e.g. 50 for the median
+		 * @return the latency of a turn in nanoseconds, exact to 1/16
+		 */
+		public long getTurnLatency(double percentile) {
+			return this.latencies.getPercentile(percentile);
+		}
+
+		/**
+		 * @return the latency of the slowest turn in nanoseconds
+		 */
+		public long getMaxTurnLatency() {
+			return this.latencies.getMax();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d games, %.1f%% won, %.1f turns per game, turn latency p50 %d us, "
+					+ "p90 %d us, p99 %d us, max %d us, %d errors", this.name, this.games, 100 * this.getWinRate(),
+					this.getTurnsPerGame(), TimeUnit.NANOSECONDS.toMicros(this.getTurnLatency(50)),
+					TimeUnit.NANOSECONDS.toMicros(this.getTurnLatency(90)),
+					TimeUnit.NANOSECONDS.toMicros(this.getTurnLatency(99)),
+					TimeUnit.NANOSECONDS.toMicros(this.getMaxTurnLatency()), this.errors);
+		}
+	}
+
+	/**
+	 * Measures the turns of a player on a subnet.
+	 */
+	private static final class TimedBackdoor implements SubnetBackdoor {
+		private final SubnetBackdoor subnet;
+		private final LatencyHistogram latencies;
+		private long lastTurn = System.nanoTime();
+		private long turns = 0;
+
+		private TimedBackdoor(SubnetBackdoor subnet, LatencyHistogram latencies) {
+			this.subnet = subnet;
+			this.latencies = latencies;
+		}
+
+		@Override
+		public boolean disconnectNodesBeforeAgentMovesOn(int a, int b) {
+			boolean success = this.subnet.disconnectNodesBeforeAgentMovesOn(a, b);
+			long now = System.nanoTime();
+			this.latencies.record(now - this.lastTurn);
+			this.lastTurn = now;
+			this.turns++;
+			return success;
+		}
+
+		@Override
+		public int[][] getNodeLinks() {
+			return this.subnet.getNodeLinks();
+		}
+
+		@Override
+		public IntBuffer getNodeLinksBuffer() {
+			return this.subnet.getNodeLinksBuffer();
+		}
+
+		@Override
+		public int copyLinksInto(int[] dst) {
+			return this.subnet.copyLinksInto(dst);
+		}
+
+		@Override
+		public void forEachLink(IntBiConsumer action) {
+			this.subnet.forEachLink(action);
+		}
+
+		@Override
+		public SubnetBackdoor fork() {
+			return this.subnet.fork();
+		}
+
+		@Override
+		public int mark() {
+			return this.subnet.mark();
+		}
+
+		@Override
+		public boolean undoLastTurn() {
+			return this.subnet.undoLastTurn();
+		}
+
+		@Override
+		public void rollbackTo(int mark) {
+			this.subnet.rollbackTo(mark);
+		}
+
+		@Override
+		public void clearJournal() {
+			this.subnet.clearJournal();
+		}
+
+		@Override
+		public int getAgentPosition() {
+			return this.subnet.getAgentPosition();
+		}
+
+		@Override
+		public boolean isAgentStillMoving() {
+			return this.subnet.isAgentStillMoving();
+		}
+
+		@Override
+		public boolean isAgentOnAGateway() {
+			return this.subnet.isAgentOnAGateway();
+		}
+
+		@Override
+		public int[] getGatewayNodes() {
+			return this.subnet.getGatewayNodes();
+		}
+
+		@Override
+		public void addSubnetListener(SubnetListener listener) {
+			this.subnet.addSubnetListener(listener);
+		}
+
+		@Override
+		public void removeSubnetListener(SubnetListener listener) {
+			this.subnet.removeSubnetListener(listener);
+		}
+
+		@Override
+		public int getStepsToNearestGateway(int node) {
+			return this.subnet.getStepsToNearestGateway(node);
+		}
+
+		@Override
+		public int getNextHop(int node) {
+			return this.subnet.getNextHop(node);
+		}
+
+		@Override
+		public int getLinkWeight(int a, int b) {
+			return this.subnet.getLinkWeight(a, b);
+		}
+
+		@Override
+		public int[][] getMinimumCut() {
+			return this.subnet.getMinimumCut();
+		}
+
+		@Override
+		public void writeTo(WritableByteChannel out, SubnetFormat format) throws IOException {
+			this.subnet.writeTo(out, format);
+		}
+
+		@Override
+		public int[] predictAgentPath(int agent, int maxSteps) {
+			return this.subnet.predictAgentPath(agent, maxSteps);
+		}
+
+		@Override
+		public int getAgentCount() {
+			return this.subnet.getAgentCount();
+		}
+
+		@Override
+		public int[] getAgentPositions() {
+			return this.subnet.getAgentPositions();
+		}
+
+		@Override
+		public boolean isAgentStillMoving(int agent) {
+			return this.subnet.isAgentStillMoving(agent);
+		}
+
+		@Override
+		public boolean isAgentOnAGateway(int agent) {
+			return this.subnet.isAgentOnAGateway(agent);
+		}
+	}
+
+	/**
+	 * Lets the solver without and with a search play on the predefined
+	 * subnets and on random subnets.
+	 *
+	 * @param args
+	 *            the number of random subnets, their number of nodes and the
+	 *            search time per turn in milliseconds, by default 1000, 100
+	 *            and 5
+	 */
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int numberOfNodes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		long time = args.length > 2 ? Long.parseLong(args[2]) : 5;
+		SubnetTournament tournament = new SubnetTournament(SkynetSubnet.Core.CSR);
+		tournament.addPlayer("greedy", new SubnetSolver(0, TimeUnit.MILLISECONDS));
+		tournament.addPlayer("search", new SubnetSolver(time, TimeUnit.MILLISECONDS, new ForkJoinPool()));
+		tournament.addPredefinedSubnets();
+		tournament.addRandomSubnets(count, numberOfNodes, 3.0, 42L);
+		for (Standing standing : tournament.run()) {
+			System.out.println(standing);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package skynet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Writes the current state of a subnet link by link to a channel, see
+ * {@link SubnetBackdoor#writeTo(WritableByteChannel, SubnetFormat)}.
+ * Every thread encodes into its own direct buffer of 64 KiB, which is reused
+ * for all its exports, so even a subnet with millions of links is written
+ * without allocating more than a few objects.
+ *
+ * @author hto
+ *
+ */
+final class SubnetWriter {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+
+	private SubnetWriter() {
+	}
+
+	/**
+	 * Writes a subnet in a format.
+	 *
+	 * @param out
+	 *            where to write the subnet to, it is not closed
+	 * @param format
+	 *            the format
+	 * @param linkCount
+	 *            the number of links which have not been severed
+	 * @param links
+	 *            passes every link which has not been severed to an action
+	 * @param weights
+	 *            the weight of the link between two nodes or null if every
+	 *            link has weight 1
+	 * @param gateways
+	 *            ids of the gateway nodes
+	 * @param agentPositions
+	 *            ids of the agent nodes
+	 * @throws IOException
+	 *             if the subnet cannot be written
+	 */
+	static void write(WritableByteChannel out, SubnetFormat format, int linkCount,
+			Consumer<IntBiConsumer> links, IntBinaryOperator weights, int[] gateways, int[] agentPositions)
+			throws IOException {
+		ByteBuffer buffer = buffers.get();
+		try {
+			if (format == SubnetFormat.BINARY) {
+				writeBinary(out, buffer, linkCount, links, weights, gateways, agentPositions[0]);
+			} else if (format == SubnetFormat.DOT) {
+				writeDot(new SubnetMap.TextWriter(out, buffer), links, weights, gateways, agentPositions);
+			} else {
+				writeText(new SubnetMap.TextWriter(out, buffer), linkCount, links, weights, gateways,
+						agentPositions[0]);
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void writeText(SubnetMap.TextWriter text, int linkCount, Consumer<IntBiConsumer> links,
+			IntBinaryOperator weights, int[] gateways, int agentPosition) throws IOException {
+		if (weights != null) {
+			text.write(SubnetMap.WEIGHTED + "\r\n");
+		}
+		text.write(linkCount, "\r\n");
+		text.write(gateways.length, "\r\n");
+		links.accept((a, b) -> {
+			try {
+				text.write(a, ' ');
+				if (weights == null) {
+					text.write(b, "\r\n");
+				} else {
+					text.write(b, ' ');
+					text.write(weights.applyAsInt(a, b), "\r\n");
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		for (int gateway : gateways) {
+			text.write(gateway, "\r\n");
+		}
+		text.write(agentPosition, "\r\n");
+		text.flush();
+	}
+
+	private static void writeDot(SubnetMap.TextWriter dot, Consumer<IntBiConsumer> links, IntBinaryOperator weights,
+			int[] gateways, int[] agentPositions) throws IOException {
+		dot.write("graph subnet {\n");
+		links.accept((a, b) -> {
+			try {
+				dot.write("\t");
+				dot.write(a, " -- ");
+				if (weights == null) {
+					dot.write(b, ";\n");
+				} else {
+					dot.write(b, " [label=");
+					dot.write(weights.applyAsInt(a, b), "];\n");
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		for (int gateway : gateways) {
+			dot.write("\t");
+			dot.write(gateway, " [shape=doublecircle];\n");
+		}
+		for (int agentPosition : agentPositions) {
+			dot.write("\t");
+			dot.write(agentPosition, " [style=filled];\n");
+		}
+		dot.write("}\n");
+		dot.flush();
+	}
+
+	/**
+	 * Writes a subnet in the binary map format, see {@link SubnetMap}. The
+	 * weights follow all links, so the links are passed twice.
+	 */
+	private static void writeBinary(WritableByteChannel out, ByteBuffer buffer, int linkCount,
+			Consumer<IntBiConsumer> links, IntBinaryOperator weights, int[] gateways, int agentPosition)
+			throws IOException {
+		buffer.clear();
+		buffer.putInt(SubnetMap.MAGIC).putInt(weights == null ? SubnetMap.VERSION : SubnetMap.WEIGHTED_VERSION)
+				.putInt(linkCount).putInt(gateways.length);
+		links.accept((a, b) -> {
+			try {
+				if (buffer.remaining() < 8) {
+					writeFully(out, buffer);
+				}
+				buffer.putInt(a).putInt(b);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		if (weights != null) {
+			links.accept((a, b) -> {
+				try {
+					if (!buffer.hasRemaining()) {
+						writeFully(out, buffer);
+					}
+					buffer.putInt(weights.applyAsInt(a, b));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		for (int gateway : gateways) {
+			if (!buffer.hasRemaining()) {
+				writeFully(out, buffer);
+			}
+			buffer.putInt(gateway);
+		}
+		if (!buffer.hasRemaining()) {
+			writeFully(out, buffer);
+		}
+		buffer.putInt(agentPosition);
+		writeFully(out, buffer);
+	}
+
+	private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,178 @@
+package skynet;
+
+import java.util.Arrays;
+
+/**
+ * The results of a sequence of turns played by
+ * {@link SubnetBackdoor#playTurns(int[], int[])}: for every turn played the
+ * positions of the agents after the turn and whether the link could be
+ * disconnected. The results are stored in primitive arrays which may be
+ * longer than the number of turns played; only the first
+ * {@link #getTurnCount()} turns are valid.
+ *
+ * @author hto
+ *
+ */
+public final class TurnResults {
+
+	private final int agentCount;
+	private int turnCount = 0;
+	// the position of agent i after turn t is agentPositions[t*agentCount+i]
+	private int[] agentPositions;
+	private boolean[] disconnected;
+
+	/**
+	 * Creates empty results for a game with one agent.
+	 *
+	 * @param capacity
+	 *            the number of turns which fit into the results without
+	 *            growing the arrays
+	 */
+	public TurnResults(int capacity) {
+		this(capacity, 1);
+	}
+
+	/**
+	 * Creates empty results.
+	 *
+	 * @param capacity
+	 *            the number of turns which fit into the results without
+	 *            growing the arrays
+	 * @param agentCount
+	 *            the number of agents in the game
+	 */
+	public TurnResults(int capacity, int agentCount) {
+		if (agentCount < 1) {
+			throw new RuntimeException("Illegal number of agents " + agentCount + ".");
+		}
+		this.agentCount = agentCount;
+		this.agentPositions = new int[capacity * agentCount];
+		this.disconnected = new boolean[capacity];
+	}
+
+	/**
+	 * @return the number of turns played
+	 */
+	public int getTurnCount() {
+		return this.turnCount;
+	}
+
+	/**
+	 * @return the number of agents whose positions are stored for each turn
+	 */
+	public int getAgentCount() {
+		return this.agentCount;
+	}
+
+	/**
+	 * @return the positions of the first agent after each turn, the
+	 *         trajectory of the agent. Only the first {@link #getTurnCount()}
+	 *         elements are valid. In a game with several agents they are
+	 *         copied, see {@link #getAgentPositions(int)}.
+	 */
+	public int[] getAgentPositions() {
+		return this.agentCount == 1 ? this.agentPositions : this.getAgentPositions(0);
+	}
+
+	/**
+	 * @param agent
+	 *            the number of the agent
+	 * @return a copy of the positions of an agent after each turn, one for
+	 *         every turn played
+	 */
+	public int[] getAgentPositions(int agent) {
+		int[] trajectory = new int[this.turnCount];
+		for (int turn = 0; turn < this.turnCount; turn++) {
+			trajectory[turn] = this.agentPositions[turn * this.agentCount + agent];
+		}
+		return trajectory;
+	}
+
+	/**
+	 * @param turn
+	 *            the number of the turn, less than {@link #getTurnCount()}
+	 * @param agent
+	 *            the number of the agent
+	 * @return the position of the agent after the turn
+	 */
+	public int getAgentPosition(int turn, int agent) {
+		return this.agentPositions[turn * this.agentCount + agent];
+	}
+
+	/**
+	 * @return for each turn true if the link was disconnected (see
+	 *         {@link SubnetBackdoor#disconnectNodesBeforeAgentMovesOn(int, int)}
+	 *         ). Only the first {@link #getTurnCount()} elements are valid.
+	 */
+	public boolean[] getDisconnected() {
+		return this.disconnected;
+	}
+
+	/**
+	 * Forgets all turns and makes sure that the given number of turns fits.
+	 *
+	 * @param capacity
+	 *            the number of turns to be played next
+	 */
+	void clear(int capacity) {
+		this.turnCount = 0;
+		if (this.disconnected.length < capacity) {
+			this.agentPositions = new int[capacity * this.agentCount];
+			this.disconnected = new boolean[capacity];
+		}
+	}
+
+	/**
+	 * Appends the results of a turn in a game with one agent.
+	 *
+	 * @param agentPosition
+	 *            position of the agent after the turn
+	 * @param success
+	 *            true if the link was disconnected
+	 */
+	void add(int agentPosition, boolean success) {
+		this.add(success);
+		this.setAgentPosition(0, agentPosition);
+	}
+
+	/**
+	 * Appends a turn, the positions of the agents after it are set with
+	 * {@link #setAgentPosition(int, int)}.
+	 *
+	 * @param success
+	 *            true if the link was disconnected
+	 */
+	void add(boolean success) {
+		if (this.turnCount == this.disconnected.length) {
+			int capacity = Math.max(16, 2 * this.turnCount);
+			this.agentPositions = Arrays.copyOf(this.agentPositions, capacity * this.agentCount);
+			this.disconnected = Arrays.copyOf(this.disconnected, capacity);
+		}
+		this.disconnected[this.turnCount] = success;
+		this.turnCount++;
+	}
+
+	/**
+	 * Sets the position of an agent after the last turn.
+	 *
+	 * @param agent
+	 *            the number of the agent
+	 * @param agentPosition
+	 *            position of the agent after the turn
+	 */
+	void setAgentPosition(int agent, int agentPosition) {
+		this.agentPositions[(this.turnCount - 1) * this.agentCount + agent] = agentPosition;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < this.turnCount; i++) {
+			for (int agent = 0; agent < this.agentCount; agent++) {
+				str.append(agent == 0 ? "" : " ").append(this.agentPositions[i * this.agentCount + agent]);
+			}
+			str.append(this.disconnected[i] ? "" : " (not disconnected)").append("\r\n");
+		}
+		return str.toString();
+	}
+}
@@ -2,6 +2,31 @@ package skynet;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -81,4 +106,1035 @@ public class SkynetSubnetTest {
 		assertEquals(1, gateways.length);
 	}
 
+	@Test
+	public void testLinksWithoutCopy() {
+		this.backdoor.disconnectNodesBeforeAgentMovesOn(3, 2);
+
+		IntBuffer buffer = this.backdoor.getNodeLinksBuffer();
+		assertTrue(buffer.isReadOnly());
+		assertEquals(6, buffer.remaining());
+		assertEquals(1, buffer.get(4));
+		assertEquals(3, buffer.get(5));
+
+		int[] dst = new int[4];
+		assertEquals(3, this.backdoor.copyLinksInto(dst));
+		assertArrayEquals(new int[] { 0, 1, 0, 2 }, dst);
+
+		StringBuilder links = new StringBuilder();
+		this.backdoor.forEachLink((a, b) -> links.append(a).append(b).append(' '));
+		assertEquals("01 02 13 ", links.toString());
+	}
+
+	@Test
+	public void testCsrCore() {
+		SubnetBackdoor csr = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.BETA, SkynetSubnet.Core.CSR);
+		assertEquals(4, csr.getNodeLinks().length);
+		assertEquals(3, csr.getGatewayNodes()[0]);
+		assertEquals(0, csr.getAgentPosition());
+
+		assertTrue(csr.disconnectNodesBeforeAgentMovesOn(3, 2));
+		assertFalse(csr.disconnectNodesBeforeAgentMovesOn(10, 3));
+		assertEquals(3, csr.getNodeLinks().length);
+	}
+
+	@Test
+	public void testOffHeapCore() {
+		SubnetBackdoor csr = SkynetSubnet.createRandomSubnet(20000, 3.0, 5L, 3, SkynetSubnet.Core.CSR);
+		SubnetBackdoor offHeap = SkynetSubnet.createRandomSubnet(20000, 3.0, 5L, 3, SkynetSubnet.Core.OFF_HEAP);
+		int[][] links = csr.getNodeLinks();
+		assertArrayEquals(links, offHeap.getNodeLinks());
+		assertEquals(csr.getNodeLinksBuffer(), offHeap.getNodeLinksBuffer());
+
+		// the same turns on the original subnets and on their forks
+		SubnetBackdoor[] subnets = { csr, offHeap, csr.fork(), offHeap.fork() };
+		Random random = new Random(5L);
+		for (int turn = 0; turn < 100 && csr.isAgentStillMoving(); turn++) {
+			int[] link = links[random.nextInt(links.length)];
+			for (SubnetBackdoor subnet : subnets) {
+				subnet.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+			}
+			for (SubnetBackdoor subnet : subnets) {
+				assertArrayEquals(csr.getAgentPositions(), subnet.getAgentPositions());
+				assertEquals(csr.isAgentStillMoving(), subnet.isAgentStillMoving());
+			}
+		}
+		assertEquals(csr.getNodeLinksBuffer(), offHeap.getNodeLinksBuffer());
+		for (int node = 0; node < 20000; node += 97) {
+			assertEquals(csr.getStepsToNearestGateway(node), offHeap.getStepsToNearestGateway(node));
+			assertEquals(csr.getNextHop(node), offHeap.getNextHop(node));
+		}
+	}
+
+	@Test
+	public void testOffHeapCoreWithSparseIds() throws Exception {
+		// ids far apart and below 0 are sorted off the heap
+		SubnetBackdoor dense = SkynetSubnet.createRandomSubnet(5000, 3.0, 7L, 3, SkynetSubnet.Core.CSR);
+		StringBuilder map = new StringBuilder();
+		int[][] denseLinks = dense.getNodeLinks();
+		int[] gateways = dense.getGatewayNodes();
+		map.append(denseLinks.length).append(' ').append(gateways.length).append('\n');
+		for (int[] link : denseLinks) {
+			map.append(100 * link[0] - 250000).append(' ').append(100 * link[1] - 250000).append('\n');
+		}
+		for (int gateway : gateways) {
+			map.append(100 * gateway - 250000).append('\n');
+		}
+		map.append(100 * dense.getAgentPosition() - 250000).append('\n');
+
+		Path textMap = Files.createTempFile("sparse", ".txt");
+		Path binaryMap = Files.createTempFile("sparse", ".skn");
+		Path partitionedMap = Files.createTempFile("sparse", ".skp");
+		try {
+			Files.write(textMap, map.toString().getBytes("US-ASCII"));
+			SubnetMapConverter.convert(textMap, binaryMap);
+			SubnetMapConverter.partition(binaryMap, partitionedMap);
+			SubnetBackdoor csr = SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR);
+			SubnetBackdoor offHeap = SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.OFF_HEAP);
+			SubnetBackdoor lazy = SkynetSubnet.createSubnetFromPartitionedFile(partitionedMap);
+			int[][] links = csr.getNodeLinks();
+			assertArrayEquals(links, offHeap.getNodeLinks());
+			assertArrayEquals(csr.getGatewayNodes(), offHeap.getGatewayNodes());
+			assertArrayEquals(csr.getGatewayNodes(), lazy.getGatewayNodes());
+			assertEquals(csr.getAgentPosition(), offHeap.getAgentPosition());
+
+			Random random = new Random(7L);
+			for (int turn = 0; turn < 100 && csr.isAgentStillMoving(); turn++) {
+				int[] link = links[random.nextInt(links.length)];
+				csr.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+				offHeap.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+				lazy.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+				assertEquals(csr.getAgentPosition(), offHeap.getAgentPosition());
+				assertEquals(csr.getAgentPosition(), lazy.getAgentPosition());
+			}
+			assertEquals(csr.getNodeLinksBuffer(), offHeap.getNodeLinksBuffer());
+		} finally {
+			Files.delete(textMap);
+			Files.delete(binaryMap);
+			Files.delete(partitionedMap);
+		}
+	}
+
+	@Test
+	public void testCoresPlayTheSameGame() {
+		for (int subnetId = SkynetSubnet.ALPHA; subnetId <= SkynetSubnet.DEFAULT; subnetId++) {
+			SubnetBackdoor nodes = SkynetSubnet.createBackdoorToExistingSubnet(subnetId, SkynetSubnet.Core.NODES);
+			SubnetBackdoor csr = SkynetSubnet.createBackdoorToExistingSubnet(subnetId, SkynetSubnet.Core.CSR);
+			assertEquals(nodes.getAgentPosition(), csr.getAgentPosition());
+			while (nodes.isAgentStillMoving()) {
+				assertTrue(csr.isAgentStillMoving());
+				nodes.disconnectNodesBeforeAgentMovesOn(99, 999);
+				csr.disconnectNodesBeforeAgentMovesOn(99, 999);
+				assertEquals(nodes.getAgentPosition(), csr.getAgentPosition());
+			}
+			assertFalse(csr.isAgentStillMoving());
+			assertEquals(nodes.isAgentOnAGateway(), csr.isAgentOnAGateway());
+		}
+	}
+
+	@Test
+	public void testCoresPlayTheSameRandomGames() {
+		// ids up to 299 are not iterated in sorted order by a HashMap
+		for (long seed = 1; seed <= 20; seed++) {
+			SubnetBackdoor nodes = SkynetSubnet.createRandomSubnet(300, 5, seed, SkynetSubnet.Core.NODES);
+			SubnetBackdoor csr = SkynetSubnet.createRandomSubnet(300, 5, seed, SkynetSubnet.Core.CSR);
+			SubnetBackdoor offHeap = SkynetSubnet.createRandomSubnet(300, 5, seed, SkynetSubnet.Core.OFF_HEAP);
+			int[][] links = nodes.getNodeLinks();
+			Random random = new Random(seed);
+			for (int turn = 0; turn < 100 && nodes.isAgentStillMoving(); turn++) {
+				int[] link = links[random.nextInt(links.length)];
+				int[] path = nodes.predictAgentPath(2);
+				if (path.length == 2 && random.nextBoolean()) {
+					// sever the link behind the next hop, the agent has to choose
+					link = path;
+				}
+				nodes.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+				csr.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+				offHeap.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+				assertEquals(nodes.getAgentPosition(), csr.getAgentPosition());
+				assertEquals(nodes.getAgentPosition(), offHeap.getAgentPosition());
+			}
+		}
+	}
+
+	@Test
+	public void testMultipleAgents() {
+		int[] agentPositions = { 0, 2, 0 };
+		SubnetBackdoor subnet = SkynetSubnet.createSubnet("/subnetBeta.txt", agentPositions, SkynetSubnet.Core.CSR);
+		assertEquals(3, subnet.getAgentCount());
+		assertArrayEquals(agentPositions, subnet.getAgentPositions());
+		assertEquals(0, subnet.getAgentPosition());
+
+		// every agent moves like the only agent of a subnet would
+		assertTrue(subnet.disconnectNodesBeforeAgentMovesOn(3, 2));
+		for (int agent = 0; agent < agentPositions.length; agent++) {
+			SubnetBackdoor single = SkynetSubnet.createSubnet("/subnetBeta.txt",
+					new int[] { agentPositions[agent] }, SkynetSubnet.Core.NODES);
+			single.disconnectNodesBeforeAgentMovesOn(3, 2);
+			assertEquals(single.getAgentPosition(), subnet.getAgentPositions()[agent]);
+			assertEquals(single.isAgentStillMoving(), subnet.isAgentStillMoving(agent));
+		}
+		assertEquals(subnet.getAgentPositions()[0], subnet.getAgentPositions()[2]);
+
+		// the battle is lost as soon as one agent reaches the gateway
+		int[] positions = subnet.getAgentPositions();
+		int mark = subnet.mark();
+		while (subnet.isAgentStillMoving()) {
+			subnet.disconnectNodesBeforeAgentMovesOn(99, 999);
+		}
+		assertTrue(subnet.isAgentOnAGateway());
+		int onAGateway = 0;
+		for (int agent = 0; agent < agentPositions.length; agent++) {
+			onAGateway += subnet.isAgentOnAGateway(agent) ? 1 : 0;
+		}
+		assertTrue(onAGateway > 0 && onAGateway < agentPositions.length);
+		subnet.rollbackTo(mark);
+		assertTrue(subnet.isAgentStillMoving());
+		assertArrayEquals(positions, subnet.getAgentPositions());
+
+		// the agents of a game from the cache move like the agents of a game
+		// whose map is read again, an agent may even be on a new node
+		SubnetBackdoor fresh;
+		SkynetSubnet.setTemplateCacheSize(0);
+		try {
+			fresh = SkynetSubnet.createSubnet("/subnetBeta.txt", agentPositions, SkynetSubnet.Core.NODES);
+		} finally {
+			SkynetSubnet.setTemplateCacheSize(16);
+		}
+		SkynetSubnet.createSubnet("/subnetBeta.txt", SkynetSubnet.Core.NODES);
+		SubnetBackdoor cached = SkynetSubnet.createSubnet("/subnetBeta.txt", agentPositions, SkynetSubnet.Core.NODES);
+		while (fresh.isAgentStillMoving()) {
+			int position = fresh.getAgentPosition();
+			int hop = fresh.getNextHop(position);
+			assertEquals(fresh.disconnectNodesBeforeAgentMovesOn(position, hop),
+					cached.disconnectNodesBeforeAgentMovesOn(position, hop));
+			assertArrayEquals(fresh.getAgentPositions(), cached.getAgentPositions());
+		}
+		assertEquals(fresh.isAgentOnAGateway(), cached.isAgentOnAGateway());
+		assertFalse(SkynetSubnet.createSubnet("/subnetBeta.txt", new int[] { 0, 999 }, SkynetSubnet.Core.NODES)
+				.isAgentStillMoving(1));
+
+		// many agents choose their ways in parallel, the first of them start
+		// and move like the agents of a smaller game
+		SubnetBackdoor many = SkynetSubnet.createRandomSubnet(2000, 3.0, 5L, 5000, SkynetSubnet.Core.CSR);
+		SubnetBackdoor few = SkynetSubnet.createRandomSubnet(2000, 3.0, 5L, 100, SkynetSubnet.Core.CSR);
+		assertEquals(SkynetSubnet.createRandomSubnet(2000, 3.0, 5L).getAgentPosition(), many.getAgentPosition());
+		int[][] links = many.getNodeLinks();
+		for (int i = 0; i < 20; i++) {
+			int[] link = links[(int) ((i * 7919L) % links.length)];
+			many.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+			few.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+			assertArrayEquals(few.getAgentPositions(), Arrays.copyOf(many.getAgentPositions(), 100));
+		}
+	}
+
+	@Test
+	public void testNextHops() {
+		assertEquals(2, this.backdoor.getStepsToNearestGateway(0));
+		assertEquals(1, this.backdoor.getStepsToNearestGateway(2));
+		assertEquals(0, this.backdoor.getStepsToNearestGateway(3));
+		assertEquals(-1, this.backdoor.getStepsToNearestGateway(99));
+		assertEquals(3, this.backdoor.getNextHop(3));
+		assertEquals(3, this.backdoor.getNextHop(1));
+		assertEquals(-1, this.backdoor.getNextHop(99));
+
+		int[] path = this.backdoor.predictAgentPath(Integer.MAX_VALUE);
+		assertEquals(2, path.length);
+		assertEquals(this.backdoor.getNextHop(0), path[0]);
+		assertEquals(3, path[1]);
+		assertArrayEquals(Arrays.copyOf(path, 1), this.backdoor.predictAgentPath(1));
+
+		// the agent takes the predicted way, the queries do not change the game
+		for (int node : path) {
+			this.backdoor.disconnectNodesBeforeAgentMovesOn(99, 999);
+			assertEquals(node, this.backdoor.getAgentPosition());
+		}
+		assertEquals(0, this.backdoor.predictAgentPath(Integer.MAX_VALUE).length);
+
+		// the way around a disconnected link
+		SubnetBackdoor subnet = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.BETA, SkynetSubnet.Core.CSR);
+		int first = subnet.getNextHop(0);
+		subnet.disconnectNodesBeforeAgentMovesOn(first, 3);
+		assertEquals(first, subnet.getAgentPosition());
+		assertEquals(3, subnet.getStepsToNearestGateway(first));
+		assertArrayEquals(new int[] { 0, 3 - first, 3 }, subnet.predictAgentPath(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testListeners() {
+		SubnetMonitor monitor = new SubnetMonitor();
+		SkynetSubnet.addDefaultListener(monitor);
+		SubnetBackdoor subnet;
+		try {
+			subnet = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.BETA, SkynetSubnet.Core.CSR);
+		} finally {
+			SkynetSubnet.removeDefaultListener(monitor);
+		}
+		assertEquals(1, monitor.getLoadedSubnets());
+		assertTrue(monitor.getTouchedNodes() > 0);
+
+		StringBuilder events = new StringBuilder();
+		subnet.addSubnetListener(new SubnetListener() {
+			@Override
+			public void agentMoved(SubnetEvent event) {
+				events.append("moved ").append(event.getFrom()).append(' ').append(event.getTo()).append(", ");
+			}
+
+			@Override
+			public void statusChanged(SubnetEvent event) {
+				events.append(event.isAgentOnAGateway() ? "lost, " : "won, ");
+			}
+		});
+		int first = subnet.getNextHop(0);
+		subnet.disconnectNodesBeforeAgentMovesOn(99, 999);
+		subnet.disconnectNodesBeforeAgentMovesOn(99, 999);
+		assertEquals("moved 0 " + first + ", moved " + first + " 3, lost, ", events.toString());
+		assertEquals(2, monitor.getTurns());
+		assertEquals(0, monitor.getDisconnectedLinks());
+		assertEquals(2, monitor.getAgentMoves());
+		assertEquals(1, monitor.getLostGames());
+		assertTrue(monitor.getTurnNanosP50() <= monitor.getTurnNanosMax());
+
+		// neither the subnet without it nor subnets created later report to the monitor
+		subnet.removeSubnetListener(monitor);
+		SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.BETA).disconnectNodesBeforeAgentMovesOn(0, 1);
+		subnet.disconnectNodesBeforeAgentMovesOn(99, 999);
+		assertEquals(1, monitor.getLoadedSubnets());
+		assertEquals(2, monitor.getTurns());
+
+		monitor.registerMBean();
+		try {
+			assertTrue(ManagementFactory.getPlatformMBeanServer()
+					.isRegistered(new ObjectName(SubnetMonitor.OBJECT_NAME)));
+		} catch (MalformedObjectNameException e) {
+			fail(e.getMessage());
+		} finally {
+			monitor.unregisterMBean();
+		}
+		monitor.reset();
+		assertEquals(0, monitor.getTurns());
+	}
+
+	@Test
+	public void testTemplates() {
+		SubnetMonitor monitor = new SubnetMonitor();
+		SkynetSubnet.addDefaultListener(monitor);
+		SubnetBackdoor first;
+		SubnetBackdoor second;
+		try {
+			first = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.GAMMA, SkynetSubnet.Core.CSR);
+			second = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.GAMMA, SkynetSubnet.Core.CSR);
+		} finally {
+			SkynetSubnet.removeDefaultListener(monitor);
+		}
+		assertEquals(2, monitor.getLoadedSubnets());
+
+		// games on the same map do not share their severed links
+		int agent = first.getAgentPosition();
+		int next = first.getNextHop(agent);
+		assertTrue(first.disconnectNodesBeforeAgentMovesOn(agent, next));
+		assertEquals(agent, second.getAgentPosition());
+		assertEquals(next, second.getNextHop(agent));
+		assertEquals(second.getNodeLinks().length - 1, first.getNodeLinks().length);
+
+		// a game from the cache plays like a game whose map is read again
+		SubnetBackdoor fresh;
+		SkynetSubnet.setTemplateCacheSize(0);
+		try {
+			fresh = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.GAMMA, SkynetSubnet.Core.CSR);
+		} finally {
+			SkynetSubnet.setTemplateCacheSize(16);
+		}
+		while (second.isAgentStillMoving()) {
+			int position = second.getAgentPosition();
+			int hop = second.getNextHop(position);
+			assertEquals(fresh.disconnectNodesBeforeAgentMovesOn(position, hop),
+					second.disconnectNodesBeforeAgentMovesOn(position, hop));
+			assertEquals(fresh.getAgentPosition(), second.getAgentPosition());
+		}
+		assertEquals(fresh.isAgentOnAGateway(), second.isAgentOnAGateway());
+	}
+
+	@Test
+	public void testTemplatesOfChangedFiles() throws Exception {
+		Path textMap = Files.createTempFile("grid", ".txt");
+		Path binaryMap = Files.createTempFile("grid", ".skn");
+		Path otherMap = Files.createTempFile("grid", ".skn");
+		try {
+			// three maps of the same size
+			byte[][] maps = new byte[3][];
+			int[][] gateways = new int[maps.length][];
+			SkynetSubnet.setTemplateCacheSize(0);
+			try {
+				for (int seed = 0; seed < maps.length; seed++) {
+					SubnetCorpusGenerator.writeGrid(textMap, 20, 20, 3, seed);
+					SubnetMapConverter.convert(textMap, binaryMap);
+					maps[seed] = Files.readAllBytes(binaryMap);
+					gateways[seed] = SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR)
+							.getGatewayNodes();
+				}
+			} finally {
+				SkynetSubnet.setTemplateCacheSize(16);
+			}
+			assertFalse(Arrays.equals(gateways[0], gateways[1]) || Arrays.equals(gateways[0], gateways[2]));
+			FileTime lastModified = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+			Files.write(binaryMap, maps[0]);
+			Files.setLastModifiedTime(binaryMap, lastModified);
+			assertArrayEquals(gateways[0],
+					SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR).getGatewayNodes());
+
+			// the file is not read again as long as its size, its time and
+			// its file key stay the same, even if it was secretly rewritten
+			Files.write(binaryMap, maps[1]);
+			Files.setLastModifiedTime(binaryMap, lastModified);
+			assertArrayEquals(gateways[0],
+					SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR).getGatewayNodes());
+
+			// a file replaced by another one with the same size and time gets
+			// another file key, if the file system has file keys
+			Files.write(otherMap, maps[2]);
+			Files.setLastModifiedTime(otherMap, lastModified);
+			Files.move(otherMap, binaryMap, StandardCopyOption.REPLACE_EXISTING);
+			if (Files.readAttributes(binaryMap, BasicFileAttributes.class).fileKey() != null) {
+				assertArrayEquals(gateways[2],
+						SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR).getGatewayNodes());
+			}
+
+			// a file which has just been changed is read again
+			Files.write(binaryMap, maps[1]);
+			assertArrayEquals(gateways[1],
+					SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR).getGatewayNodes());
+			Files.write(binaryMap, maps[0]);
+			assertArrayEquals(gateways[0],
+					SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR).getGatewayNodes());
+		} finally {
+			Files.delete(textMap);
+			Files.delete(binaryMap);
+			Files.deleteIfExists(otherMap);
+		}
+	}
+
+	@Test
+	public void testReplayLog() throws Exception {
+		Path log = Files.createTempFile("game", ".skr");
+		try {
+			SubnetBackdoor subnet = SkynetSubnet.createRandomSubnet(2000, 3.0, 9L, 3, SkynetSubnet.Core.CSR);
+			int[][] links = subnet.getNodeLinks();
+			Random random = new Random(9L);
+			// the recording starts in the middle of the game
+			subnet.disconnectNodesBeforeAgentMovesOn(links[0][0], links[0][1]);
+			try (SubnetRecorder recorder = SubnetRecorder.record(subnet, log)) {
+				for (int turn = 0; turn < 500; turn++) {
+					int[] link = links[random.nextInt(links.length)];
+					subnet.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+				}
+				assertEquals(500, recorder.getTurns());
+			}
+			subnet.disconnectNodesBeforeAgentMovesOn(links[1][0], links[1][1]);
+
+			SubnetReplayer replayer = new SubnetReplayer(log);
+			assertEquals(3, replayer.getAgentCount());
+			assertEquals(500, replayer.getTurns());
+			SubnetBackdoor replayed = replayer.replay(SkynetSubnet.Core.OFF_HEAP);
+			replayed.disconnectNodesBeforeAgentMovesOn(links[1][0], links[1][1]);
+			assertArrayEquals(subnet.getAgentPositions(), replayed.getAgentPositions());
+			assertEquals(subnet.getNodeLinksBuffer(), replayed.getNodeLinksBuffer());
+
+			// an incomplete turn at the end is ignored, a wrong position is found
+			try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+				// a turn has 6 ints, the last one is the position of agent 2
+				channel.truncate(channel.size() - 2);
+				channel.write(ByteBuffer.wrap(new byte[] { -1, -1, -1, -1 }), channel.size() - 22 - 4);
+			}
+			replayer = new SubnetReplayer(log);
+			assertEquals(499, replayer.getTurns());
+			try {
+				replayer.replay(SkynetSubnet.Core.CSR);
+				fail("The wrong position of the agent was not found.");
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("diverged in turn 498: agent 2"));
+			}
+		} finally {
+			Files.delete(log);
+		}
+	}
+
+	@Test
+	public void testCoresBreakTiesLikeHashMap() throws Exception {
+		// the 9 multiples of 16 share a bucket, so the HashMap of the agent's
+		// node grows before it is 3/4 full
+		int[] neighbours = { 144, 3, 16, 32, 48, 64, 80, 96, 112, 128, 5 };
+		StringBuilder map = new StringBuilder();
+		map.append(2 * neighbours.length).append(' ').append(neighbours.length).append('\n');
+		HashMap<Integer, Integer> hashMap = new HashMap<>();
+		for (int id : neighbours) {
+			map.append("1 ").append(id).append('\n');
+			hashMap.put(id, id);
+		}
+		for (int id : neighbours) {
+			map.append(id).append(' ').append(1000 + id).append('\n');
+		}
+		for (int id : neighbours) {
+			map.append(1000 + id).append('\n');
+		}
+		map.append("1\n");
+		List<Integer> order = new ArrayList<>(hashMap.keySet());
+		int last = order.get(order.size() - 1);
+
+		Path textMap = Files.createTempFile("ties", ".txt");
+		Path binaryMap = Files.createTempFile("ties", ".skn");
+		Path partitionedMap = Files.createTempFile("ties", ".skp");
+		try {
+			Files.write(textMap, map.toString().getBytes("US-ASCII"));
+			SubnetMapConverter.convert(textMap, binaryMap);
+			SubnetMapConverter.partition(binaryMap, partitionedMap);
+			List<SubnetBackdoor> subnets = new ArrayList<>();
+			for (SkynetSubnet.Core core : SkynetSubnet.Core.values()) {
+				subnets.add(SkynetSubnet.createSubnetFromBinaryFile(binaryMap, core));
+			}
+			subnets.add(SkynetSubnet.createSubnetFromPartitionedFile(partitionedMap));
+			for (SubnetBackdoor subnet : subnets) {
+				assertEquals(last, subnet.predictAgentPath(1)[0]);
+				subnet.disconnectNodesBeforeAgentMovesOn(1, last);
+				assertEquals(order.get(order.size() - 2).intValue(), subnet.getAgentPosition());
+			}
+		} finally {
+			Files.delete(textMap);
+			Files.delete(binaryMap);
+			Files.delete(partitionedMap);
+		}
+	}
+
+	@Test
+	public void testReplayLogFromTheMiddle() throws Exception {
+		Path log = Files.createTempFile("game", ".skr");
+		try {
+			SubnetBackdoor subnet = SkynetSubnet.createRandomSubnet(300, 5, 11L, SkynetSubnet.Core.NODES);
+			int[][] links = subnet.getNodeLinks();
+			Random random = new Random(11L);
+			for (int turn = 0; turn < 30; turn++) {
+				int[] link = links[random.nextInt(links.length)];
+				subnet.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+			}
+			try (SubnetRecorder recorder = SubnetRecorder.record(subnet, log)) {
+				for (int turn = 0; turn < 100; turn++) {
+					int[] link = links[random.nextInt(links.length)];
+					subnet.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+				}
+				assertEquals(100, recorder.getTurns());
+			}
+
+			SubnetReplayer replayer = new SubnetReplayer(log);
+			assertEquals(SkynetSubnet.Core.NODES, replayer.getCore());
+			SubnetBackdoor replayed = replayer.replay();
+			assertEquals(subnet.getAgentPosition(), replayed.getAgentPosition());
+			assertEquals(subnet.getNodeLinksBuffer(), replayed.getNodeLinksBuffer());
+			assertEquals(subnet.getAgentPosition(), replayer.replay(SkynetSubnet.Core.CSR).getAgentPosition());
+		} finally {
+			Files.delete(log);
+		}
+	}
+
+	@Test
+	public void testPartitionedMap() throws Exception {
+		Path textMap = Files.createTempFile("grid", ".txt");
+		Path binaryMap = Files.createTempFile("grid", ".skn");
+		Path partitionedMap = Files.createTempFile("grid", ".skp");
+		try {
+			SubnetCorpusGenerator.writeGrid(textMap, 150, 100, 4, 13L);
+			SubnetMapConverter.convert(textMap, binaryMap);
+			SubnetMapConverter.partition(binaryMap, partitionedMap);
+			SubnetBackdoor csr = SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR);
+			SubnetBackdoor lazy = SkynetSubnet.createSubnetFromPartitionedFile(partitionedMap);
+			assertArrayEquals(csr.getGatewayNodes(), lazy.getGatewayNodes());
+			assertEquals(csr.getAgentPosition(), lazy.getAgentPosition());
+
+			int[][] links = csr.getNodeLinks();
+			Random random = new Random(13L);
+			csr.mark();
+			lazy.mark();
+			for (int turn = 0; turn < 200 && csr.isAgentStillMoving(); turn++) {
+				int[] link = links[random.nextInt(links.length)];
+				if (random.nextBoolean()) {
+					// sever the link the agent wants to move on
+					int agent = csr.getAgentPosition();
+					link = new int[] { agent, csr.getNextHop(agent) };
+				}
+				assertEquals(csr.disconnectNodesBeforeAgentMovesOn(link[0], link[1]),
+						lazy.disconnectNodesBeforeAgentMovesOn(link[0], link[1]));
+				assertEquals(csr.getAgentPosition(), lazy.getAgentPosition());
+				if (turn % 10 == 9) {
+					assertTrue(csr.undoLastTurn());
+					assertTrue(lazy.undoLastTurn());
+				}
+			}
+			assertEquals(csr.isAgentOnAGateway(), lazy.isAgentOnAGateway());
+
+			// the links are only read completely when they are asked for
+			Set<Long> remaining = new HashSet<>();
+			csr.forEachLink((a, b) -> remaining.add((long) Math.min(a, b) << 32 | Math.max(a, b)));
+			Set<Long> lazyRemaining = new HashSet<>();
+			lazy.forEachLink((a, b) -> lazyRemaining.add((long) Math.min(a, b) << 32 | Math.max(a, b)));
+			assertEquals(remaining, lazyRemaining);
+			lazy.rollbackTo(0);
+			assertEquals(links.length, lazy.getNodeLinks().length);
+		} finally {
+			Files.delete(textMap);
+			Files.delete(binaryMap);
+			Files.delete(partitionedMap);
+		}
+	}
+
+	@Test
+	public void testMinimumCut() {
+		SubnetBackdoor subnet = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.BETA, SkynetSubnet.Core.CSR);
+		int[][] cut = subnet.getMinimumCut();
+		Arrays.sort(cut, (x, y) -> Integer.compare(x[0], y[0]));
+		assertArrayEquals(new int[][] { { 1, 3 }, { 2, 3 } }, cut);
+		subnet.mark();
+		subnet.disconnectNodesBeforeAgentMovesOn(1, 3);
+		assertArrayEquals(new int[][] { { 2, 3 } }, subnet.getMinimumCut());
+		assertTrue(subnet.undoLastTurn());
+		assertEquals(2, subnet.getMinimumCut().length);
+		subnet.disconnectNodesBeforeAgentMovesOn(0, 1);
+		subnet.disconnectNodesBeforeAgentMovesOn(1, 3);
+		assertNull(subnet.getMinimumCut());
+
+		// the cut kept up to date turn by turn is as small as a new one
+		subnet = SkynetSubnet.createRandomSubnet(5000, 3.0, 21L, SkynetSubnet.Core.CSR);
+		int[][] links = subnet.getNodeLinks();
+		Random random = new Random(21L);
+		while (subnet.isAgentStillMoving()) {
+			cut = subnet.getMinimumCut();
+			assertEquals(subnet.fork().getMinimumCut().length, cut.length);
+			int[] link = cut.length > 0 && random.nextBoolean() ? cut[0] : links[random.nextInt(links.length)];
+			subnet.disconnectNodesBeforeAgentMovesOn(link[0], link[1]);
+		}
+		if (!subnet.isAgentOnAGateway()) {
+			assertEquals(0, subnet.getMinimumCut().length);
+		}
+	}
+
+	@Test
+	public void testBinaryMap() throws Exception {
+		Path textMap = Paths.get(SkynetSubnetTest.class.getResource("/subnetGamma.txt").toURI());
+		Path binaryMap = Files.createTempFile("subnetGamma", ".skn");
+		try {
+			SubnetMapConverter.convert(textMap, binaryMap);
+			SubnetBackdoor text = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.GAMMA);
+			SubnetBackdoor binary = SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR);
+			assertArrayEquals(text.getNodeLinks(), binary.getNodeLinks());
+			assertArrayEquals(text.getGatewayNodes(), binary.getGatewayNodes());
+			assertEquals(text.getAgentPosition(), binary.getAgentPosition());
+			while (text.isAgentStillMoving()) {
+				text.disconnectNodesBeforeAgentMovesOn(99, 999);
+				binary.disconnectNodesBeforeAgentMovesOn(99, 999);
+				assertEquals(text.getAgentPosition(), binary.getAgentPosition());
+			}
+			assertFalse(binary.isAgentStillMoving());
+		} finally {
+			Files.delete(binaryMap);
+		}
+	}
+
+	@Test
+	public void testWriteTo() throws Exception {
+		SubnetBackdoor subnet = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.GAMMA, SkynetSubnet.Core.CSR);
+		int agent = subnet.getAgentPosition();
+		subnet.disconnectNodesBeforeAgentMovesOn(agent, subnet.getNextHop(agent));
+
+		// a subnet written in the middle of a game loads as a map of that game
+		Path binaryMap = Files.createTempFile("game", ".skn");
+		try {
+			try (FileChannel out = FileChannel.open(binaryMap, StandardOpenOption.WRITE)) {
+				subnet.writeTo(out, SubnetFormat.BINARY);
+			}
+			SubnetBackdoor loaded = SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR);
+			assertArrayEquals(subnet.getNodeLinks(), loaded.getNodeLinks());
+			assertArrayEquals(subnet.getGatewayNodes(), loaded.getGatewayNodes());
+			assertEquals(subnet.getAgentPosition(), loaded.getAgentPosition());
+		} finally {
+			Files.delete(binaryMap);
+		}
+
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		subnet.writeTo(Channels.newChannel(text), SubnetFormat.TEXT);
+		assertEquals(subnet.toString(), text.toString("US-ASCII"));
+		assertTrue(subnet.toString().startsWith(subnet.getNodeLinks().length + "\r\n"));
+
+		ByteArrayOutputStream dot = new ByteArrayOutputStream();
+		subnet.writeTo(Channels.newChannel(dot), SubnetFormat.DOT);
+		int[] link = subnet.getNodeLinks()[0];
+		String graph = dot.toString("US-ASCII");
+		assertTrue(graph.startsWith("graph subnet {\n\t" + link[0] + " -- " + link[1] + ";\n"));
+		assertTrue(graph.contains("\t" + subnet.getGatewayNodes()[0] + " [shape=doublecircle];\n"));
+		assertTrue(graph.endsWith("\t" + subnet.getAgentPosition() + " [style=filled];\n}\n"));
+	}
+
+	@Test
+	public void testSeededRandomSubnet() {
+		SubnetBackdoor first = SkynetSubnet.createRandomSubnet(1000, 4.0, 42L);
+		SubnetBackdoor second = SkynetSubnet.createRandomSubnet(1000, 4.0, 42L, SkynetSubnet.Core.CSR);
+		assertArrayEquals(first.getNodeLinks(), second.getNodeLinks());
+		assertArrayEquals(first.getGatewayNodes(), second.getGatewayNodes());
+		assertEquals(first.getAgentPosition(), second.getAgentPosition());
+
+		boolean[] gateway = new boolean[1000];
+		for (int id : first.getGatewayNodes()) {
+			gateway[id] = true;
+		}
+		int[] gatewaysLinked = new int[1000];
+		int nodeLinks = 0;
+		for (int[] link : first.getNodeLinks()) {
+			assertFalse(gateway[link[0]] && gateway[link[1]]);
+			if (gateway[link[0]]) {
+				gatewaysLinked[link[1]]++;
+			} else if (gateway[link[1]]) {
+				gatewaysLinked[link[0]]++;
+			} else {
+				nodeLinks++;
+			}
+		}
+		for (int count : gatewaysLinked) {
+			assertTrue(count <= 1);
+		}
+		int noneGateways = 1000 - first.getGatewayNodes().length;
+		assertEquals(Math.max(noneGateways - 1, Math.round(4.0 * noneGateways / 2)), nodeLinks);
+	}
+
+	@Test
+	public void testCorpusMapsLoadFromTheClassPath() throws Exception {
+		Path classPathRoot = Paths.get(SkynetSubnetTest.class.getResource("/subnetBeta.txt").toURI()).getParent();
+		Path grid = classPathRoot.resolve("corpusGrid.txt");
+		Path scaleFree = classPathRoot.resolve("corpusScaleFree.txt");
+		Path wheels = classPathRoot.resolve("corpusWheels.txt");
+		try {
+			SubnetCorpusGenerator.writeGrid(grid, 20, 10, 4, 1L);
+			SubnetCorpusGenerator.writeScaleFree(scaleFree, 500, 2, 5, 1L);
+			SubnetCorpusGenerator.writeWheelOfRings(wheels, 3, 6);
+
+			SubnetBackdoor backdoor = SkynetSubnet.createSubnet("/corpusGrid.txt");
+			assertEquals(19 * 10 + 20 * 9, backdoor.getNodeLinks().length);
+			assertEquals(4, backdoor.getGatewayNodes().length);
+			assertEquals(5 * 20 + 10, backdoor.getAgentPosition());
+
+			backdoor = SkynetSubnet.createSubnet("/corpusScaleFree.txt", SkynetSubnet.Core.CSR);
+			assertEquals(3 + 497 * 2, backdoor.getNodeLinks().length);
+			assertEquals(5, backdoor.getGatewayNodes().length);
+
+			backdoor = SkynetSubnet.createSubnet("/corpusWheels.txt");
+			assertEquals(3 * 13 + 2 * 3, backdoor.getNodeLinks().length);
+			assertArrayEquals(new int[] { 7, 15, 23 }, backdoor.getGatewayNodes());
+			while (backdoor.isAgentStillMoving()) {
+				backdoor.disconnectNodesBeforeAgentMovesOn(99, 999);
+			}
+			assertTrue(backdoor.isAgentOnAGateway());
+			assertEquals(7, backdoor.getAgentPosition());
+		} finally {
+			Files.deleteIfExists(grid);
+			Files.deleteIfExists(scaleFree);
+			Files.deleteIfExists(wheels);
+		}
+	}
+
+	@Test
+	public void testPlayTurns() {
+		SubnetBackdoor single = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.GAMMA);
+		SubnetBackdoor batch = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.GAMMA);
+		int[] a = { 0, 5, 99, 13, 7, 7, 7, 7 };
+		int[] b = { 6, 6, 999, 6, 13, 13, 13, 13 };
+		TurnResults results = batch.playTurns(a, b);
+		for (int i = 0; i < results.getTurnCount(); i++) {
+			assertEquals(single.disconnectNodesBeforeAgentMovesOn(a[i], b[i]), results.getDisconnected()[i]);
+			assertEquals(single.getAgentPosition(), results.getAgentPositions()[i]);
+		}
+		assertFalse(batch.isAgentStillMoving());
+		assertTrue(results.getTurnCount() < a.length);
+		assertFalse(results.getDisconnected()[2]);
+		assertEquals(0, batch.playTurns(a, b).getTurnCount());
+
+		// the positions of all agents are recorded
+		int[] agentPositions = { 0, 2, 1 };
+		single = SkynetSubnet.createSubnet("/subnetBeta.txt", agentPositions, SkynetSubnet.Core.CSR);
+		batch = SkynetSubnet.createSubnet("/subnetBeta.txt", agentPositions, SkynetSubnet.Core.CSR);
+		a = new int[] { 3, 99, 99 };
+		b = new int[] { 2, 999, 999 };
+		results = batch.playTurns(a, b);
+		assertEquals(agentPositions.length, results.getAgentCount());
+		for (int i = 0; i < results.getTurnCount(); i++) {
+			single.disconnectNodesBeforeAgentMovesOn(a[i], b[i]);
+			for (int agent = 0; agent < agentPositions.length; agent++) {
+				assertEquals(single.getAgentPositions()[agent], results.getAgentPosition(i, agent));
+				assertEquals(single.getAgentPositions()[agent], results.getAgentPositions(agent)[i]);
+			}
+			assertEquals(single.getAgentPosition(), results.getAgentPositions()[i]);
+		}
+	}
+
+	@Test
+	public void testFork() {
+		for (SkynetSubnet.Core core : SkynetSubnet.Core.values()) {
+			SubnetBackdoor parent = SkynetSubnet.createSubnet("/subnetGamma.txt", core);
+			parent.disconnectNodesBeforeAgentMovesOn(0, 6);
+			SubnetBackdoor fork = parent.fork();
+			assertEquals(parent.getAgentPosition(), fork.getAgentPosition());
+			assertArrayEquals(parent.getNodeLinks(), fork.getNodeLinks());
+
+			// the fork saves the world, the parent does not
+			SubnetBackdoor reference = SkynetSubnet.createSubnet("/subnetGamma.txt", core);
+			reference.disconnectNodesBeforeAgentMovesOn(0, 6);
+			int[] a = { 1, 5, 5, 5, 6, 7, 8 };
+			int[] b = { 6, 6, 7, 8, 13, 13, 13 };
+			fork.playTurns(a, b);
+			TurnResults expected = reference.playTurns(a, b);
+			assertEquals(reference.getAgentPosition(), fork.getAgentPosition());
+			assertEquals(reference.isAgentOnAGateway(), fork.isAgentOnAGateway());
+			assertTrue(expected.getTurnCount() > 0);
+			assertEquals(reference.isAgentStillMoving(), fork.isAgentStillMoving());
+			assertArrayEquals(reference.getNodeLinks(), fork.getNodeLinks());
+
+			assertEquals(SkynetSubnet.createSubnet("/subnetGamma.txt").getNodeLinks().length - 1,
+					parent.getNodeLinks().length);
+			while (parent.isAgentStillMoving()) {
+				parent.disconnectNodesBeforeAgentMovesOn(99, 999);
+			}
+			assertTrue(parent.isAgentOnAGateway());
+		}
+	}
+
+	@Test
+	public void testUndoJournal() {
+		for (SkynetSubnet.Core core : SkynetSubnet.Core.values()) {
+			SubnetBackdoor backdoor = SkynetSubnet.createSubnet("/subnetGamma.txt", core);
+			int[][] links = backdoor.getNodeLinks();
+			assertFalse(backdoor.undoLastTurn());
+
+			int start = backdoor.mark();
+			assertEquals(0, start);
+			assertTrue(backdoor.disconnectNodesBeforeAgentMovesOn(0, 6));
+			int position = backdoor.getAgentPosition();
+			int mark = backdoor.mark();
+			assertEquals(1, mark);
+			backdoor.disconnectNodesBeforeAgentMovesOn(5, 6);
+			backdoor.disconnectNodesBeforeAgentMovesOn(99, 999);
+
+			backdoor.rollbackTo(mark);
+			assertEquals(position, backdoor.getAgentPosition());
+			assertEquals(links.length - 1, backdoor.getNodeLinks().length);
+			assertTrue(backdoor.undoLastTurn());
+			assertEquals(0, backdoor.getAgentPosition());
+			assertArrayEquals(links, backdoor.getNodeLinks());
+			assertTrue(backdoor.isAgentStillMoving());
+
+			// the game goes on as if nothing had happened
+			SubnetBackdoor reference = SkynetSubnet.createSubnet("/subnetGamma.txt", core);
+			while (reference.isAgentStillMoving()) {
+				reference.disconnectNodesBeforeAgentMovesOn(99, 999);
+				backdoor.disconnectNodesBeforeAgentMovesOn(99, 999);
+				assertEquals(reference.getAgentPosition(), backdoor.getAgentPosition());
+			}
+			assertFalse(backdoor.isAgentStillMoving());
+			backdoor.rollbackTo(start);
+			assertTrue(backdoor.isAgentStillMoving());
+			backdoor.clearJournal();
+			assertFalse(backdoor.undoLastTurn());
+		}
+	}
+
+	@Test
+	public void testSolver() {
+		for (int subnetId = SkynetSubnet.ALPHA; subnetId <= SkynetSubnet.DEFAULT; subnetId++) {
+			SubnetBackdoor subnet = SkynetSubnet.createBackdoorToExistingSubnet(subnetId, SkynetSubnet.Core.CSR);
+			SubnetSolver.Result result = new SubnetSolver(10, TimeUnit.MILLISECONDS).solve(subnet);
+			assertTrue(result.isWon());
+			assertFalse(subnet.isAgentStillMoving());
+			assertFalse(subnet.isAgentOnAGateway());
+			assertTrue(result.getExpandedNodes() >= result.getSeverCount());
+
+			// the links disconnected win the game again
+			SubnetBackdoor replay = SkynetSubnet.createBackdoorToExistingSubnet(subnetId);
+			replay.playTurns(result.getFirstNodes(), result.getSecondNodes());
+			assertFalse(replay.isAgentStillMoving());
+			assertFalse(replay.isAgentOnAGateway());
+		}
+	}
+
+	@Test
+	public void testTournament() {
+		SubnetTournament tournament = new SubnetTournament(SkynetSubnet.Core.CSR);
+		tournament.addPlayer("solver", new SubnetSolver(0, TimeUnit.MILLISECONDS));
+		tournament.addPlayer("idle", subnet -> {
+			while (subnet.isAgentStillMoving()) {
+				subnet.disconnectNodesBeforeAgentMovesOn(-1, -1);
+			}
+		});
+		tournament.addPlayer("broken", subnet -> {
+			throw new RuntimeException("No move.");
+		});
+		tournament.addPredefinedSubnets();
+		tournament.addRandomSubnets(8, 50, 3.0, 7L);
+		List<SubnetTournament.Standing> standings = tournament.run();
+
+		assertEquals(3, standings.size());
+		SubnetTournament.Standing solver = standings.get(0);
+		assertEquals("solver", solver.getName());
+		assertEquals(12, solver.getGames());
+		assertTrue(solver.getWins() >= 4);
+		assertTrue(solver.getTurns() >= solver.getGames());
+		assertTrue(solver.getTurnLatency(50) <= solver.getTurnLatency(99));
+		assertTrue(solver.getTurnLatency(99) <= solver.getMaxTurnLatency());
+
+		SubnetTournament.Standing idle = standings.get(1);
+		assertEquals(12, idle.getGames());
+		assertEquals(0, idle.getWins());
+		assertEquals(0, idle.getErrors());
+
+		SubnetTournament.Standing broken = standings.get(2);
+		assertEquals(0, broken.getGames());
+		assertEquals(12, broken.getErrors());
+	}
+
+	@Test
+	public void testWeightedLinks() throws Exception {
+		// the agent takes the light way over 2, not the heavy link to 3
+		String map = "weighted\n5\n2\n0 1 1\n1 3 10\n0 2 2\n2 4 2\n0 3 9\n3\n4\n0\n";
+		Path textMap = Files.createTempFile("weighted", ".txt");
+		Path binaryMap = Files.createTempFile("weighted", ".skn");
+		Path partitionedMap = Files.createTempFile("weighted", ".skp");
+		try {
+			Files.write(textMap, map.getBytes("US-ASCII"));
+			SubnetMapConverter.convert(textMap, binaryMap);
+			for (SkynetSubnet.Core core : new SkynetSubnet.Core[] { SkynetSubnet.Core.NODES, SkynetSubnet.Core.CSR,
+					SkynetSubnet.Core.OFF_HEAP }) {
+				SubnetBackdoor subnet = SkynetSubnet.createSubnetFromBinaryFile(binaryMap, core);
+				assertEquals(9, subnet.getLinkWeight(3, 0));
+				assertEquals(-1, subnet.getLinkWeight(1, 2));
+				assertEquals(4, subnet.getStepsToNearestGateway(0));
+				assertArrayEquals(new int[] { 2, 4 }, subnet.predictAgentPath(Integer.MAX_VALUE));
+
+				ByteArrayOutputStream text = new ByteArrayOutputStream();
+				subnet.writeTo(Channels.newChannel(text), SubnetFormat.TEXT);
+				assertEquals(map.replace("\n", "\r\n"), text.toString("US-ASCII"));
+				assertEquals(subnet.toString(), text.toString("US-ASCII"));
+
+				// without the light way the heavy link is cheaper than 1 and 3
+				subnet.disconnectNodesBeforeAgentMovesOn(0, 2);
+				assertEquals(3, subnet.getAgentPosition());
+				assertTrue(subnet.isAgentOnAGateway());
+			}
+			try {
+				SubnetMapConverter.partition(binaryMap, partitionedMap);
+				fail("A map with weights was partitioned.");
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("weights"));
+			}
+		} finally {
+			Files.delete(textMap);
+			Files.delete(binaryMap);
+			Files.delete(partitionedMap);
+		}
+	}
+
+	@Test
+	public void testTextMapLayout() throws Exception {
+		// only maps starting with the marker have weights, the layout of the
+		// integers and trailing text after the agent position do not matter
+		String[] maps = { "2 1\n0 1\n1 2\n2 0", "2\n1\n\n0 1\r\n1 2\r\n\n2\n0\n", "2 1\n0 1 1 2\n2\n0\n",
+				"2 1 0 1 1 2 2 0", "weighted\n2 1\n0 1 5\n1 2 1\n2\n0\n", "weighted 2 1 0 1 5 1 2 1 2 0",
+				"2 1\n0 1\n1 2\n2\n0\nend of map\n", "2 1\n0 1\n1 2\n2\n0\n7 8\n",
+				"weighted\n2 1\n0 1 5\n1 2 1\n2\n0\n7\n" };
+		int[] weights = { 1, 1, 1, 1, 5, 5, 1, 1, 5 };
+		Path textMap = Files.createTempFile("layout", ".txt");
+		Path binaryMap = Files.createTempFile("layout", ".skn");
+		try {
+			for (int i = 0; i < maps.length; i++) {
+				Files.write(textMap, maps[i].getBytes("US-ASCII"));
+				SubnetMapConverter.convert(textMap, binaryMap);
+				SubnetBackdoor subnet = SkynetSubnet.createSubnetFromBinaryFile(binaryMap, SkynetSubnet.Core.CSR);
+				assertArrayEquals(maps[i], new int[][] { { 0, 1 }, { 1, 2 } }, subnet.getNodeLinks());
+				assertArrayEquals(maps[i], new int[] { 2 }, subnet.getGatewayNodes());
+				assertEquals(maps[i], 0, subnet.getAgentPosition());
+				assertEquals(maps[i], weights[i], subnet.getLinkWeight(0, 1));
+			}
+
+			// a weight of 0, missing weights or an unknown marker
+			String[] illegalMaps = { "weighted\n2 1\n0 1 0\n1 2 1\n2\n0\n",
+					"weighted\n2 1\n0 1\n1 2\n2\n0\n", "heavy\n2 1\n0 1 5\n1 2 1\n2\n0\n" };
+			for (String map : illegalMaps) {
+				Files.write(textMap, map.getBytes("US-ASCII"));
+				try {
+					SubnetMapConverter.convert(textMap, binaryMap);
+					fail("An illegal map was read: " + map);
+				} catch (RuntimeException e) {
+					assertTrue(e.getMessage(), e.getMessage().startsWith("Illegal subnet map"));
+				}
+			}
+		} finally {
+			Files.delete(textMap);
+			Files.delete(binaryMap);
+		}
+	}
+
+	@Test
+	public void testDefaultsOfOtherBackdoors() {
+		// a back door written before the additions to the interface
+		SubnetBackdoor subnet = SkynetSubnet.createBackdoorToExistingSubnet(SkynetSubnet.ALPHA);
+		SubnetBackdoor other = new SubnetBackdoor() {
+			public int[][] getNodeLinks() {
+				return subnet.getNodeLinks();
+			}
+
+			public boolean disconnectNodesBeforeAgentMovesOn(int a, int b) {
+				return subnet.disconnectNodesBeforeAgentMovesOn(a, b);
+			}
+
+			public int getAgentPosition() {
+				return subnet.getAgentPosition();
+			}
+
+			public boolean isAgentStillMoving() {
+				return subnet.isAgentStillMoving();
+			}
+
+			public boolean isAgentOnAGateway() {
+				return subnet.isAgentOnAGateway();
+			}
+
+			public int[] getGatewayNodes() {
+				return subnet.getGatewayNodes();
+			}
+		};
+		try {
+			other.fork();
+			fail("A back door without fork was forked.");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("cannot fork"));
+		}
+		try {
+			other.mark();
+			fail("A back door without journal made a mark.");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("cannot take back"));
+		}
+		assertFalse(other.undoLastTurn());
+		other.clearJournal();
+		try {
+			other.getMinimumCut();
+			fail("A back door without minimum cut found one.");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("minimum cut"));
+		}
+		try {
+			other.addSubnetListener(new SubnetListener() {
+			});
+			fail("A back door without listeners added one.");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("listeners"));
+		}
+
+		// without known steps the way of the agent cannot be predicted
+		assertEquals(-1, other.getStepsToNearestGateway(subnet.getAgentPosition()));
+		assertEquals(-1, other.getNextHop(subnet.getAgentPosition()));
+		assertArrayEquals(new int[0], other.predictAgentPath(10));
+	}
+
 }